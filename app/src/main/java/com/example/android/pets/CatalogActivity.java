@@ -1,33 +1,51 @@
 package com.example.android.pets;
 import android.app.AlertDialog;
-import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetCache;
+import com.example.android.pets.data.PetStartup;
+import com.example.android.pets.data.PetTransfer;
+import com.example.android.pets.data.PetWriter;
 import com.example.android.pets.data.PetsContract.PetsEntry;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity implements PetAdapter.OnPetClickListener,
+        PetWriter.Listener {
+
+    private static final int REQUEST_IMPORT_PETS = 1;
 
-    private static final int PET_LOADER = 0;
+    PetAdapter petAdapter;
 
-    PetCursorAdpater petCursorAdpater;
+    PetPager petPager;
+
+    PetWriter petWriter;
+
+    private View emptyView;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -44,35 +62,82 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        ListView listView = (ListView) findViewById(R.id.list);
+        RecyclerView recyclerView = (RecyclerView) findViewById(R.id.list);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.addItemDecoration(new DividerItemDecoration(this, layoutManager.getOrientation()));
 
-        //set onclicklistener
+        emptyView = findViewById(R.id.empty_view);
 
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        petAdapter = new PetAdapter(this, this);
+        petAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onChanged() {
+                updateEmptyView();
+            }
 
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
 
-                Uri currentPetUri = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id);
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        recyclerView.setAdapter(petAdapter);
+        updateEmptyView();
 
-                intent.setData(currentPetUri);
+        petWriter = new PetWriter(getContentResolver(), this);
 
-                startActivity(intent);
+        petPager = new PetPager(getContentResolver(), petAdapter);
+        petAdapter.setPager(petPager);
+        petPager.start();
 
+        // Startup tracing ends with the first frame of the catalog. Reporting it fully drawn
+        // has the system log the time of that frame too, and am start -W wait for it
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (PetStartup.recordFirstFrame()
+                        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reportFullyDrawn();
+                }
+                return true;
             }
         });
+    }
 
+    @Override
+    protected void onDestroy() {
+        petPager.stop();
+        petAdapter.shutdown();
+        if (BuildConfig.DEBUG) {
+            Log.v("Catalog activity", petAdapter.getBindCount() + " binds, "
+                    + petAdapter.getAverageBindNanos() + " ns per bind");
+            PetCache cache = PetCache.getInstance();
+            Log.v("Catalog activity", "pet cache: " + cache.size() + " pets, " + cache.hitCount()
+                    + " hits, " + cache.missCount() + " misses, " + cache.evictionCount() + " evictions");
+        }
+        super.onDestroy();
+    }
 
+    @Override
+    public void onPetClick(Pet pet) {
+        Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
-        View emptyView = findViewById(R.id.empty_view);
-        listView.setEmptyView(emptyView);
+        Uri currentPetUri = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, pet.getId());
 
-        petCursorAdpater = new PetCursorAdpater(this, null);
-        listView.setAdapter(petCursorAdpater);
+        intent.setData(currentPetUri);
 
-        getLoaderManager().initLoader(PET_LOADER, null, this);
+        startActivity(intent);
+    }
 
+    private void updateEmptyView() {
+        emptyView.setVisibility(petAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
@@ -85,34 +150,75 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
-
-        showDeleteAllConfirmationDialog();
+        switch (item.getItemId()) {
+            case R.id.action_import_pets:
+                Intent pick = new Intent(Intent.ACTION_GET_CONTENT);
+                pick.setType("*/*");
+                pick.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(pick, REQUEST_IMPORT_PETS);
+                return true;
+            case R.id.action_delete_all_entries:
+                showDeleteAllConfirmationDialog();
+                return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        String[] projection = {
-                PetsEntry.COLUMN_ID,
-                PetsEntry.COLUMN_NAME,
-                PetsEntry.COLUMN_BREED };
-
-        return new CursorLoader(this,
-                PetsEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null);
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_PETS) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                new ImportPetsTask(this).execute(data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        petCursorAdpater.swapCursor(cursor);
-    }
+    /**
+     * Imports a picked CSV or JSON file off the main thread. Only holds the application context,
+     * the catalog picks up the new pets from the change notifications of the provider.
+     */
+    private static class ImportPetsTask extends AsyncTask<Uri, Void, String> {
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        petCursorAdpater.swapCursor(null);
+        private final Context mContext;
+
+        ImportPetsTask(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        protected String doInBackground(Uri... uris) {
+            ContentResolver contentResolver = mContext.getContentResolver();
+            String type = contentResolver.getType(uris[0]);
+            PetTransfer.Format format = "application/json".equals(type)
+                    || uris[0].toString().endsWith(".json")
+                    ? PetTransfer.Format.JSON : PetTransfer.Format.CSV;
+            InputStream in = null;
+            try {
+                in = contentResolver.openInputStream(uris[0]);
+                if (in == null) {
+                    throw new IOException("Cannot open " + uris[0]);
+                }
+                long rows = PetTransfer.importPets(contentResolver, format, in, null);
+                return mContext.getString(R.string.catalog_import_done, rows);
+            } catch (IOException | RuntimeException e) {
+                Log.w("Catalog activity", "Cannot import pets from " + uris[0], e);
+                return mContext.getString(R.string.catalog_import_failed, e.getMessage());
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
+        }
     }
 
     private void showDeleteAllConfirmationDialog() {
@@ -142,9 +248,27 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
     public void deleteAllPet() {
-        int rowNumber = getContentResolver().delete(PetsEntry.CONTENT_URI, null, null);
+        petWriter.deleteAllPets();
+    }
+
+    @Override
+    public void onInsertComplete(Uri uri) {
+    }
+
+    @Override
+    public void onUpdateComplete(int rowNumber) {
+    }
+
+    @Override
+    public void onDeleteComplete(int rowNumber) {
         Log.v("Catalog activity", rowNumber + " rows deleted from pet database");
-        Toast.makeText(this, R.string.catalog_delete_all_pet_successful, Toast.LENGTH_SHORT).show();
+        Toast.makeText(getApplicationContext(), R.string.catalog_delete_all_pet_successful, Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onWriteFailed(Uri uri, RuntimeException error) {
+        Log.w("Catalog activity", "Write to " + uri + " failed", error);
+        Toast.makeText(getApplicationContext(), getString(R.string.write_failed, error.getMessage()), Toast.LENGTH_SHORT).show();
     }
 
 
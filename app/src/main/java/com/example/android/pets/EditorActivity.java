@@ -16,18 +16,17 @@
 package com.example.android.pets;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
-import android.content.CursorLoader;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -35,15 +34,36 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetPhotos;
+import com.example.android.pets.data.PetQueryEngine;
+import com.example.android.pets.data.PetWriter;
 import com.example.android.pets.data.PetsContract;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
+
 
 /**
  * Allows user to create a new pet or edit an existing one.
  */
-public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class EditorActivity extends AppCompatActivity implements PetQueryEngine.Callback,
+        PetWriter.Listener {
+
+    private static final int REQUEST_PICK_PHOTO = 1;
+
+    private static final String STATE_LOADED_PET_ID = "loaded_pet_id";
+    private static final String STATE_LOADED_PET_NAME = "loaded_pet_name";
+    private static final String STATE_LOADED_PET_BREED = "loaded_pet_breed";
+    private static final String STATE_LOADED_PET_GENDER = "loaded_pet_gender";
+    private static final String STATE_LOADED_PET_WEIGHT = "loaded_pet_weight";
+    private static final String STATE_LOADED_PET_PHOTO = "loaded_pet_photo";
+    private static final String STATE_PHOTO_NAME = "photo_name";
+    private static final String STATE_PET_HAS_CHANGED = "pet_has_changed";
 
     /**
      * in update mod pet is untouched
@@ -85,9 +105,52 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private int mGender = 0;
 
-    public static final int petLoader = 0;
+    /**
+     * ImageView showing the pet's photo
+     */
+    private ImageView mPhotoImageView;
+
+    /**
+     * File name of the pet's photo, null if it has none.
+     */
+    private String mPhotoName;
+
+    /**
+     * Shows the photo, made from the same disk cache as the catalog thumbnails.
+     */
+    private PetThumbnailLoader mPhotoLoader;
+
     Uri currentPetUri;
 
+    /**
+     * The pet as it was loaded, to save only the fields that were edited. Null until it is
+     * loaded, and when adding a pet.
+     */
+    private Pet mLoadedPet;
+
+    /**
+     * Loads the pet being edited, cancelled if the activity goes away first. Handed to the new
+     * activity across a configuration change, and null once the pet is loaded.
+     */
+    private PetQueryEngine.Subscription petQuery;
+
+    /**
+     * Copies a picked photo, handed to the new activity across a configuration change like the
+     * query. Null when no photo is being copied.
+     */
+    private ImportPhotoTask mPhotoTask;
+
+    /**
+     * Set in onDestroy, isDestroyed() needs API 17.
+     */
+    private boolean mDestroyed;
+
+    /**
+     * Writes the pet off the main thread. Results can arrive after the activity has finished,
+     * so they are reported with the application context.
+     */
+    private PetWriter petWriter;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -96,6 +159,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         Intent intent = getIntent();
         currentPetUri = intent.getData();
 
+        petWriter = new PetWriter(getContentResolver(), this);
+
         if (currentPetUri == null) {
             //add new pet
             setTitle("Add a new Pet");
@@ -105,9 +170,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         else {
             // update current pet
             setTitle(getString(R.string.editor_activity_title_edit_pet));
-
-            getLoaderManager().initLoader(petLoader,null,this);
-
         }
 
         // Find all relevant views that we will need to read user input from
@@ -115,6 +177,20 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.edit_pet_photo);
+
+        mPhotoLoader = new PetThumbnailLoader(this,
+                getResources().getDimensionPixelSize(R.dimen.editor_photo_size),
+                R.drawable.pet_photo_placeholder);
+        mPhotoImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent pick = new Intent(Intent.ACTION_GET_CONTENT);
+                pick.setType("image/*");
+                pick.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(pick, REQUEST_PICK_PHOTO);
+            }
+        });
 
         mNameEditText.setOnTouchListener(mTouchListener);
         mBreedEditText.setOnTouchListener(mTouchListener);
@@ -122,6 +198,35 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mGenderSpinner.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+
+        // The fields restore their own text, the rest of the editor's state is restored here
+        if (savedInstanceState != null) {
+            mPhotoName = savedInstanceState.getString(STATE_PHOTO_NAME);
+            petHasChanged = savedInstanceState.getBoolean(STATE_PET_HAS_CHANGED);
+            mPhotoLoader.load(mPhotoImageView, mPhotoName);
+        }
+
+        RetainedWork work = (RetainedWork) getLastCustomNonConfigurationInstance();
+        if (work != null && work.photoTask != null) {
+            mPhotoTask = work.photoTask;
+            mPhotoTask.setActivity(this);
+        }
+
+        if (currentPetUri != null) {
+            if (work != null && work.petQuery != null) {
+                petQuery = work.petQuery;
+                petQuery.setCallback(this);
+            } else if (savedInstanceState != null && savedInstanceState.containsKey(STATE_LOADED_PET_ID)) {
+                mLoadedPet = new Pet(savedInstanceState.getLong(STATE_LOADED_PET_ID),
+                        savedInstanceState.getString(STATE_LOADED_PET_NAME),
+                        savedInstanceState.getString(STATE_LOADED_PET_BREED),
+                        savedInstanceState.getInt(STATE_LOADED_PET_GENDER),
+                        savedInstanceState.getInt(STATE_LOADED_PET_WEIGHT),
+                        savedInstanceState.getString(STATE_LOADED_PET_PHOTO));
+            } else {
+                petQuery = PetQueryEngine.getInstance(this).query(currentPetUri, null, null, null, this);
+            }
+        }
     }
 
     /**
@@ -206,8 +311,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     public void savePet() {
-        int rowNumber = 0;
-
         if (currentPetUri == null) {
             String nameString = mNameEditText.getText().toString().trim();
             String breedString = mBreedEditText.getText().toString().trim();
@@ -232,79 +335,212 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             values.put(PetsContract.PetsEntry.COLUMN_BREED, breedString);
             values.put(PetsContract.PetsEntry.COLUMN_GENDER, gender);
             values.put(PetsContract.PetsEntry.COLUMN_WEIGHT, weight);
+            values.put(PetsContract.PetsEntry.COLUMN_PHOTO, mPhotoName);
 
-            Uri uri = getContentResolver().insert(PetsContract.PetsEntry.CONTENT_URI, values);
-
-            if (uri == null) {
-                Toast.makeText(this,getString(R.string.editor_insert_pet_not_successful), Toast.LENGTH_SHORT).show();
-            }
-            else {
-
-                Toast.makeText(this, getString(R.string.editor_insert_pet_successful), Toast.LENGTH_SHORT).show();
-            }
+            petWriter.insertPet(values);
         }
         else {
+            if (!petHasChanged) {
+                // Nothing was touched, the pet is as it was loaded
+                return;
+            }
             String name = mNameEditText.getText().toString().trim();
             String breed = mBreedEditText.getText().toString().trim();
             int gender = mGender;
-            int weight = Integer.parseInt(mWeightEditText.getText().toString().trim());
+            String weightString = mWeightEditText.getText().toString().trim();
+            int weight = TextUtils.isEmpty(weightString) ? 0 : Integer.parseInt(weightString);
 
+            // Only the fields that differ from the loaded pet are written. If the pet has not
+            // loaded yet every field is
+            Pet loaded = mLoadedPet;
             ContentValues values = new ContentValues();
-            values.put(PetsContract.PetsEntry.COLUMN_NAME, name);
-            values.put(PetsContract.PetsEntry.COLUMN_BREED, breed);
-            values.put(PetsContract.PetsEntry.COLUMN_GENDER, gender);
-            values.put(PetsContract.PetsEntry.COLUMN_WEIGHT, weight);
+            if (loaded == null || !TextUtils.equals(name, loaded.getName())) {
+                values.put(PetsContract.PetsEntry.COLUMN_NAME, name);
+            }
+            // An empty breed field shows a breed that was never set
+            if (loaded == null || !breed.equals(loaded.getBreed() == null ? "" : loaded.getBreed())) {
+                values.put(PetsContract.PetsEntry.COLUMN_BREED, breed);
+            }
+            if (loaded == null || gender != loaded.getGender()) {
+                values.put(PetsContract.PetsEntry.COLUMN_GENDER, gender);
+            }
+            if (loaded == null || weight != loaded.getWeight()) {
+                values.put(PetsContract.PetsEntry.COLUMN_WEIGHT, weight);
+            }
+            if (loaded == null || !TextUtils.equals(mPhotoName, loaded.getPhoto())) {
+                values.put(PetsContract.PetsEntry.COLUMN_PHOTO, mPhotoName);
+            }
+
+            if (values.size() == 0) {
+                // Nothing was edited, so there is nothing to write and no one to notify
+                return;
+            }
+            petWriter.updatePet(currentPetUri, values);
+        }
 
-            rowNumber  = getContentResolver().update(currentPetUri, values, null, null );
 
-            if (rowNumber == 0) {
-                Toast.makeText(this,getString(R.string.editor_update_pet_unsuccessful), Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PICK_PHOTO) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                mPhotoTask = new ImportPhotoTask(this);
+                mPhotoTask.execute(data.getData());
             }
-            else {
-                Toast.makeText(this,getString(R.string.editor_update_pet_successful), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    private void onPhotoImported(String photoName) {
+        mPhotoTask = null;
+        if (photoName == null) {
+            Toast.makeText(this, R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        mPhotoName = photoName;
+        petHasChanged = true;
+        mPhotoLoader.load(mPhotoImageView, mPhotoName);
+    }
+
+    /**
+     * Copies a picked photo into the app's photos off the main thread. Holds the activity weakly
+     * so a slow copy does not keep a finished editor alive.
+     */
+    private static class ImportPhotoTask extends AsyncTask<Uri, Void, String> {
+
+        private WeakReference<EditorActivity> mActivity;
+        private final Context mContext;
+
+        ImportPhotoTask(EditorActivity activity) {
+            mActivity = new WeakReference<>(activity);
+            mContext = activity.getApplicationContext();
+        }
+
+        /**
+         * Deliver the photo to the activity recreated after a configuration change.
+         */
+        void setActivity(EditorActivity activity) {
+            mActivity = new WeakReference<>(activity);
+        }
+
+        @Override
+        protected String doInBackground(Uri... uris) {
+            try {
+                return PetPhotos.importPhoto(mContext, uris[0]);
+            } catch (IOException | SecurityException e) {
+                Log.w("Editor activity", "Cannot import photo " + uris[0], e);
+                return null;
             }
+        }
 
+        @Override
+        protected void onPostExecute(String photoName) {
+            EditorActivity activity = mActivity.get();
+            if (activity != null && !activity.isFinishing() && !activity.mDestroyed) {
+                activity.onPhotoImported(photoName);
+            }
         }
+    }
 
+    @Override
+    public void onInsertComplete(Uri uri) {
+        if (uri == null) {
+            Toast.makeText(getApplicationContext(), R.string.editor_insert_pet_not_successful, Toast.LENGTH_SHORT).show();
+        }
+        else {
 
+            Toast.makeText(getApplicationContext(), R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
+        }
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        String[] projection = {
-                PetsContract.PetsEntry.COLUMN_ID,
-                PetsContract.PetsEntry.COLUMN_NAME,
-                PetsContract.PetsEntry.COLUMN_BREED,
-                PetsContract.PetsEntry.COLUMN_WEIGHT,
-                PetsContract.PetsEntry.COLUMN_GENDER };
-
-        return new CursorLoader(this,
-                currentPetUri,
-                projection,
-                null,
-                null,
-                null);
+    public void onUpdateComplete(int rowNumber) {
+        if (rowNumber == 0) {
+            Toast.makeText(getApplicationContext(), R.string.editor_update_pet_unsuccessful, Toast.LENGTH_SHORT).show();
+        }
+        else {
+            Toast.makeText(getApplicationContext(), R.string.editor_update_pet_successful, Toast.LENGTH_SHORT).show();
+        }
     }
 
     @Override
-    public void onLoadFinished(android.content.Loader<Cursor> loader, Cursor data) {
-        if (data.moveToNext()) {
+    public void onDeleteComplete(int rowNumber) {
+        if (rowNumber == 0) {
+            Toast.makeText(getApplicationContext(), R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
+        }
+        else {
+            Toast.makeText(getApplicationContext(), R.string.editor_delete_pet_successful, Toast.LENGTH_SHORT).show();
+        }
+    }
 
-            int nameColumnIndex = data.getColumnIndex(PetsContract.PetsEntry.COLUMN_NAME);
-            int breedColumnIndex = data.getColumnIndex(PetsContract.PetsEntry.COLUMN_BREED);
-            int genderColumnIndex = data.getColumnIndex(PetsContract.PetsEntry.COLUMN_GENDER);
-            int weightColumnIndex = data.getColumnIndex(PetsContract.PetsEntry.COLUMN_WEIGHT);
+    @Override
+    public void onWriteFailed(Uri uri, RuntimeException error) {
+        Log.w("Editor activity", "Write to " + uri + " failed", error);
+        Toast.makeText(getApplicationContext(), getString(R.string.write_failed, error.getMessage()), Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_PHOTO_NAME, mPhotoName);
+        outState.putBoolean(STATE_PET_HAS_CHANGED, petHasChanged);
+        Pet loaded = mLoadedPet;
+        if (loaded != null) {
+            outState.putLong(STATE_LOADED_PET_ID, loaded.getId());
+            outState.putString(STATE_LOADED_PET_NAME, loaded.getName());
+            outState.putString(STATE_LOADED_PET_BREED, loaded.getBreed());
+            outState.putInt(STATE_LOADED_PET_GENDER, loaded.getGender());
+            outState.putInt(STATE_LOADED_PET_WEIGHT, loaded.getWeight());
+            outState.putString(STATE_LOADED_PET_PHOTO, loaded.getPhoto());
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        RetainedWork work = new RetainedWork();
+        if (petQuery != null && petQuery.isPending()) {
+            petQuery.setCallback(null);
+            work.petQuery = petQuery;
+        }
+        work.photoTask = mPhotoTask;
+        return work.petQuery == null && work.photoTask == null ? null : work;
+    }
 
-            String name = data.getString(nameColumnIndex);
-            String breed = data.getString(breedColumnIndex);
-            int gender = data.getInt(genderColumnIndex);
-            int weight = data.getInt(weightColumnIndex);
+    /**
+     * Work still running when the activity is recreated for a configuration change.
+     */
+    private static final class RetainedWork {
+        PetQueryEngine.Subscription petQuery;
+        ImportPhotoTask photoTask;
+    }
 
-            mNameEditText.setText(name);
-            mBreedEditText.setText(breed);
-            mWeightEditText.setText(Integer.toString(weight));
+    @Override
+    protected void onDestroy() {
+        mDestroyed = true;
+        // A query still loading is handed to the recreated activity instead
+        if (petQuery != null && !isChangingConfigurations()) {
+            petQuery.cancel();
+        }
+        mPhotoLoader.shutdown();
+        super.onDestroy();
+    }
 
-            switch (gender) {
+    @Override
+    public void onPetsLoaded(List<Pet> pets) {
+        petQuery = null;
+        if (!pets.isEmpty()) {
+            Pet pet = pets.get(0);
+            mLoadedPet = pet;
+
+            mNameEditText.setText(pet.getName());
+            mBreedEditText.setText(pet.getBreed());
+            mWeightEditText.setText(Integer.toString(pet.getWeight()));
+            mPhotoName = pet.getPhoto();
+            mPhotoLoader.load(mPhotoImageView, mPhotoName);
+
+            switch (pet.getGender()) {
                 case PetsContract.PetsEntry.GENDER_MALE:
                     mGenderSpinner.setSelection(1);
                     break;
@@ -320,11 +556,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
     }
 
-    @Override
-    public void onLoaderReset(android.content.Loader<Cursor> loader) {
-
-    }
-
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
@@ -400,16 +631,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     public void deletePet() {
-        int rowNumber = 0;
         if (currentPetUri != null) {
-            rowNumber = getContentResolver().delete(currentPetUri, null, null);
-        }
-
-        if (rowNumber == 0) {
-            Toast.makeText(this, R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
+            petWriter.deletePet(currentPetUri);
         }
         else {
-            Toast.makeText(this, R.string.editor_delete_pet_successful, Toast.LENGTH_SHORT).show();
+            onDeleteComplete(0);
         }
         finish();
     }
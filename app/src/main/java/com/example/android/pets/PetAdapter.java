@@ -0,0 +1,156 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetPages;
+
+/**
+ * {@link RecyclerView.Adapter} that shows the pets loaded by a {@link PetPager}.
+ */
+public class PetAdapter extends RecyclerView.Adapter<PetAdapter.PetViewHolder> implements PetPager.Callback {
+
+    public interface OnPetClickListener {
+        void onPetClick(Pet pet);
+    }
+
+    private final OnPetClickListener mClickListener;
+    private PetPager mPager;
+    private PetPages mPets = PetPages.EMPTY;
+
+    /**
+     * Shown for pets without a breed, resolved once instead of on every bind.
+     */
+    private final String mUnknownBreed;
+
+    private final PetThumbnailLoader mThumbnails;
+
+    /**
+     * Number of binds and the total time spent in them, to check the cost of a bind while flinging.
+     */
+    private long mBindCount;
+    private long mBindTimeNanos;
+
+    PetAdapter(Context context, OnPetClickListener clickListener) {
+        mClickListener = clickListener;
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mThumbnails = new PetThumbnailLoader(context,
+                context.getResources().getDimensionPixelSize(R.dimen.pet_thumbnail_size),
+                R.drawable.pet_photo_placeholder);
+    }
+
+    void setPager(PetPager pager) {
+        mPager = pager;
+    }
+
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
+        View view = LayoutInflater.from(viewGroup.getContext()).inflate(R.layout.list_item, viewGroup, false);
+        return new PetViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        long start = System.nanoTime();
+        String petBreed = mPets.getBreed(position);
+        if (TextUtils.isEmpty(petBreed)){
+            petBreed = mUnknownBreed;
+        }
+
+        holder.nameTextView.setText(mPets.getName(position));
+        holder.summaryTextView.setText(petBreed);
+        mThumbnails.load(holder.photoImageView, mPets.getPhoto(position));
+
+        mBindCount++;
+        mBindTimeNanos += System.nanoTime() - start;
+
+        if (mPager != null) {
+            mPager.onItemBound(position);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(PetViewHolder holder) {
+        mThumbnails.release(holder.photoImageView);
+    }
+
+    /**
+     * Stop loading thumbnails and drop the cached ones.
+     */
+    void shutdown() {
+        mThumbnails.shutdown();
+    }
+
+    long getBindCount() {
+        return mBindCount;
+    }
+
+    /**
+     * Average time of one {@link #onBindViewHolder(PetViewHolder, int)} call, in nanoseconds.
+     */
+    long getAverageBindNanos() {
+        return mBindCount == 0 ? 0 : mBindTimeNanos / mBindCount;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mPets.size();
+    }
+
+    @Override
+    public void onPageAppended(PetPages pets, int droppedCount, int itemCount) {
+        int size = mPets.size();
+        mPets = pets;
+        if (droppedCount > 0) {
+            notifyItemRangeRemoved(0, droppedCount);
+        }
+        notifyItemRangeInserted(size - droppedCount, itemCount);
+    }
+
+    @Override
+    public void onPagePrepended(PetPages pets, int itemCount, int droppedCount) {
+        int size = mPets.size();
+        mPets = pets;
+        if (droppedCount > 0) {
+            notifyItemRangeRemoved(size - droppedCount, droppedCount);
+        }
+        notifyItemRangeInserted(0, itemCount);
+    }
+
+    @Override
+    public void onPetsRefreshed(PetPages pets, DiffUtil.DiffResult diffResult) {
+        mPets = pets;
+        diffResult.dispatchUpdatesTo(this);
+    }
+
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final ImageView photoImageView;
+        final TextView nameTextView;
+        final TextView summaryTextView;
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            photoImageView = (ImageView) itemView.findViewById(R.id.photo);
+            nameTextView = (TextView) itemView.findViewById(R.id.name);
+            summaryTextView = (TextView) itemView.findViewById(R.id.summary);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                mClickListener.onPetClick(mPets.getPet(position));
+            }
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetCache;
+import com.example.android.pets.data.PetChanges;
+import com.example.android.pets.data.PetPages;
+import com.example.android.pets.data.PetSchema;
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the catalog in fixed size pages on a background thread, into {@link PetPages}.
+ *
+ * Pages are read with keyset URIs in name order, so every page costs the same no matter how far
+ * down the list it is. Only a window of {@link #MAX_LOADED} rows around what the user looks at
+ * is kept: a page loaded at one end drops whole pages from the other end, and they are read
+ * again when the user scrolls back. The pages that stay are shared, not copied. When a notification says which pets changed, only those rows
+ * are read again and patched into the window. Otherwise the rows of the window are read again.
+ * Either way the difference is computed with {@link DiffUtil} off the main thread, so only the
+ * rows that actually changed are rebound. A burst of notifications, such as a bulk insert in
+ * batches, is handled once, {@link #DEBOUNCE_MILLIS} after the last of them.
+ */
+public class PetPager {
+
+    /**
+     * Receives the loaded pets on the main thread.
+     */
+    public interface Callback {
+        /**
+         * A page was added at the end of the window, after dropping rows from its start.
+         */
+        void onPageAppended(PetPages pets, int droppedCount, int itemCount);
+
+        /**
+         * A page was added at the start of the window, after dropping rows from its end.
+         */
+        void onPagePrepended(PetPages pets, int itemCount, int droppedCount);
+
+        void onPetsRefreshed(PetPages pets, DiffUtil.DiffResult diffResult);
+    }
+
+    static final int PAGE_SIZE = 50;
+
+    /**
+     * Start loading the next page once the user is this many rows away from the end.
+     */
+    static final int PREFETCH_DISTANCE = 20;
+
+    /**
+     * Rows kept loaded, far more than a screen holds so that dropped rows are never visible.
+     * Stays under the size of {@link PetCache}, so every loaded pet is cached.
+     */
+    static final int MAX_LOADED = 8 * PAGE_SIZE;
+
+    /**
+     * Wait this long after a change notification for more before reading the changes.
+     */
+    static final long DEBOUNCE_MILLIS = 100;
+
+    private final ContentResolver mContentResolver;
+    private final Callback mCallback;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Only touched on the main thread.
+     */
+    private PetPages mPets = PetPages.EMPTY;
+    private boolean mLoading;
+    private boolean mStartReached = true;
+    private boolean mEndReached;
+    private boolean mStopped;
+
+    /**
+     * Bumped on every refresh, so pages that were requested before it are dropped.
+     */
+    private int mGeneration;
+
+    /**
+     * Last row the adapter bound, to pick up prefetching again after a refresh dropped a page.
+     */
+    private int mLastBoundPosition;
+
+    /**
+     * Changes notified since the last refresh or patch, null if none named their pets. Main
+     * thread only.
+     */
+    private PetChanges mPendingChanges;
+    private boolean mRefreshPending;
+
+    private final Runnable mApplyChanges = new Runnable() {
+        @Override
+        public void run() {
+            PetChanges changes = mPendingChanges;
+            boolean refresh = mRefreshPending || mPets.isEmpty() || changes.getInserted().size()
+                    + changes.getUpdated().size() + changes.getDeleted().size() > MAX_LOADED;
+            mPendingChanges = null;
+            mRefreshPending = false;
+            if (refresh) {
+                refresh();
+            } else {
+                patch(changes);
+            }
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            PetChanges changes = PetChanges.fromUri(uri);
+            if (changes == null) {
+                mRefreshPending = true;
+            } else if (mPendingChanges == null) {
+                mPendingChanges = changes;
+            } else {
+                mPendingChanges.addAll(changes);
+            }
+            mMainHandler.removeCallbacks(mApplyChanges);
+            mMainHandler.postDelayed(mApplyChanges, DEBOUNCE_MILLIS);
+        }
+    };
+
+    /**
+     * Same order as {@link PetsEntry#SORT_BY_NAME}.
+     */
+    private static int compareByName(PetPages first, int firstPosition,
+                                     PetPages second, int secondPosition) {
+        int byName = PetSchema.compareText(first.getName(firstPosition),
+                second.getName(secondPosition));
+        if (byName != 0) {
+            return byName;
+        }
+        long firstId = first.getId(firstPosition);
+        long secondId = second.getId(secondPosition);
+        return firstId < secondId ? -1 : (firstId == secondId ? 0 : 1);
+    }
+
+    public PetPager(ContentResolver contentResolver, Callback callback) {
+        mContentResolver = contentResolver;
+        mCallback = callback;
+    }
+
+    public void start() {
+        mContentResolver.registerContentObserver(PetsEntry.CONTENT_URI, true, mObserver);
+        loadNextPage();
+    }
+
+    /**
+     * Stop loading. Results still on their way to the main thread are dropped.
+     */
+    public void stop() {
+        mStopped = true;
+        mContentResolver.unregisterContentObserver(mObserver);
+        mMainHandler.removeCallbacks(mApplyChanges);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Tell the pager which row was just bound, so it can prefetch the next page in time.
+     */
+    public void onItemBound(int position) {
+        mLastBoundPosition = position;
+        if (position >= mPets.size() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        } else if (position < PREFETCH_DISTANCE) {
+            loadPreviousPage();
+        }
+    }
+
+    private void loadNextPage() {
+        if (mStopped || mLoading || mEndReached) {
+            return;
+        }
+        mLoading = true;
+
+        final PetPages current = mPets;
+        final int generation = mGeneration;
+        final Uri uri;
+        if (current.isEmpty()) {
+            uri = PetsEntry.buildPageUri(PAGE_SIZE, 0);
+        } else {
+            int last = current.size() - 1;
+            uri = PetsEntry.buildPageAfterUri(PAGE_SIZE, current.getId(last), current.getName(last));
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PetPages page = queryPets(uri, false);
+                int droppedPages = 0;
+                int dropped = 0;
+                while (current.size() - dropped + page.size() > MAX_LOADED) {
+                    dropped += current.getPage(droppedPages++).size();
+                }
+                final int droppedCount = dropped;
+                final PetPages pets = current.append(page, droppedPages);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mStopped || generation != mGeneration) {
+                            return;
+                        }
+                        mPets = pets;
+                        mLoading = false;
+                        mEndReached = page.size() < PAGE_SIZE;
+                        if (droppedCount > 0) {
+                            mStartReached = false;
+                            mLastBoundPosition -= droppedCount;
+                        }
+                        mCallback.onPageAppended(pets, droppedCount, page.size());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the rows before the window again, after they were dropped.
+     */
+    private void loadPreviousPage() {
+        if (mStopped || mLoading || mStartReached || mPets.isEmpty()) {
+            return;
+        }
+        mLoading = true;
+
+        final PetPages current = mPets;
+        final int generation = mGeneration;
+        final Uri uri = PetsEntry.buildPageBeforeUri(PAGE_SIZE, current.getId(0), current.getName(0));
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PetPages page = queryPets(uri, true);
+                int droppedPages = 0;
+                int dropped = 0;
+                while (current.size() - dropped + page.size() > MAX_LOADED) {
+                    dropped += current.getPage(current.getPageCount() - ++droppedPages).size();
+                }
+                final int droppedCount = dropped;
+                final PetPages pets = current.prepend(page, droppedPages);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mStopped || generation != mGeneration) {
+                            return;
+                        }
+                        mPets = pets;
+                        mLoading = false;
+                        mStartReached = page.size() < PAGE_SIZE;
+                        if (droppedCount > 0) {
+                            mEndReached = false;
+                        }
+                        mLastBoundPosition += page.size();
+                        mCallback.onPagePrepended(pets, page.size(), droppedCount);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the rows of the window again and publish the difference. The window keeps its first
+     * row's place in the list, unless nothing is left from there on.
+     */
+    private void refresh() {
+        if (mStopped) {
+            return;
+        }
+        final PetPages current = mPets;
+        final boolean startReached = mStartReached || current.isEmpty();
+        final int generation = ++mGeneration;
+        final int count = Math.max(current.size(), PAGE_SIZE);
+        mLoading = true;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PetPages pets;
+                boolean fromStart = startReached;
+                if (fromStart) {
+                    pets = queryPets(PetsEntry.buildPageUri(count, 0), false);
+                } else {
+                    // From the first row of the window on, the ids are integers
+                    pets = queryPets(PetsEntry.buildPageAfterUri(count, current.getId(0) - 1,
+                            current.getName(0)), false);
+                    if (pets.isEmpty()) {
+                        fromStart = true;
+                        pets = queryPets(PetsEntry.buildPageUri(count, 0), false);
+                    }
+                }
+                final PetPages refreshed = pets;
+                final boolean refreshedFromStart = fromStart;
+                final DiffUtil.DiffResult diffResult =
+                        DiffUtil.calculateDiff(new PetDiffCallback(current, refreshed));
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mStopped || generation != mGeneration) {
+                            return;
+                        }
+                        mPets = refreshed;
+                        mLoading = false;
+                        mStartReached = refreshedFromStart;
+                        mEndReached = refreshed.size() < count;
+                        mCallback.onPetsRefreshed(refreshed, diffResult);
+                        onItemBound(Math.min(mLastBoundPosition, Math.max(refreshed.size() - 1, 0)));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read only the changed pets and patch them into the window.
+     */
+    private void patch(final PetChanges changes) {
+        if (mStopped) {
+            return;
+        }
+        final PetPages current = mPets;
+        final boolean startReached = mStartReached;
+        final boolean endReached = mEndReached;
+        final int generation = ++mGeneration;
+        mLoading = true;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Set<Long> changedIds = new HashSet<>();
+                changedIds.addAll(changes.getInserted());
+                changedIds.addAll(changes.getUpdated());
+                changedIds.addAll(changes.getDeleted());
+
+                List<Long> readIds = new ArrayList<>(changes.getInserted());
+                readIds.addAll(changes.getUpdated());
+                PetPages changed = queryPetsById(readIds);
+
+                // A changed pet that now sorts outside the window belongs to rows that are not
+                // loaded, unless the window reaches that end of the list
+                int last = current.size() - 1;
+                int changedStart = 0;
+                while (changedStart < changed.size() && !startReached
+                        && compareByName(changed, changedStart, current, 0) < 0) {
+                    changedStart++;
+                }
+                int changedEnd = changedStart;
+                while (changedEnd < changed.size()
+                        && (endReached || compareByName(changed, changedEnd, current, last) <= 0)) {
+                    changedEnd++;
+                }
+
+                // Both are in name order, so merge them
+                PetPages.Builder builder = new PetPages.Builder(PAGE_SIZE);
+                int next = changedStart;
+                for (int i = 0; i < current.size(); i++) {
+                    if (changedIds.contains(current.getId(i))) {
+                        continue;
+                    }
+                    while (next < changedEnd && compareByName(changed, next, current, i) < 0) {
+                        builder.add(changed, next++);
+                    }
+                    builder.add(current, i);
+                }
+                while (next < changedEnd) {
+                    builder.add(changed, next++);
+                }
+                final PetPages pets = builder.build();
+
+                final DiffUtil.DiffResult diffResult =
+                        DiffUtil.calculateDiff(new PetDiffCallback(current, pets));
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mStopped || generation != mGeneration) {
+                            return;
+                        }
+                        mPets = pets;
+                        mLoading = false;
+                        mCallback.onPetsRefreshed(pets, diffResult);
+                        onItemBound(Math.min(mLastBoundPosition, Math.max(pets.size() - 1, 0)));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs on the background thread.
+     */
+    private PetPages queryPets(Uri uri, boolean reversed) {
+        int cacheGeneration = PetCache.getInstance().getGeneration();
+        // A page before a row is sorted by its URI, backwards
+        return readPets(mContentResolver.query(uri, Pet.PROJECTION, null, null,
+                reversed ? null : PetsEntry.SORT_BY_NAME), reversed, cacheGeneration);
+    }
+
+    /**
+     * Read every row of the cursor into pages of {@link #PAGE_SIZE} and close it. The pets are
+     * also put in {@link PetCache}, so opening one of them in the editor does not query again.
+     *
+     * @param reversed whether to read the rows from last to first
+     */
+    private static PetPages readPets(Cursor cursor, boolean reversed, int cacheGeneration) {
+        if (cursor == null) {
+            return PetPages.EMPTY;
+        }
+        try {
+            PetPages pets;
+            if (reversed) {
+                PetPages.Builder builder = new PetPages.Builder(PAGE_SIZE);
+                for (int i = cursor.getCount() - 1; cursor.moveToPosition(i); i--) {
+                    builder.addRow(cursor);
+                }
+                pets = builder.build();
+            } else {
+                pets = PetPages.fromCursor(cursor, PAGE_SIZE);
+            }
+            for (int i = 0; i < pets.getPageCount(); i++) {
+                PetCache.getInstance().putAll(pets.getPage(i), cacheGeneration);
+            }
+            return pets;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs on the background thread.
+     */
+    private PetPages queryPetsById(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return PetPages.EMPTY;
+        }
+
+        StringBuilder selection = new StringBuilder(PetsEntry.COLUMN_ID).append(" IN (");
+        String[] selectionArgs = new String[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i] = String.valueOf(ids.get(i));
+        }
+        selection.append(')');
+
+        int cacheGeneration = PetCache.getInstance().getGeneration();
+        return readPets(mContentResolver.query(PetsEntry.CONTENT_URI, Pet.PROJECTION,
+                selection.toString(), selectionArgs, PetsEntry.SORT_BY_NAME), false, cacheGeneration);
+    }
+
+    private static class PetDiffCallback extends DiffUtil.Callback {
+
+        private final PetPages mOldPets;
+        private final PetPages mNewPets;
+
+        PetDiffCallback(PetPages oldPets, PetPages newPets) {
+            mOldPets = oldPets;
+            mNewPets = newPets;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldPets.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewPets.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldPets.getId(oldItemPosition) == mNewPets.getId(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return PetPages.sameContents(mOldPets, oldItemPosition, mNewPets, newItemPosition);
+        }
+    }
+}
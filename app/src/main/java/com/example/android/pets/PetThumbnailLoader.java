@@ -0,0 +1,216 @@
+package com.example.android.pets;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetPhotos;
+import com.example.android.pets.data.PetsContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads pet photo thumbnails into image views.
+ *
+ * Thumbnails of one edge are kept in memory, up to an eighth of the memory class of the app, by
+ * photo name. They come from the disk cache of {@link PetPhotos}, decoded on a small pool of
+ * background threads into bitmaps the memory cache has dropped, so flinging through the catalog
+ * does not allocate a bitmap for every row. A bitmap that is still on screen when it is dropped
+ * is only reused once its last view lets go of it.
+ *
+ * Call everything but the decode itself on the main thread.
+ */
+class PetThumbnailLoader {
+
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    private static final int DECODE_THREADS = 2;
+
+    /**
+     * Dropped bitmaps kept for reuse, more than a screen of rows needs.
+     */
+    private static final int MAX_REUSABLE = 16;
+
+    private final Context mContext;
+    private final int mSize;
+    private final int mPlaceholder;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(DECODE_THREADS);
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    /**
+     * Views showing each cached bitmap, and the dropped bitmaps that are still shown.
+     */
+    private final Map<Bitmap, Integer> mDisplayed = new IdentityHashMap<>();
+    private final Map<Bitmap, Boolean> mDropped = new IdentityHashMap<>();
+
+    /**
+     * Bitmaps no cache or view holds, taken by the decode threads.
+     */
+    private final Deque<Bitmap> mReusable = new ArrayDeque<>();
+
+    private boolean mShutdown;
+
+    PetThumbnailLoader(Context context, int size, int placeholder) {
+        mContext = context.getApplicationContext();
+        mSize = size;
+        mPlaceholder = placeholder;
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / 8;
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String name, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String name, Bitmap oldValue,
+                                        Bitmap newValue) {
+                if (mDisplayed.containsKey(oldValue)) {
+                    mDropped.put(oldValue, Boolean.TRUE);
+                } else {
+                    recycle(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of a photo, or the placeholder until it is loaded or if there is none.
+     */
+    void load(final ImageView view, final String photo) {
+        release(view);
+        if (photo == null) {
+            view.setImageResource(mPlaceholder);
+            return;
+        }
+
+        Bitmap cached = mMemoryCache.get(photo);
+        if (cached != null) {
+            show(view, cached);
+            return;
+        }
+
+        view.setImageResource(mPlaceholder);
+        view.setTag(R.id.thumbnail_photo, photo);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = decode(photo);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (bitmap == null) {
+                            return;
+                        }
+                        if (mShutdown) {
+                            bitmap.recycle();
+                            return;
+                        }
+                        Bitmap cached = mMemoryCache.get(photo);
+                        if (cached == null) {
+                            mMemoryCache.put(photo, bitmap);
+                            cached = bitmap;
+                        } else {
+                            recycle(bitmap);
+                        }
+                        // The view may have been bound to another pet while this decoded
+                        if (photo.equals(view.getTag(R.id.thumbnail_photo))) {
+                            show(view, cached);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Let go of the thumbnail a view shows, so it can be reused once the cache drops it.
+     */
+    void release(ImageView view) {
+        view.setTag(R.id.thumbnail_photo, null);
+        Bitmap bitmap = (Bitmap) view.getTag(R.id.thumbnail_bitmap);
+        if (bitmap == null) {
+            return;
+        }
+        view.setTag(R.id.thumbnail_bitmap, null);
+        view.setImageResource(mPlaceholder);
+
+        int count = mDisplayed.get(bitmap) - 1;
+        if (count > 0) {
+            mDisplayed.put(bitmap, count);
+            return;
+        }
+        mDisplayed.remove(bitmap);
+        if (mDropped.remove(bitmap) != null) {
+            recycle(bitmap);
+        }
+    }
+
+    void shutdown() {
+        mShutdown = true;
+        mExecutor.shutdownNow();
+        mMemoryCache.evictAll();
+        synchronized (mReusable) {
+            mReusable.clear();
+        }
+    }
+
+    private void show(ImageView view, Bitmap bitmap) {
+        Integer count = mDisplayed.get(bitmap);
+        mDisplayed.put(bitmap, count == null ? 1 : count + 1);
+        view.setTag(R.id.thumbnail_bitmap, bitmap);
+        view.setImageBitmap(bitmap);
+    }
+
+    private void recycle(Bitmap bitmap) {
+        synchronized (mReusable) {
+            if (!mShutdown && mReusable.size() < MAX_REUSABLE) {
+                mReusable.push(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Decode a thumbnail from the disk cache, into a reusable bitmap when there is one. Every
+     * thumbnail of this loader has the same edge and config, so any of them fits.
+     */
+    private Bitmap decode(String photo) {
+        File file;
+        try {
+            file = PetPhotos.getThumbnail(mContext, PetsContract.DEFAULT_SHELTER, photo, mSize);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "No thumbnail for " + photo, e);
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        synchronized (mReusable) {
+            options.inBitmap = mReusable.poll();
+        }
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The reusable bitmap did not fit after all, decode into a new one
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+/**
+ * Immutable copy of one row of the pets table, so screens can hold on to pets
+ * without keeping a live {@link Cursor} open.
+ */
+public final class Pet {
+
+    /**
+     * Columns needed to build a {@link Pet}, in the order {@link #fromCursor(Cursor)} expects.
+     */
+    public static final String[] PROJECTION = {
+            PetsEntry.COLUMN_ID,
+            PetsEntry.COLUMN_NAME,
+            PetsEntry.COLUMN_BREED,
+            PetsEntry.COLUMN_GENDER,
+            PetsEntry.COLUMN_WEIGHT,
+            PetsEntry.COLUMN_PHOTO };
+
+    static final int INDEX_ID = 0;
+    static final int INDEX_NAME = 1;
+    static final int INDEX_BREED = 2;
+    static final int INDEX_GENDER = 3;
+    static final int INDEX_WEIGHT = 4;
+    static final int INDEX_PHOTO = 5;
+
+    private final long id;
+    private final String name;
+    private final String breed;
+    private final int gender;
+    private final int weight;
+    private final String photo;
+
+    /**
+     * @param photo file name of the pet's photo, see {@link PetPhotos}, or null
+     */
+    public Pet(long id, String name, String breed, int gender, int weight, String photo) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.gender = gender;
+        this.weight = weight;
+        this.photo = photo;
+    }
+
+    /**
+     * Read the pet at the current position of a cursor queried with {@link #PROJECTION}.
+     */
+    public static Pet fromCursor(Cursor cursor) {
+        return new Pet(cursor.getLong(INDEX_ID),
+                cursor.getString(INDEX_NAME),
+                cursor.getString(INDEX_BREED),
+                cursor.getInt(INDEX_GENDER),
+                cursor.getInt(INDEX_WEIGHT),
+                cursor.getString(INDEX_PHOTO));
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBreed() {
+        return breed;
+    }
+
+    public int getGender() {
+        return gender;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public String getPhoto() {
+        return photo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pet)) {
+            return false;
+        }
+        Pet other = (Pet) o;
+        return id == other.id
+                && gender == other.gender
+                && weight == other.weight
+                && TextUtils.equals(name, other.name)
+                && TextUtils.equals(breed, other.breed)
+                && TextUtils.equals(photo, other.photo);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (breed != null ? breed.hashCode() : 0);
+        result = 31 * result + gender;
+        result = 31 * result + weight;
+        result = 31 * result + (photo != null ? photo.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import java.util.List;
+
+/**
+ * Bounded cache of {@link Pet}s by id, shared by the catalog and {@link PetProvider} in this
+ * process, so opening a pet that was just shown does not go back to SQLite.
+ *
+ * Every write invalidates the pets it touched and bumps a generation. Readers take the
+ * generation before they query and hand it back with their results, so rows read before a write
+ * are not put back after the write invalidated them.
+ */
+public final class PetCache {
+
+    static final int MAX_SIZE = 512;
+
+    private static final PetCache INSTANCE = new PetCache(MAX_SIZE);
+
+    private final LruCache<Long, Pet> mPets;
+
+    private int mGeneration;
+
+    PetCache(int maxSize) {
+        mPets = new LruCache<>(maxSize);
+    }
+
+    public static PetCache getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache pets that were read after {@link #getGeneration()} returned the given generation.
+     */
+    public synchronized void putAll(List<Pet> pets, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        for (Pet pet : pets) {
+            mPets.put(pet.getId(), pet);
+        }
+    }
+
+    /**
+     * Same as {@link #putAll(List, int)}. Of a snapshot larger than the cache only the last rows
+     * are copied out, the ones that putting every row would leave in it.
+     */
+    public synchronized void putAll(PetSnapshot snapshot, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        for (int i = Math.max(0, snapshot.size() - mPets.maxSize()); i < snapshot.size(); i++) {
+            mPets.put(snapshot.getId(i), snapshot.getPet(i));
+        }
+    }
+
+    synchronized void put(Pet pet, int generation) {
+        if (generation == mGeneration) {
+            mPets.put(pet.getId(), pet);
+        }
+    }
+
+    Pet get(long id) {
+        return mPets.get(id);
+    }
+
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mPets.remove(id);
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mPets.evictAll();
+    }
+
+    public int hitCount() {
+        return mPets.hitCount();
+    }
+
+    public int missCount() {
+        return mPets.missCount();
+    }
+
+    /**
+     * Pets dropped to make room, and those dropped by {@link #invalidateAll()}.
+     */
+    public int evictionCount() {
+        return mPets.evictionCount();
+    }
+
+    public int size() {
+        return mPets.size();
+    }
+
+    /**
+     * Whether a cached pet holds every column of the given projection.
+     */
+    static boolean covers(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A one row cursor holding the given columns of a cached pet.
+     */
+    static Cursor toCursor(Pet pet, String[] projection) {
+        if (projection == null) {
+            projection = Pet.PROJECTION;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            switch (projection[i]) {
+                case PetsEntry.COLUMN_ID:
+                    row[i] = pet.getId();
+                    break;
+                case PetsEntry.COLUMN_NAME:
+                    row[i] = pet.getName();
+                    break;
+                case PetsEntry.COLUMN_BREED:
+                    row[i] = pet.getBreed();
+                    break;
+                case PetsEntry.COLUMN_GENDER:
+                    row[i] = pet.getGender();
+                    break;
+                case PetsEntry.COLUMN_WEIGHT:
+                    row[i] = pet.getWeight();
+                    break;
+                case PetsEntry.COLUMN_PHOTO:
+                    row[i] = pet.getPhoto();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Pets have no column " + projection[i]);
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < Pet.PROJECTION.length; i++) {
+            if (Pet.PROJECTION[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the projection of a cursor holds every column of a {@link Pet}, so its rows can
+     * be cached.
+     */
+    static boolean isFullProjection(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : Pet.PROJECTION) {
+            boolean found = false;
+            for (String requested : projection) {
+                if (column.equals(requested)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a pet from a cursor whose projection passed {@link #isFullProjection(String[])}.
+     */
+    static Pet fromCursor(Cursor cursor) {
+        return new Pet(cursor.getLong(cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_NAME)),
+                cursor.getString(cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_BREED)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_GENDER)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_WEIGHT)),
+                cursor.getString(cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_PHOTO)));
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The pets that changed in one write, carried in the URI of the change notification.
+ *
+ * A notification for a single pet goes to its item URI, for example
+ * {@code content://com.example.android.pets/Pets/3?updated=3}, so observers of other pets are
+ * not woken up. Several changes go to {@link PetsEntry#CONTENT_URI} with the ids of each kind,
+ * such as {@code ?inserted=4,5&deleted=1}. A notification without ids means the whole table may
+ * have changed and has to be read again. Changes of another shelter go to its own URI, see
+ * {@link PetsEntry#buildShelterUri(long)}.
+ */
+public final class PetChanges {
+
+    /**
+     * Above this many ids a notification just says the table changed, to keep the URI small.
+     */
+    static final int MAX_IDS = 100;
+
+    private final List<Long> mInserted = new ArrayList<>();
+    private final List<Long> mUpdated = new ArrayList<>();
+    private final List<Long> mDeleted = new ArrayList<>();
+    private boolean mWholeTable;
+
+    public List<Long> getInserted() {
+        return mInserted;
+    }
+
+    public List<Long> getUpdated() {
+        return mUpdated;
+    }
+
+    public List<Long> getDeleted() {
+        return mDeleted;
+    }
+
+    public boolean isEmpty() {
+        return !mWholeTable && size() == 0;
+    }
+
+    int size() {
+        return mInserted.size() + mUpdated.size() + mDeleted.size();
+    }
+
+    /**
+     * Whether the notification for these changes will not name the pets that changed.
+     */
+    boolean isWholeTable() {
+        int size = size();
+        return mWholeTable || size == 0 || size > MAX_IDS;
+    }
+
+    void addInserted(long id) {
+        mInserted.add(id);
+    }
+
+    void addUpdated(long id) {
+        mUpdated.add(id);
+    }
+
+    void addDeleted(long id) {
+        mDeleted.add(id);
+    }
+
+    /**
+     * Mark a change whose rows are not known, such as a delete by selection.
+     */
+    void addWholeTable() {
+        mWholeTable = true;
+    }
+
+    public void addAll(PetChanges other) {
+        mInserted.addAll(other.mInserted);
+        mUpdated.addAll(other.mUpdated);
+        mDeleted.addAll(other.mDeleted);
+        mWholeTable |= other.mWholeTable;
+    }
+
+    /**
+     * The URI to send the notification for these changes to.
+     *
+     * @param contentUri the pets URI of the shelter that changed
+     */
+    Uri toUri(Uri contentUri) {
+        if (isWholeTable()) {
+            return contentUri;
+        }
+        int size = size();
+
+        Uri.Builder builder;
+        if (size == 1) {
+            long id = !mInserted.isEmpty() ? mInserted.get(0)
+                    : !mUpdated.isEmpty() ? mUpdated.get(0) : mDeleted.get(0);
+            builder = ContentUris.withAppendedId(contentUri, id).buildUpon();
+        } else {
+            builder = contentUri.buildUpon();
+        }
+        appendIds(builder, PetsEntry.QUERY_INSERTED, mInserted);
+        appendIds(builder, PetsEntry.QUERY_UPDATED, mUpdated);
+        appendIds(builder, PetsEntry.QUERY_DELETED, mDeleted);
+        return builder.build();
+    }
+
+    /**
+     * Read the changes carried by a notification URI, or null if it does not say which pets
+     * changed.
+     */
+    public static PetChanges fromUri(Uri uri) {
+        if (uri == null) {
+            return null;
+        }
+        PetChanges changes = new PetChanges();
+        try {
+            parseIds(uri.getQueryParameter(PetsEntry.QUERY_INSERTED), changes.mInserted);
+            parseIds(uri.getQueryParameter(PetsEntry.QUERY_UPDATED), changes.mUpdated);
+            parseIds(uri.getQueryParameter(PetsEntry.QUERY_DELETED), changes.mDeleted);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return changes.size() == 0 ? null : changes;
+    }
+
+    private static void appendIds(Uri.Builder builder, String parameter, List<Long> ids) {
+        if (!ids.isEmpty()) {
+            builder.appendQueryParameter(parameter, TextUtils.join(",", ids));
+        }
+    }
+
+    private static void parseIds(String value, List<Long> ids) {
+        if (TextUtils.isEmpty(value)) {
+            return;
+        }
+        for (String id : value.split(",")) {
+            ids.add(Long.parseLong(id));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Purges deleted pets in the background.
+ *
+ * {@link PetProvider} only flags deleted pets, or moves the deleted watermark when all of them go
+ * at once. This removes those rows, and their full-text entries, in small transactions so
+ * other writers get the database between batches. Once they are gone the free pages are handed
+ * back to the file system a few at a time with an incremental vacuum, and photos no pet of the
+ * shelter names anymore are deleted.
+ * There is one per shelter, see {@link PetShelters}.
+ */
+final class PetCompactor {
+
+    private static final String LOG_TAG = PetCompactor.class.getSimpleName();
+
+    /**
+     * Pages released per incremental vacuum step.
+     */
+    static final int VACUUM_PAGES = 256;
+
+    private static final String SQL_COUNT_DELETED = "SELECT"
+            + " (SELECT COUNT(*) FROM " + PetsEntry.TABLE_NAME
+            + " WHERE " + PetsEntry.COLUMN_ID + " <= " + PetSchema.SQL_DELETED_THROUGH_ID + ")"
+            + " + (SELECT COUNT(*) FROM " + PetsEntry.TABLE_NAME
+            + " WHERE " + PetsEntry.COLUMN_DELETED + " = 1 AND "
+            + PetsEntry.COLUMN_ID + " > " + PetSchema.SQL_DELETED_THROUGH_ID + ")";
+
+    private static final String SQL_QUERY_PHOTOS = "SELECT " + PetsEntry.COLUMN_PHOTO
+            + " FROM " + PetsEntry.TABLE_NAME + " WHERE " + PetsEntry.COLUMN_PHOTO + " IS NOT NULL";
+
+    private final Context mContext;
+    private final PetDbHelper mDbHelper;
+    private final long mShelterId;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    /**
+     * Purges submitted and not finished yet.
+     */
+    private final AtomicInteger mTasks = new AtomicInteger();
+
+    /**
+     * Progress of the current or last purge, written by the purge thread only.
+     */
+    private volatile boolean mRunning;
+    private volatile boolean mConverting;
+    private volatile long mPurgedRows;
+    private volatile long mPendingRows;
+    private volatile long mFreedPages;
+    private volatile long mLastDurationMs;
+
+    PetCompactor(Context context, PetDbHelper dbHelper, long shelterId) {
+        mContext = context;
+        mDbHelper = dbHelper;
+        mShelterId = shelterId;
+    }
+
+    /**
+     * Start a purge unless one is already waiting to start. A purge that is running picks up
+     * rows deleted before it counted them, the rest are left for the next one.
+     */
+    void schedule() {
+        if (!mScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        mTasks.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mScheduled.set(false);
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    // A failed batch was rolled back, the next purge tries again
+                    Log.e(LOG_TAG, "Purge of deleted pets failed", e);
+                } finally {
+                    mRunning = false;
+                    mTasks.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether no purge is waiting or running, so the database can be closed.
+     */
+    boolean isIdle() {
+        return mTasks.get() == 0;
+    }
+
+    void close() {
+        mExecutor.shutdownNow();
+    }
+
+    private void compact() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long start = SystemClock.elapsedRealtime();
+
+        long pending = DatabaseUtils.longForQuery(database, SQL_COUNT_DELETED, null);
+        if (pending == 0) {
+            // Replaced photos leave files behind too
+            deletePhotos();
+            return;
+        }
+        mRunning = true;
+        mPendingRows = pending;
+        mPurgedRows = 0;
+        mFreedPages = 0;
+
+        purge(database, PetSchema.SQL_PURGE_BELOW_WATERMARK);
+        purge(database, PetSchema.SQL_PURGE_FLAGGED);
+        vacuum(database);
+        deletePhotos();
+
+        mLastDurationMs = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Purged " + mPurgedRows + " deleted pets and freed " + mFreedPages
+                + " pages in " + mLastDurationMs + " ms");
+    }
+
+    /**
+     * Run the given purge statement one batch per transaction until it removes nothing.
+     */
+    private void purge(SQLiteDatabase database, String sql) {
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            int rows;
+            do {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                database.beginTransaction();
+                try {
+                    rows = statement.executeUpdateDelete();
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                mPurgedRows += rows;
+                mPendingRows = Math.max(0, mPendingRows - rows);
+                Log.v(LOG_TAG, "Purged " + mPurgedRows + " deleted pets, " + mPendingRows + " left");
+            } while (rows == PetSchema.PURGE_BATCH_SIZE);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Release free pages a few at a time.
+     *
+     * A database made before version 5, or one whose header was written in WAL mode before
+     * {@link PetDbHelper#onConfigure} set the pragma, is not in incremental auto vacuum mode
+     * yet. The first purge of one switches it with a full VACUUM, which also releases every free
+     * page. That blocks the other writers of the shelter while it rebuilds the file, so it runs
+     * here once, off the binder threads, rather than when the database opens.
+     */
+    private void vacuum(SQLiteDatabase database) {
+        long freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        if (freePages == 0 || Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null)
+                != PetDbHelper.AUTO_VACUUM_INCREMENTAL) {
+            convert(database, freePages);
+            return;
+        }
+
+        while (freePages > 0 && !Thread.currentThread().isInterrupted()) {
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Every step releases pages as it is read
+                }
+            } finally {
+                cursor.close();
+            }
+            long left = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+            mFreedPages += freePages - left;
+            if (left >= freePages) {
+                return;
+            }
+            freePages = left;
+        }
+    }
+
+    private void convert(SQLiteDatabase database, long freePages) {
+        mConverting = true;
+        try {
+            long start = SystemClock.elapsedRealtime();
+            database.execSQL("VACUUM");
+            mFreedPages += freePages;
+            Log.i(LOG_TAG, "Switched to incremental auto vacuum, freeing " + freePages
+                    + " pages in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        } finally {
+            mConverting = false;
+        }
+    }
+
+    /**
+     * Delete the photo files of the shelter that none of its rows names, purged pets and
+     * replaced photos alike.
+     */
+    private void deletePhotos() {
+        Set<String> referenced = new HashSet<>();
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(SQL_QUERY_PHOTOS, null);
+        try {
+            while (cursor.moveToNext()) {
+                referenced.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        PetPhotos.deleteOrphans(mContext, mShelterId, referenced);
+    }
+
+    Bundle getProgress() {
+        Bundle progress = new Bundle();
+        progress.putLong(PetsContract.KEY_PURGED_ROWS, mPurgedRows);
+        progress.putLong(PetsContract.KEY_PENDING_ROWS, mPendingRows);
+        progress.putLong(PetsContract.KEY_FREED_PAGES, mFreedPages);
+        progress.putBoolean(PetsContract.KEY_RUNNING, mRunning || mScheduled.get());
+        return progress;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("Compaction: "
+                + (mConverting ? "converting to incremental vacuum" : mRunning ? "running" : "idle")
+                + ", purged " + mPurgedRows + " rows, " + mPendingRows + " pending, freed "
+                + mFreedPages + " pages, last run " + mLastDurationMs + " ms");
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.support.annotation.Nullable;
@@ -9,30 +10,95 @@ import com.example.android.pets.data.PetsContract.PetsEntry;
 public class PetDbHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "Pets.db";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 10;
 
-    public static final String SQL_CREATE_ENTERIES = "CREATE TABLE " + PetsContract.PetsEntry.TABLE_NAME + "("
-            + PetsEntry.COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-            + PetsEntry.COLUMN_NAME + " TEXT NOT NULL, "
-            + PetsEntry.COLUMN_BREED + " TEXT, "
-            + PetsEntry.COLUMN_GENDER + " INTEGER NOT NULL, "
-            + PetsEntry.COLUMN_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+    /**
+     * auto_vacuum mode that lets {@link PetCompactor} release free pages a few at a time.
+     */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
 
-    public static final String SQL_DELETE_ENTERIES = "DROP TABLE " + "pets";
+    /**
+     * Rows read by {@link #prewarm()}, the catalog's first page.
+     */
+    static final int PREWARM_PAGE_SIZE = 50;
+
+    private final PetDbProfile mProfile;
+
+    private PetStatements mStatements;
 
     public PetDbHelper(@Nullable Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, PetDbProfile.DEFAULT);
     }
 
+    public PetDbHelper(@Nullable Context context, PetDbProfile profile) {
+        this(context, DATABASE_NAME, profile);
+    }
+
+    /**
+     * A helper for the database file of the given name, the one of a shelter for example.
+     */
+    PetDbHelper(@Nullable Context context, String name, PetDbProfile profile) {
+        super(context, name, null, DATABASE_VERSION);
+        mProfile = profile;
+        setWriteAheadLoggingEnabled(profile.isWriteAheadLogging());
+    }
 
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        sqLiteDatabase.execSQL(SQL_CREATE_ENTERIES);
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        mProfile.applyPragmas(sqLiteDatabase);
+        // Takes effect on a database that has no tables yet, or on the next VACUUM, which
+        // PetCompactor runs once for an older database
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+    }
+
+    /**
+     * Compiled statements for single row writes, prepared on first use.
+     */
+    synchronized PetStatements getStatements() {
+        if (mStatements == null) {
+            mStatements = new PetStatements(getWritableDatabase());
+        }
+        return mStatements;
+    }
+
+    /**
+     * Do the work of the first query ahead of it: open the database, which creates or upgrades
+     * the schema, compile the write statements and read the first catalog page once, so the
+     * schema is parsed and the pages it needs are cached. Blocks, see {@link PetStartup#prewarm}.
+     */
+    void prewarm() {
+        SQLiteDatabase database = getWritableDatabase();
+        getStatements();
+
+        Cursor cursor = database.query(PetsEntry.TABLE_NAME, Pet.PROJECTION,
+                PetSchema.buildLiveSelection(null), null, null, null, PetsEntry.SORT_BY_NAME,
+                String.valueOf(PREWARM_PAGE_SIZE));
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        sqLiteDatabase.execSQL(SQL_DELETE_ENTERIES);
+    public synchronized void close() {
+        if (mStatements != null) {
+            mStatements.close();
+            mStatements = null;
+        }
+        super.close();
+    }
 
+
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        for (String statement : PetSchema.buildCreateStatements()) {
+            sqLiteDatabase.execSQL(statement);
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        PetMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
     }
 }
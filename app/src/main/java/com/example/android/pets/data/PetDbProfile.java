@@ -0,0 +1,79 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Connection settings {@link PetDbHelper} opens the database with.
+ *
+ * {@link #DEFAULT} turns on write-ahead logging so catalog reads no longer wait behind editor
+ * writes, relaxes syncing to once per checkpoint, which is still crash safe in WAL mode, and gives
+ * SQLite a bigger page cache and a memory mapped window. In WAL mode the framework also keeps a
+ * small pool of connections, so queries from different threads run side by side on it instead
+ * of taking turns. {@link #FRAMEWORK} keeps the platform defaults, to compare against.
+ */
+public final class PetDbProfile {
+
+    /** Leave a pragma at the SQLite default. */
+    public static final int UNSET = -1;
+
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    public static final PetDbProfile DEFAULT =
+            new PetDbProfile(true, SYNCHRONOUS_NORMAL, 8 * 1024, 64L * 1024 * 1024);
+
+    public static final PetDbProfile FRAMEWORK = new PetDbProfile(false, UNSET, UNSET, UNSET);
+
+    private final boolean writeAheadLogging;
+    private final int synchronous;
+    private final int cacheSizeKb;
+    private final long mmapSize;
+
+    /**
+     * @param writeAheadLogging use a WAL journal instead of the rollback journal
+     * @param synchronous       one of the SYNCHRONOUS_ values, or {@link #UNSET}
+     * @param cacheSizeKb       page cache size in KiB, or {@link #UNSET}
+     * @param mmapSize          bytes of the file to memory map, or {@link #UNSET}. Ignored by
+     *                          SQLite versions older than 3.7.17
+     */
+    public PetDbProfile(boolean writeAheadLogging, int synchronous, int cacheSizeKb, long mmapSize) {
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronous = synchronous;
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSize = mmapSize;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    /**
+     * Apply the pragmas to a connection that is being configured.
+     */
+    void applyPragmas(SQLiteDatabase database) {
+        if (synchronous != UNSET) {
+            pragma(database, "synchronous = " + synchronous);
+        }
+        if (cacheSizeKb != UNSET) {
+            // A negative cache size is in KiB instead of pages
+            pragma(database, "cache_size = -" + cacheSizeKb);
+        }
+        if (mmapSize != UNSET) {
+            pragma(database, "mmap_size = " + mmapSize);
+        }
+    }
+
+    /**
+     * Some pragmas answer with a row, which execSQL refuses, so they are run as queries.
+     */
+    private static void pragma(SQLiteDatabase database, String pragma) {
+        Cursor cursor = database.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+}
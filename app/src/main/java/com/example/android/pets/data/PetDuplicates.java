@@ -0,0 +1,242 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds pets that were entered twice with small differences in spelling.
+ *
+ * Names are compared as sets of trigrams: the name is lower cased, padded with a space on each
+ * side and cut into every run of three characters, so "Bella" is " be", "bel", "ell", "lla" and
+ * "la ". Triggers keep the trigrams of every name in {@link PetsEntry#TRIGRAMS_TABLE_NAME}, the
+ * blocking index: a pet is only ever compared with the pets that share trigrams with it. More
+ * triggers keep the number of pets under each trigram in
+ * {@link PetSchema#TRIGRAM_COUNTS_TABLE_NAME}.
+ *
+ * Names that are at least {@link PetTrigrams#NAME_THRESHOLD} alike, as the Jaccard index of
+ * their trigrams, share at least that fraction of the trigrams of either name. So it is enough to
+ * look up the rarest few trigrams of a name and keep the pets found under
+ * {@link PetTrigrams#MIN_SHARED} of them (prefix filtering), instead of every pet under any of
+ * its trigrams. Those candidates are scored by name, breed, gender and weight, and the ones
+ * scoring {@link PetTrigrams#MATCH_THRESHOLD} or more are duplicates. Pets of two known,
+ * different genders never are.
+ *
+ * Trigrams under more than {@link PetTrigrams#MAX_BLOCK_SIZE} pets are not looked up. That
+ * bounds the work for one name whatever the size of the table, so a scan of all pets stays close
+ * to linear, at the price of missing names made only of very common trigrams.
+ */
+final class PetDuplicates {
+
+    /**
+     * Pairs returned by one call of {@link #scan}, and pets read per page of it.
+     */
+    static final int MAX_SCAN_PAIRS = 10000;
+    private static final int SCAN_PAGE_SIZE = 1000;
+
+    private static final String LIVE_SELECTION = PetSchema.buildLiveSelection(null);
+
+    private PetDuplicates() {
+    }
+
+    /**
+     * A pet that looks like another one, and how much.
+     */
+    static final class Match {
+
+        final Pet pet;
+        final float score;
+
+        Match(Pet pet, float score) {
+            this.pet = pet;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Finds the live pets that look like given ones, with its statement compiled once for all
+     * of them, such as every pet of a bulk insert. Reads on the given database, so pass the
+     * writer to see the rows of a transaction in progress. Not thread safe, close it when done.
+     */
+    static final class Finder {
+
+        private final SQLiteDatabase mDatabase;
+        private final SQLiteStatement mCount;
+
+        Finder(SQLiteDatabase database) {
+            mDatabase = database;
+            mCount = database.compileStatement(PetSchema.SQL_QUERY_TRIGRAM_COUNT);
+        }
+
+        /**
+         * The live pets that look like the given values, best first.
+         */
+        List<Match> find(ContentValues values) {
+            Integer gender = values.getAsInteger(PetsEntry.COLUMN_GENDER);
+            Integer weight = values.getAsInteger(PetsEntry.COLUMN_WEIGHT);
+            return find(values.getAsString(PetsEntry.COLUMN_NAME),
+                    values.getAsString(PetsEntry.COLUMN_BREED),
+                    gender == null ? PetsEntry.GENDER_UNKNOWN : gender, weight == null ? 0 : weight);
+        }
+
+        List<Match> find(String name, String breed, int gender, int weight) {
+            String[] trigrams = PetTrigrams.trigrams(name);
+            List<Match> matches = new ArrayList<>();
+            if (trigrams.length == 0) {
+                return matches;
+            }
+
+            int[] counts = new int[trigrams.length];
+            for (int i = 0; i < trigrams.length; i++) {
+                mCount.bindString(1, trigrams[i]);
+                counts[i] = (int) mCount.simpleQueryForLong();
+            }
+
+            Pet pet = new Pet(-1, name, breed, gender, weight, null);
+            addMatches(mDatabase, pet, trigrams, counts, false, matches);
+            Collections.sort(matches, new Comparator<Match>() {
+                @Override
+                public int compare(Match a, Match b) {
+                    return Float.compare(b.score, a.score);
+                }
+            });
+            return matches;
+        }
+
+        void close() {
+            mCount.close();
+        }
+    }
+
+    /**
+     * Scan the live pets from the given id up for pairs of duplicates, each pair once, see
+     * {@link PetsContract#METHOD_SCAN_DUPLICATES}.
+     *
+     * Every pet only looks up the few trigrams its prefix needs, in a range of the trigram
+     * index, and only pets with a higher id, so the work grows with the number of pets and not
+     * with the number of pairs of them.
+     */
+    static Bundle scan(SQLiteDatabase database, long fromId, int maxPairs) {
+        // How common every trigram is, read once per call from the table the triggers keep, one
+        // row per distinct trigram instead of a count of the whole index
+        Map<String, Integer> trigramCounts = new HashMap<>();
+        Cursor cursor = database.rawQuery(PetSchema.SQL_QUERY_TRIGRAM_COUNTS, null);
+        try {
+            while (cursor.moveToNext()) {
+                trigramCounts.put(cursor.getString(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<Long> ids = new ArrayList<>();
+        List<Match> duplicates = new ArrayList<>();
+        List<Match> matches = new ArrayList<>();
+        long nextId = -1;
+        long afterId = fromId - 1;
+
+        scan:
+        while (true) {
+            // Page by id, a cursor over the whole table would refill its window from the start
+            Cursor page = database.query(PetsEntry.TABLE_NAME, Pet.PROJECTION,
+                    LIVE_SELECTION + " AND " + PetsEntry.COLUMN_ID + " > ?",
+                    new String[] { String.valueOf(afterId) }, null, null, PetsEntry.SORT_BY_ID,
+                    String.valueOf(SCAN_PAGE_SIZE));
+            try {
+                if (page.getCount() == 0) {
+                    break;
+                }
+                while (page.moveToNext()) {
+                    Pet pet = Pet.fromCursor(page);
+                    if (duplicates.size() >= maxPairs) {
+                        nextId = pet.getId();
+                        break scan;
+                    }
+
+                    String[] trigrams = PetTrigrams.trigrams(pet.getName());
+                    int[] counts = new int[trigrams.length];
+                    for (int i = 0; i < trigrams.length; i++) {
+                        Integer trigramCount = trigramCounts.get(trigrams[i]);
+                        counts[i] = trigramCount == null ? 0 : trigramCount;
+                    }
+
+                    matches.clear();
+                    addMatches(database, pet, trigrams, counts, true, matches);
+                    for (Match match : matches) {
+                        ids.add(pet.getId());
+                        duplicates.add(match);
+                    }
+                    afterId = pet.getId();
+                }
+            } finally {
+                page.close();
+            }
+        }
+
+        int size = duplicates.size();
+        long[] firstIds = new long[size];
+        long[] duplicateIds = new long[size];
+        float[] scores = new float[size];
+        for (int i = 0; i < size; i++) {
+            firstIds[i] = ids.get(i);
+            duplicateIds[i] = duplicates.get(i).pet.getId();
+            scores[i] = duplicates.get(i).score;
+        }
+
+        Bundle result = new Bundle();
+        result.putLongArray(PetsContract.KEY_IDS, firstIds);
+        result.putLongArray(PetsContract.KEY_DUPLICATE_IDS, duplicateIds);
+        result.putFloatArray(PetsContract.KEY_SCORES, scores);
+        result.putLong(PetsContract.KEY_NEXT_ID, nextId);
+        return result;
+    }
+
+    /**
+     * Look up the candidates of a pet in the trigram index and add the ones that score high
+     * enough.
+     *
+     * @param counts how many pets each trigram is under
+     * @param after  only look at pets with a higher id than this one
+     */
+    private static void addMatches(SQLiteDatabase database, Pet pet, String[] trigrams,
+                                   int[] counts, boolean after, List<Match> matches) {
+        String[] probes = PetTrigrams.selectProbes(trigrams, counts);
+        if (probes == null) {
+            return;
+        }
+        String[] args = probes;
+        if (after) {
+            args = new String[probes.length + 1];
+            System.arraycopy(probes, 0, args, 0, probes.length);
+            args[probes.length] = String.valueOf(pet.getId());
+        }
+
+        // The connection's statement cache keeps the few variants of the query compiled
+        Cursor cursor = database.rawQuery(PetSchema.buildDuplicateCandidatesQuery(Pet.PROJECTION,
+                probes.length, PetTrigrams.minShared(trigrams), after), args);
+        try {
+            while (cursor.moveToNext()) {
+                Pet candidate = Pet.fromCursor(cursor);
+                float score = PetTrigrams.score(trigrams, pet.getBreed(), pet.getGender(),
+                        pet.getWeight(), candidate.getName(), candidate.getBreed(),
+                        candidate.getGender(), candidate.getWeight());
+                if (score >= PetTrigrams.MATCH_THRESHOLD) {
+                    matches.add(new Match(candidate, score));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
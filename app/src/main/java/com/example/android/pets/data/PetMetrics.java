@@ -0,0 +1,207 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.support.v4.os.TraceCompat;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters for the hot paths of {@link PetProvider}: a latency histogram and row counts per
+ * operation and URI, the cursor windows handed out, and the change notifications sent. Every
+ * operation is also a trace section, so it shows up in systrace and Perfetto captures.
+ *
+ * The numbers can be read with {@link PetsContract#METHOD_DUMP_METRICS} or with
+ * {@code adb shell dumpsys activity provider com.example.android.pets}.
+ */
+final class PetMetrics {
+
+    /**
+     * Histogram buckets are powers of two of microseconds, the last one holds everything slower.
+     */
+    private static final int BUCKET_COUNT = 24;
+
+    private static final class Stat {
+        long count;
+        long rows;
+        long totalNanos;
+        long maxNanos;
+        final long[] buckets = new long[BUCKET_COUNT];
+
+        void add(long nanos, long rowCount) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (rowCount > 0) {
+                rows += rowCount;
+            }
+
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, in microseconds.
+         */
+        long percentileMicros(double percentile) {
+            long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKET_COUNT - 1);
+        }
+    }
+
+    /**
+     * Keyed by "operation uri", sorted so the dump is stable.
+     */
+    private final Map<String, Stat> mStats = new TreeMap<>();
+
+    private long mCursorsClosed;
+    private long mWindowRows;
+    private long mMaxWindowRows;
+
+    private long mNotifications;
+    private long mNotifiedIds;
+    private long mWholeTableNotifications;
+
+    /**
+     * Start timing an operation and open its trace section.
+     *
+     * @return the start time to pass to {@link #end}
+     */
+    long begin(String operation) {
+        TraceCompat.beginSection("PetProvider." + operation);
+        return System.nanoTime();
+    }
+
+    /**
+     * Close the trace section opened by {@link #begin} and record the operation.
+     *
+     * @param rows rows written, or -1 when not known yet
+     */
+    void end(String operation, String uri, long start, long rows) {
+        long nanos = System.nanoTime() - start;
+        TraceCompat.endSection();
+
+        String key = operation + " " + uri;
+        synchronized (this) {
+            Stat stat = mStats.get(key);
+            if (stat == null) {
+                stat = new Stat();
+                mStats.put(key, stat);
+            }
+            stat.add(nanos, rows);
+        }
+    }
+
+    /**
+     * Wrap a query result so the rows it held are recorded once it is closed.
+     */
+    Cursor meter(Cursor cursor, String uri) {
+        if (cursor == null) {
+            return null;
+        }
+        return new MeteredCursor(cursor, uri);
+    }
+
+    synchronized void notified(PetChanges changes) {
+        mNotifications++;
+        if (changes.isWholeTable()) {
+            mWholeTableNotifications++;
+        } else {
+            mNotifiedIds += changes.size();
+        }
+    }
+
+    private synchronized void cursorClosed(String uri, int rows, int windowRows) {
+        mCursorsClosed++;
+        mWindowRows += windowRows;
+        mMaxWindowRows = Math.max(mMaxWindowRows, windowRows);
+
+        Stat stat = mStats.get("query " + uri);
+        if (stat != null) {
+            stat.rows += rows;
+        }
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Pet provider metrics (latency in us, percentiles are bucket upper bounds)");
+        for (Map.Entry<String, Stat> entry : mStats.entrySet()) {
+            Stat stat = entry.getValue();
+            writer.println("  " + entry.getKey()
+                    + ": count=" + stat.count
+                    + " rows=" + stat.rows
+                    + " avg=" + TimeUnit.NANOSECONDS.toMicros(stat.totalNanos / stat.count)
+                    + " p50<=" + stat.percentileMicros(0.5)
+                    + " p99<=" + stat.percentileMicros(0.99)
+                    + " max=" + TimeUnit.NANOSECONDS.toMicros(stat.maxNanos));
+        }
+        writer.println("  cursors closed=" + mCursorsClosed
+                + " avgWindowRows=" + (mCursorsClosed == 0 ? 0 : mWindowRows / mCursorsClosed)
+                + " maxWindowRows=" + mMaxWindowRows);
+        writer.println("  notifications=" + mNotifications
+                + " ids=" + mNotifiedIds
+                + " wholeTable=" + mWholeTableNotifications);
+        PetCache cache = PetCache.getInstance();
+        writer.println("  cache size=" + cache.size()
+                + " hits=" + cache.hitCount()
+                + " misses=" + cache.missCount()
+                + " evictions=" + cache.evictionCount());
+    }
+
+    String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    synchronized void reset() {
+        mStats.clear();
+        mCursorsClosed = 0;
+        mWindowRows = 0;
+        mMaxWindowRows = 0;
+        mNotifications = 0;
+        mNotifiedIds = 0;
+        mWholeTableNotifications = 0;
+    }
+
+    private class MeteredCursor extends CrossProcessCursorWrapper {
+
+        private final String mUri;
+
+        MeteredCursor(Cursor cursor, String uri) {
+            super(cursor);
+            mUri = uri;
+        }
+
+        @Override
+        public void close() {
+            if (!isClosed()) {
+                // Only look at cursors that were read, counting an unread one would run the query
+                Cursor cursor = getWrappedCursor();
+                CursorWindow window = cursor instanceof AbstractWindowedCursor
+                        ? ((AbstractWindowedCursor) cursor).getWindow() : null;
+                if (window != null) {
+                    cursorClosed(mUri, cursor.getCount(), window.getNumRows());
+                } else if (!(cursor instanceof AbstractWindowedCursor)) {
+                    cursorClosed(mUri, cursor.getCount(), 0);
+                }
+            }
+            super.close();
+        }
+    }
+}
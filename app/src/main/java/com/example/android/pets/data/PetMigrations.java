@@ -0,0 +1,271 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Step by step schema migrations for {@link PetDbHelper}.
+ *
+ * Every schema version bump adds one {@link Migration} from the previous version to
+ * {@link #MIGRATIONS}. A step spells out its SQL as it was at its version instead of using
+ * {@link PetSchema}, so later changes to the schema do not change what an old step does.
+ * {@link SQLiteOpenHelper#onUpgrade} already runs inside a transaction, so a failing step rolls
+ * the whole upgrade back and leaves the old schema and data untouched.
+ */
+final class PetMigrations {
+
+    private static final String LOG_TAG = PetMigrations.class.getSimpleName();
+
+    /**
+     * One step from {@link #startVersion} to {@link #endVersion}.
+     */
+    abstract static class Migration {
+
+        final int startVersion;
+        final int endVersion;
+
+        Migration(int startVersion, int endVersion) {
+            this.startVersion = startVersion;
+            this.endVersion = endVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase database);
+    }
+
+    /**
+     * Add the (name, _id) index used by name ordered pages.
+     */
+    private static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS Pets_name_idx ON Pets(name, _id);");
+        }
+    };
+
+    /**
+     * Add the full-text search table and fill it from the existing pets.
+     */
+    private static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS Pets_fts"
+                    + " USING fts4(content=\"Pets\", prefix=\"1,2,3\", name, breed);");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_fts_bu BEFORE UPDATE OF name, breed ON Pets"
+                    + " BEGIN DELETE FROM Pets_fts WHERE docid = old._id; END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_fts_bd BEFORE DELETE ON Pets"
+                    + " BEGIN DELETE FROM Pets_fts WHERE docid = old._id; END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_fts_au AFTER UPDATE OF name, breed ON Pets"
+                    + " BEGIN INSERT INTO Pets_fts(docid, name, breed)"
+                    + " VALUES (new._id, new.name, new.breed); END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_fts_ai AFTER INSERT ON Pets"
+                    + " BEGIN INSERT INTO Pets_fts(docid, name, breed)"
+                    + " VALUES (new._id, new.name, new.breed); END;");
+            database.execSQL("INSERT INTO Pets_fts(Pets_fts) VALUES ('rebuild');");
+        }
+    };
+
+    /**
+     * Add the indexes behind the filter parameters and the stats URIs, as they were in version 4.
+     */
+    private static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS Pets_breed_idx ON Pets(breed);");
+            database.execSQL("CREATE INDEX IF NOT EXISTS Pets_gender_idx ON Pets(gender, weight);");
+            database.execSQL("CREATE INDEX IF NOT EXISTS Pets_weight_idx ON Pets(weight);");
+        }
+    };
+
+    /**
+     * Add the deleted flag and the meta table holding the deleted watermark, and lead the
+     * filter indexes with the flag. Purging deleted pets leaves free pages, which only an
+     * incremental auto vacuum database hands back a few at a time. VACUUM cannot run in the
+     * upgrade's transaction, so {@link PetCompactor} converts the database after its first
+     * purge.
+     */
+    private static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            addColumn(database, "Pets", "deleted INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE TABLE IF NOT EXISTS Pets_meta"
+                    + "(key TEXT PRIMARY KEY, value INTEGER NOT NULL);");
+            database.execSQL("INSERT OR IGNORE INTO Pets_meta(key, value)"
+                    + " VALUES ('deleted_through_id', 0);");
+            database.execSQL("DROP INDEX IF EXISTS Pets_breed_idx;");
+            database.execSQL("DROP INDEX IF EXISTS Pets_gender_idx;");
+            database.execSQL("DROP INDEX IF EXISTS Pets_weight_idx;");
+            database.execSQL("CREATE INDEX IF NOT EXISTS Pets_breed_idx ON Pets(deleted, breed);");
+            database.execSQL("CREATE INDEX IF NOT EXISTS Pets_gender_idx ON Pets(deleted, gender, weight);");
+            database.execSQL("CREATE INDEX IF NOT EXISTS Pets_weight_idx ON Pets(deleted, weight);");
+        }
+    };
+
+    /**
+     * Add the photo file name.
+     */
+    private static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            addColumn(database, "Pets", "photo TEXT");
+        }
+    };
+
+    /**
+     * Add the change log and its triggers. Pets from before it have no changes logged, a reader
+     * of the log starts from a full read of the table anyway.
+     */
+    private static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS Pets_changes(seq INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " pet_id INTEGER NOT NULL, op INTEGER NOT NULL);");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_changes_ai AFTER INSERT ON Pets"
+                    + " BEGIN INSERT INTO Pets_changes(pet_id, op) VALUES (new._id, 1); END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_changes_au AFTER UPDATE ON Pets"
+                    + " WHEN new.deleted = 0 AND old.deleted = 0"
+                    + " BEGIN INSERT INTO Pets_changes(pet_id, op) VALUES (new._id, 2); END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_changes_au_deleted"
+                    + " AFTER UPDATE OF deleted ON Pets WHEN new.deleted = 1 AND old.deleted = 0"
+                    + " BEGIN INSERT INTO Pets_changes(pet_id, op) VALUES (new._id, 3); END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_changes_ad AFTER DELETE ON Pets"
+                    + " WHEN old.deleted = 0 AND old._id >"
+                    + " (SELECT value FROM Pets_meta WHERE key = 'deleted_through_id')"
+                    + " BEGIN INSERT INTO Pets_changes(pet_id, op) VALUES (old._id, 3); END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_changes_au_meta AFTER UPDATE ON Pets_meta"
+                    + " WHEN new.key = 'deleted_through_id' AND new.value > old.value"
+                    + " BEGIN INSERT INTO Pets_changes(pet_id, op) VALUES (new.value, 4); END;");
+        }
+    };
+
+    /**
+     * Add the trigram index of the names for duplicate detection and fill it from the existing
+     * pets. The numbers table holds 1 to 64, the trigrams of a name that are indexed.
+     */
+    private static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS Pets_numbers(n INTEGER PRIMARY KEY);");
+            StringBuilder numbers = new StringBuilder("INSERT OR IGNORE INTO Pets_numbers(n) VALUES ");
+            for (int n = 1; n <= 64; n++) {
+                numbers.append(n == 1 ? "(" : ", (").append(n).append(')');
+            }
+            database.execSQL(numbers.append(';').toString());
+            database.execSQL("CREATE TABLE IF NOT EXISTS Pets_trigrams(gram TEXT NOT NULL,"
+                    + " pet_id INTEGER NOT NULL, PRIMARY KEY (gram, pet_id));");
+            database.execSQL("CREATE INDEX IF NOT EXISTS Pets_trigrams_pet_idx ON Pets_trigrams(pet_id);");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_trigrams_ai AFTER INSERT ON Pets"
+                    + " BEGIN INSERT OR IGNORE INTO Pets_trigrams(gram, pet_id)"
+                    + " SELECT substr(' ' || lower(trim(new.name)) || ' ', n, 3), new._id"
+                    + " FROM Pets_numbers WHERE n <= length(trim(new.name)); END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_trigrams_au AFTER UPDATE OF name ON Pets"
+                    + " WHEN new.name IS NOT old.name"
+                    + " BEGIN DELETE FROM Pets_trigrams WHERE pet_id = old._id;"
+                    + " INSERT OR IGNORE INTO Pets_trigrams(gram, pet_id)"
+                    + " SELECT substr(' ' || lower(trim(new.name)) || ' ', n, 3), new._id"
+                    + " FROM Pets_numbers WHERE n <= length(trim(new.name)); END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_trigrams_ad AFTER DELETE ON Pets"
+                    + " BEGIN DELETE FROM Pets_trigrams WHERE pet_id = old._id; END;");
+            database.execSQL("INSERT OR IGNORE INTO Pets_trigrams(gram, pet_id)"
+                    + " SELECT substr(' ' || lower(trim(Pets.name)) || ' ', n, 3), Pets._id"
+                    + " FROM Pets, Pets_numbers WHERE n <= length(trim(Pets.name));");
+        }
+    };
+
+    /**
+     * Trim the change log from the writes that fill it instead of only from the purge, and trim
+     * the log the purge has not caught up with yet, down to its 10000 newest rows.
+     */
+    private static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_changes_trim AFTER INSERT ON Pets_changes"
+                    + " WHEN new.seq % 256 = 0"
+                    + " BEGIN DELETE FROM Pets_changes WHERE seq <= new.seq - 10000; END;");
+            database.execSQL("DELETE FROM Pets_changes"
+                    + " WHERE seq <= (SELECT MAX(seq) FROM Pets_changes) - 10000");
+        }
+    };
+
+    /**
+     * Keep the number of pets under every trigram in a table of its own, filled from the
+     * trigram index, so duplicate detection stops counting the index on every call.
+     */
+    private static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        void migrate(SQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS Pets_trigram_counts"
+                    + "(gram TEXT PRIMARY KEY, pet_count INTEGER NOT NULL);");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_trigram_counts_ai"
+                    + " AFTER INSERT ON Pets_trigrams"
+                    + " BEGIN INSERT OR IGNORE INTO Pets_trigram_counts(gram, pet_count)"
+                    + " VALUES (new.gram, 0);"
+                    + " UPDATE Pets_trigram_counts SET pet_count = pet_count + 1"
+                    + " WHERE gram = new.gram; END;");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS Pets_trigram_counts_ad"
+                    + " AFTER DELETE ON Pets_trigrams"
+                    + " BEGIN UPDATE Pets_trigram_counts SET pet_count = pet_count - 1"
+                    + " WHERE gram = old.gram;"
+                    + " DELETE FROM Pets_trigram_counts WHERE gram = old.gram AND pet_count <= 0; END;");
+            database.execSQL("INSERT OR REPLACE INTO Pets_trigram_counts(gram, pet_count)"
+                    + " SELECT gram, COUNT(*) FROM Pets_trigrams GROUP BY gram;");
+        }
+    };
+
+    static final Migration[] MIGRATIONS = {
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8,
+            MIGRATION_8_9,
+            MIGRATION_9_10
+    };
+
+    private PetMigrations() {
+    }
+
+    /**
+     * Apply every step from oldVersion up to newVersion, in order, and log how long each one took.
+     */
+    static void migrate(SQLiteDatabase database, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        while (version < newVersion) {
+            Migration migration = find(version);
+            if (migration == null) {
+                throw new IllegalStateException("No migration from version " + version
+                        + " to " + newVersion);
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            migration.migrate(database);
+            Log.i(LOG_TAG, "Migrated " + new File(database.getPath()).getName() + " from version "
+                    + migration.startVersion + " to " + migration.endVersion + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+
+            version = migration.endVersion;
+        }
+    }
+
+    private static Migration find(int startVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.startVersion == startVersion) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a column in place. Only works for columns SQLite can add with ALTER TABLE, that is
+     * without a primary key or unique constraint and with a constant default if NOT NULL.
+     */
+    static void addColumn(SQLiteDatabase database, String table, String columnDefinition) {
+        database.execSQL("ALTER TABLE " + table + " ADD COLUMN " + columnDefinition);
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only list of pets stored as a sequence of {@link PetSnapshot} pages.
+ *
+ * Adding a page at either end, or dropping pages from either end, makes a new list that shares
+ * the pages it keeps, so loading one more page costs the size of that page and not of every row
+ * loaded before it. Rows are read back by their position in the whole list.
+ */
+public final class PetPages {
+
+    public static final PetPages EMPTY = new PetPages(new PetSnapshot[0]);
+
+    private final PetSnapshot[] mPages;
+
+    /**
+     * Position of the first row of every page.
+     */
+    private final int[] mStarts;
+    private final int mSize;
+
+    private PetPages(PetSnapshot[] pages) {
+        mPages = pages;
+        mStarts = new int[pages.length];
+        int size = 0;
+        for (int i = 0; i < pages.length; i++) {
+            mStarts[i] = size;
+            size += pages[i].size();
+        }
+        mSize = size;
+    }
+
+    /**
+     * Read every remaining row of a cursor queried with {@link Pet#PROJECTION}, into pages of
+     * the given size. The cursor is left open.
+     */
+    public static PetPages fromCursor(Cursor cursor, int pageSize) {
+        Builder builder = new Builder(pageSize);
+        while (cursor.moveToNext()) {
+            builder.addRow(cursor);
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int getPageCount() {
+        return mPages.length;
+    }
+
+    public PetSnapshot getPage(int index) {
+        return mPages[index];
+    }
+
+    public long getId(int position) {
+        int page = pageOf(position);
+        return mPages[page].getId(position - mStarts[page]);
+    }
+
+    public String getName(int position) {
+        int page = pageOf(position);
+        return mPages[page].getName(position - mStarts[page]);
+    }
+
+    public String getBreed(int position) {
+        int page = pageOf(position);
+        return mPages[page].getBreed(position - mStarts[page]);
+    }
+
+    public int getGender(int position) {
+        int page = pageOf(position);
+        return mPages[page].getGender(position - mStarts[page]);
+    }
+
+    public int getWeight(int position) {
+        int page = pageOf(position);
+        return mPages[page].getWeight(position - mStarts[page]);
+    }
+
+    public String getPhoto(int position) {
+        int page = pageOf(position);
+        return mPages[page].getPhoto(position - mStarts[page]);
+    }
+
+    public Pet getPet(int position) {
+        int page = pageOf(position);
+        return mPages[page].getPet(position - mStarts[page]);
+    }
+
+    /**
+     * The pages of another list after the pages of this one, without the given number of pages
+     * from the start of this one.
+     */
+    public PetPages append(PetPages pages, int droppedPages) {
+        return concat(mPages, droppedPages, mPages.length, pages.mPages);
+    }
+
+    /**
+     * The pages of another list before the pages of this one, without the given number of pages
+     * from the end of this one.
+     */
+    public PetPages prepend(PetPages pages, int droppedPages) {
+        PetSnapshot[] kept = Arrays.copyOfRange(mPages, 0, mPages.length - droppedPages);
+        return concat(pages.mPages, 0, pages.mPages.length, kept);
+    }
+
+    /**
+     * Whether two rows, possibly of different lists, hold the same values.
+     */
+    public static boolean sameContents(PetPages first, int firstPosition,
+                                       PetPages second, int secondPosition) {
+        int firstPage = first.pageOf(firstPosition);
+        int secondPage = second.pageOf(secondPosition);
+        return PetSnapshot.sameContents(
+                first.mPages[firstPage], firstPosition - first.mStarts[firstPage],
+                second.mPages[secondPage], secondPosition - second.mStarts[secondPage]);
+    }
+
+    private static PetPages concat(PetSnapshot[] first, int from, int to, PetSnapshot[] second) {
+        List<PetSnapshot> pages = new ArrayList<>(to - from + second.length);
+        for (int i = from; i < to; i++) {
+            pages.add(first[i]);
+        }
+        for (PetSnapshot page : second) {
+            if (!page.isEmpty()) {
+                pages.add(page);
+            }
+        }
+        return new PetPages(pages.toArray(new PetSnapshot[pages.size()]));
+    }
+
+    private int pageOf(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        int page = Arrays.binarySearch(mStarts, position);
+        // Not a start of a page: the insertion point is the page after the one holding it
+        return page >= 0 ? page : -page - 2;
+    }
+
+    /**
+     * Collects rows into pages of a fixed size. Not thread safe, and not usable after
+     * {@link #build()}.
+     */
+    public static final class Builder {
+
+        private final int mPageSize;
+        private final List<PetSnapshot> mPages = new ArrayList<>();
+        private PetSnapshot.Builder mPage;
+        private int mPageRows;
+
+        public Builder(int pageSize) {
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+            }
+            mPageSize = pageSize;
+        }
+
+        /**
+         * Add the row at the current position of a cursor queried with {@link Pet#PROJECTION}.
+         */
+        public Builder addRow(Cursor cursor) {
+            nextPage().addRow(cursor);
+            return this;
+        }
+
+        /**
+         * Add one row of another list.
+         */
+        public Builder add(PetPages pages, int position) {
+            int page = pages.pageOf(position);
+            nextPage().add(pages.mPages[page], position - pages.mStarts[page]);
+            return this;
+        }
+
+        public PetPages build() {
+            finishPage();
+            return new PetPages(mPages.toArray(new PetSnapshot[mPages.size()]));
+        }
+
+        private PetSnapshot.Builder nextPage() {
+            if (mPage != null && mPageRows == mPageSize) {
+                finishPage();
+            }
+            if (mPage == null) {
+                mPage = new PetSnapshot.Builder(mPageSize);
+            }
+            mPageRows++;
+            return mPage;
+        }
+
+        private void finishPage() {
+            if (mPage != null) {
+                mPages.add(mPage.build());
+                mPage = null;
+                mPageRows = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Files behind {@link PetsContract.PetsEntry#COLUMN_PHOTO}.
+ *
+ * Photos are kept as they were picked, one file per photo in the app's files directory, and the
+ * pets table only holds the file name. A new photo always gets a new name, so a name never
+ * changes meaning and can key every cache. Every shelter has a directory of its own, so each
+ * can sweep the photos its pets no longer name without asking the others. Picked photos go to
+ * the directory of the default shelter, and a pet of another shelter takes a copy of its photo
+ * when it is saved, see {@link #copyToShelter}. Thumbnails are made from the photos with a sampled
+ * decode, so a large photo is never decoded at full size, and are kept in a disk cache in the
+ * cache directory that the system may clear at any time.
+ */
+public final class PetPhotos {
+
+    private static final String LOG_TAG = PetPhotos.class.getSimpleName();
+
+    private static final String PHOTOS_DIR = "pet_photos";
+    private static final String SHELTER_PHOTOS_DIR = "pet_photos_shelter_";
+    private static final String THUMBNAILS_DIR = "pet_thumbnails";
+
+    /**
+     * Thumbnail edges outside these bounds are clamped.
+     */
+    static final int MIN_THUMBNAIL_SIZE = 16;
+    static final int MAX_THUMBNAIL_SIZE = 1024;
+
+    /**
+     * The disk cache drops its least recently used thumbnails past this size.
+     */
+    static final long MAX_DISK_CACHE_BYTES = 16 * 1024 * 1024;
+
+    static final int THUMBNAIL_QUALITY = 85;
+
+    /**
+     * Photo files this young are not swept even if no pet names them, they may belong to an
+     * editor that has not saved its pet yet.
+     */
+    static final long ORPHAN_GRACE_MS = 60 * 60 * 1000;
+
+    /**
+     * What a photo file name looks like, so a name from a caller can never point outside the
+     * photos directory.
+     */
+    private static final Pattern NAME_PATTERN = Pattern.compile("[0-9a-f\\-]+\\.[a-z0-9]+");
+
+    private PetPhotos() {
+    }
+
+    public static boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches();
+    }
+
+    static File getPhotoFile(Context context, long shelterId, String name) {
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid photo name " + name);
+        }
+        return new File(getPhotosDir(context, shelterId), name);
+    }
+
+    private static File getPhotosDir(Context context, long shelterId) {
+        File dir = new File(context.getFilesDir(), shelterId == PetsContract.DEFAULT_SHELTER
+                ? PHOTOS_DIR : SHELTER_PHOTOS_DIR + shelterId);
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static File getThumbnailsDir(Context context) {
+        File dir = new File(context.getCacheDir(), THUMBNAILS_DIR);
+        dir.mkdirs();
+        return dir;
+    }
+
+    /**
+     * Copy a picked image into the photos directory of the default shelter. Blocks, call it off
+     * the main thread.
+     *
+     * @return the file name to store in {@link PetsContract.PetsEntry#COLUMN_PHOTO}
+     */
+    public static String importPhoto(Context context, Uri source) throws IOException {
+        ContentResolver contentResolver = context.getContentResolver();
+        String extension = MimeTypeMap.getSingleton()
+                .getExtensionFromMimeType(contentResolver.getType(source));
+        String name = UUID.randomUUID() + "." + (extension == null ? "jpg" : extension);
+
+        InputStream in = contentResolver.openInputStream(source);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + source);
+        }
+        try {
+            writeAtomically(getPhotoFile(context, PetsContract.DEFAULT_SHELTER, name), in);
+        } finally {
+            in.close();
+        }
+        return name;
+    }
+
+    /**
+     * Make sure the photos directory of a shelter holds the given photo, copying it from the
+     * default shelter, where {@link #importPhoto} put it, if it does not yet. Blocks.
+     *
+     * @return false if neither directory has the photo
+     */
+    static boolean copyToShelter(Context context, long shelterId, String name) {
+        File photo = getPhotoFile(context, shelterId, name);
+        if (photo.isFile()) {
+            return true;
+        }
+        File picked = getPhotoFile(context, PetsContract.DEFAULT_SHELTER, name);
+        if (shelterId == PetsContract.DEFAULT_SHELTER || !picked.isFile()) {
+            return false;
+        }
+        try {
+            InputStream in = new FileInputStream(picked);
+            try {
+                writeAtomically(photo, in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot copy photo " + name + " to shelter "
+                    + shelterId, e);
+        }
+        return true;
+    }
+
+    /**
+     * The cached thumbnail of a photo of the given shelter, made first if it is not in the disk
+     * cache. Blocks, call it off the main thread.
+     */
+    public static File getThumbnail(Context context, long shelterId, String name, int size)
+            throws IOException {
+        size = Math.max(MIN_THUMBNAIL_SIZE, Math.min(MAX_THUMBNAIL_SIZE, size));
+        File thumbnail = new File(getThumbnailsDir(context), name + "_" + size + ".jpg");
+        if (thumbnail.exists()) {
+            // Last modified time is the recency the cache is trimmed by
+            thumbnail.setLastModified(System.currentTimeMillis());
+            return thumbnail;
+        }
+
+        Bitmap bitmap = decodeThumbnail(getPhotoFile(context, shelterId, name), size);
+        try {
+            File temp = File.createTempFile(name, ".tmp", thumbnail.getParentFile());
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(thumbnail)) {
+                temp.delete();
+                throw new IOException("Cannot write " + thumbnail);
+            }
+        } finally {
+            bitmap.recycle();
+        }
+
+        trimThumbnails(thumbnail.getParentFile());
+        return thumbnail;
+    }
+
+    /**
+     * Decode a photo to a square of the given edge, center cropped. The photo is decoded with
+     * the largest power of two sample size that still covers the square, in RGB_565 which
+     * halves the memory of a decode and is all a JPEG thumbnail keeps anyway.
+     */
+    static Bitmap decodeThumbnail(File photo, int size) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photo.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode " + photo);
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size
+                && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap sampled = BitmapFactory.decodeFile(photo.getPath(), options);
+        if (sampled == null) {
+            throw new IOException("Cannot decode " + photo);
+        }
+
+        int edge = Math.min(sampled.getWidth(), sampled.getHeight());
+        int left = (sampled.getWidth() - edge) / 2;
+        int top = (sampled.getHeight() - edge) / 2;
+        Bitmap thumbnail = Bitmap.createBitmap(size, size, Bitmap.Config.RGB_565);
+        new Canvas(thumbnail).drawBitmap(sampled, new Rect(left, top, left + edge, top + edge),
+                new Rect(0, 0, size, size), new Paint(Paint.FILTER_BITMAP_FLAG));
+        sampled.recycle();
+        return thumbnail;
+    }
+
+    /**
+     * Drop the least recently used thumbnails until the disk cache fits its size.
+     */
+    private static void trimThumbnails(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_CACHE_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : (firstModified == secondModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= MAX_DISK_CACHE_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * Delete photo files of a shelter that none of its pets names anymore, and their
+     * thumbnails.
+     *
+     * @param referenced every photo name still in the pets table of the shelter
+     * @return the number of photos deleted
+     */
+    static int deleteOrphans(Context context, long shelterId, Set<String> referenced) {
+        File[] photos = getPhotosDir(context, shelterId).listFiles();
+        if (photos == null) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - ORPHAN_GRACE_MS;
+        int deleted = 0;
+        for (File photo : photos) {
+            String name = photo.getName();
+            if (referenced.contains(name) || photo.lastModified() > cutoff) {
+                continue;
+            }
+            if (photo.delete()) {
+                deleted++;
+                deleteThumbnails(context, name);
+            }
+        }
+        if (deleted != 0) {
+            Log.i(LOG_TAG, "Deleted " + deleted + " photos of deleted pets");
+        }
+        return deleted;
+    }
+
+    private static void deleteThumbnails(Context context, String name) {
+        File[] thumbnails = getThumbnailsDir(context).listFiles();
+        if (thumbnails == null) {
+            return;
+        }
+        for (File thumbnail : thumbnails) {
+            if (thumbnail.getName().startsWith(name + "_")) {
+                thumbnail.delete();
+            }
+        }
+    }
+
+    private static void writeAtomically(File target, InputStream in) throws IOException {
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(target)) {
+                throw new IOException("Cannot write " + target);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -1,13 +1,39 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import com.example.android.pets.data.PetsContract.PetsEntry;
 
@@ -15,33 +41,193 @@ import static android.content.ContentValues.TAG;
 
 /**
  * {@link ContentProvider} for Pets app.
+ *
+ * Every URI under {@link PetsEntry#CONTENT_URI} also exists under the URI of each shelter,
+ * {@code /shelters/{id}/Pets}, and is served from that shelter's own database, see
+ * {@link PetShelters}. {@link PetsEntry#CONTENT_ALL_SHELTERS_URI} queries all of them.
  */
 public class PetProvider extends ContentProvider {
 
     private static final int PETS = 100;
     private static final int PET_ID = 101;
+    private static final int SEARCH = 102;
+    private static final int STATS_BY_GENDER = 103;
+    private static final int STATS_BY_BREED = 104;
+    private static final int STATS_WEIGHT = 105;
+    private static final int PET_PHOTO = 106;
+    private static final int PET_THUMBNAIL = 107;
+    private static final int CHANGES = 108;
 
     private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
     static {
         uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS, PETS);
         uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS + "/#", PET_ID);
+        uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_SEARCH, SEARCH);
+        uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS + "/"
+                + PetsContract.PATH_STATS + "/" + PetsContract.PATH_BY_GENDER, STATS_BY_GENDER);
+        uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS + "/"
+                + PetsContract.PATH_STATS + "/" + PetsContract.PATH_BY_BREED, STATS_BY_BREED);
+        uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS + "/"
+                + PetsContract.PATH_STATS + "/" + PetsContract.PATH_WEIGHT, STATS_WEIGHT);
+        uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/#/" + PetsContract.PATH_PHOTO, PET_PHOTO);
+        uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/#/" + PetsContract.PATH_THUMBNAIL, PET_THUMBNAIL);
+        uriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_CHANGES, CHANGES);
+
+    }
+
+    /**
+     * Search joins the pets table with its FTS table, which has columns of the same names, so
+     * every pets column is qualified.
+     */
+    private static final String SEARCH_TABLES = PetsEntry.TABLE_NAME + " JOIN " + PetsEntry.FTS_TABLE_NAME
+            + " ON " + PetsEntry.TABLE_NAME + "." + PetsEntry.COLUMN_ID + " = " + PetsEntry.FTS_TABLE_NAME + ".docid";
+
+    private static final HashMap<String, String> SEARCH_PROJECTION_MAP = new HashMap<>();
+
+    static {
+        for (String column : new String[] { PetsEntry.COLUMN_ID, PetsEntry.COLUMN_NAME,
+                PetsEntry.COLUMN_BREED, PetsEntry.COLUMN_GENDER, PetsEntry.COLUMN_WEIGHT }) {
+            SEARCH_PROJECTION_MAP.put(column, PetsEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Columns of the aggregate URIs. Counting is done by SQLite with GROUP BY, so the cursor
+     * only holds one row per group.
+     */
+    private static final String SQL_COUNT = "COUNT(*) AS " + PetsEntry.COLUMN_COUNT;
+
+    private static final LinkedHashMap<String, String> GENDER_STATS_PROJECTION_MAP = new LinkedHashMap<>();
+    private static final LinkedHashMap<String, String> BREED_STATS_PROJECTION_MAP = new LinkedHashMap<>();
+    private static final LinkedHashMap<String, String> WEIGHT_STATS_PROJECTION_MAP = new LinkedHashMap<>();
+
+    static {
+        GENDER_STATS_PROJECTION_MAP.put(PetsEntry.COLUMN_GENDER, PetsEntry.COLUMN_GENDER);
+        GENDER_STATS_PROJECTION_MAP.put(PetsEntry.COLUMN_COUNT, SQL_COUNT);
+
+        BREED_STATS_PROJECTION_MAP.put(PetsEntry.COLUMN_BREED, PetsEntry.COLUMN_BREED);
+        BREED_STATS_PROJECTION_MAP.put(PetsEntry.COLUMN_COUNT, SQL_COUNT);
+
+        WEIGHT_STATS_PROJECTION_MAP.put(PetsEntry.COLUMN_COUNT, SQL_COUNT);
+        WEIGHT_STATS_PROJECTION_MAP.put(PetsEntry.COLUMN_MIN_WEIGHT,
+                "MIN(" + PetsEntry.COLUMN_WEIGHT + ") AS " + PetsEntry.COLUMN_MIN_WEIGHT);
+        WEIGHT_STATS_PROJECTION_MAP.put(PetsEntry.COLUMN_MAX_WEIGHT,
+                "MAX(" + PetsEntry.COLUMN_WEIGHT + ") AS " + PetsEntry.COLUMN_MAX_WEIGHT);
+        WEIGHT_STATS_PROJECTION_MAP.put(PetsEntry.COLUMN_AVG_WEIGHT,
+                "AVG(" + PetsEntry.COLUMN_WEIGHT + ") AS " + PetsEntry.COLUMN_AVG_WEIGHT);
+    }
+
+    /**
+     * The changes URI joins the last change of each pet with its row, for inserts and updates.
+     */
+    private static final String CHANGES_TABLES = PetsEntry.CHANGES_TABLE_NAME + " LEFT JOIN "
+            + PetsEntry.TABLE_NAME + " ON " + PetsEntry.TABLE_NAME + "." + PetsEntry.COLUMN_ID
+            + " = " + PetsEntry.CHANGES_TABLE_NAME + "." + PetsEntry.COLUMN_PET_ID + " AND "
+            + PetsEntry.CHANGES_TABLE_NAME + "." + PetsEntry.COLUMN_OPERATION + " IN ("
+            + PetsEntry.OP_INSERT + ", " + PetsEntry.OP_UPDATE + ")";
+
+    /**
+     * Keeps the last change of each pet after the given sequence number, and every delete of
+     * all pets.
+     */
+    private static final String CHANGES_SELECTION = PetsEntry.CHANGES_TABLE_NAME + "." + PetsEntry.COLUMN_SEQUENCE
+            + " > ? AND (" + PetsEntry.CHANGES_TABLE_NAME + "." + PetsEntry.COLUMN_OPERATION + " = " + PetsEntry.OP_DELETE_THROUGH
+            + " OR " + PetsEntry.CHANGES_TABLE_NAME + "." + PetsEntry.COLUMN_SEQUENCE + " IN (SELECT MAX("
+            + PetsEntry.COLUMN_SEQUENCE + ") FROM " + PetsEntry.CHANGES_TABLE_NAME
+            + " WHERE " + PetsEntry.COLUMN_SEQUENCE + " > ? AND " + PetsEntry.COLUMN_OPERATION + " <> " + PetsEntry.OP_DELETE_THROUGH
+            + " GROUP BY " + PetsEntry.COLUMN_PET_ID + "))";
+
+    /**
+     * Oldest sequence number still in the log and the last one handed out, zero when there is none.
+     */
+    private static final String SQL_CHANGES_RANGE = "SELECT"
+            + " (SELECT IFNULL(MIN(" + PetsEntry.COLUMN_SEQUENCE + "), 0) FROM " + PetsEntry.CHANGES_TABLE_NAME + "),"
+            + " (SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence WHERE name = '" + PetsEntry.CHANGES_TABLE_NAME + "')";
+
+    private static final String[] CHANGES_PROJECTION = { PetsEntry.COLUMN_SEQUENCE,
+            PetsEntry.COLUMN_PET_ID, PetsEntry.COLUMN_OPERATION, PetsEntry.COLUMN_NAME,
+            PetsEntry.COLUMN_BREED, PetsEntry.COLUMN_GENDER, PetsEntry.COLUMN_WEIGHT,
+            PetsEntry.COLUMN_PHOTO };
 
+    private static final HashMap<String, String> CHANGES_PROJECTION_MAP = new HashMap<>();
+
+    static {
+        for (String column : new String[] { PetsEntry.COLUMN_SEQUENCE, PetsEntry.COLUMN_PET_ID,
+                PetsEntry.COLUMN_OPERATION }) {
+            CHANGES_PROJECTION_MAP.put(column, PetsEntry.CHANGES_TABLE_NAME + "." + column + " AS " + column);
+        }
+        for (String column : new String[] { PetsEntry.COLUMN_NAME, PetsEntry.COLUMN_BREED,
+                PetsEntry.COLUMN_GENDER, PetsEntry.COLUMN_WEIGHT, PetsEntry.COLUMN_PHOTO }) {
+            CHANGES_PROJECTION_MAP.put(column, PetsEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
     }
 
+    /**
+     * Columns that {@link PetsEntry#QUERY_SORT} accepts.
+     */
+    private static final Set<String> SORT_KEYS = new HashSet<>(Arrays.asList(PetsEntry.SORT_KEY_NAME,
+            PetsEntry.SORT_KEY_BREED, PetsEntry.SORT_KEY_WEIGHT, PetsEntry.SORT_KEY_ID));
+
+    /**
+     * Stands for {@link PetsEntry#CONTENT_ALL_SHELTERS_URI} in {@link #parseShelterId(Uri)}.
+     */
+    private static final long ALL_SHELTERS = -1;
+
+    /**
+     * Hidden columns that every shelter adds to its rows for {@link #queryAllShelters}, after
+     * the columns asked for.
+     */
+    private static final String MERGE_SORT_COLUMN = "merge_sort";
+    private static final String MERGE_ID_COLUMN = "merge_id";
+
     /** Tag for the log messages */
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
 
     /**
-     * Initialize the provider and the database helper object.
+     * The database of every shelter, opened as they are used.
+     */
+    private PetShelters mShelters;
+
+    /**
+     * Set while {@link #applyBatch(ArrayList)} runs on the calling thread. The individual
+     * operations collect their changes here and the batch sends them in one notification once
+     * it is committed.
+     */
+    private final ThreadLocal<PetChanges> mBatchChanges = new ThreadLocal<>();
+
+    private final PetMetrics mMetrics = new PetMetrics();
+
+    /**
+     * Selection that leaves out deleted pets.
      */
-    private PetDbHelper mDbHelper;
+    private static final String LIVE_SELECTION = PetSchema.buildLiveSelection(null);
 
+    /**
+     * Runs on the main thread during process start, so nothing here touches the database file.
+     * {@link PetStartup} opens it in the background.
+     */
     @Override
     public boolean onCreate() {
         // Make sure the variable is a global variable, so it can be referenced from other
         // ContentProvider methods.
-        mDbHelper = new PetDbHelper(getContext());
+        mShelters = new PetShelters(getContext());
+
+        // Purge what an earlier process deleted but did not get to, once the database is warm
+        // so the purge does not hold the writer while the first query waits for it. Other
+        // shelters purge when they are opened
+        final PetShelters.Shelter shelter = mShelters.getDefault();
+        PetStartup.prewarm(shelter.getDbHelper(), new Runnable() {
+            @Override
+            public void run() {
+                shelter.getCompactor().schedule();
+            }
+        });
+        PetStartup.onProviderReady();
         return true;
     }
 
@@ -51,25 +237,120 @@ public class PetProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Same as {@link #query(Uri, String[], String, String[], String)}, the signal cancels the
+     * query inside SQLite when the caller gives up on it.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = match(uri);
+        long shelterId = parseShelterId(uri);
+        long start = mMetrics.begin("query");
+        boolean firstQuery = PetStartup.beginQuery();
+        try {
+            if (shelterId == ALL_SHELTERS) {
+                Cursor cursor = queryAllShelters(uri, match, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                return mMetrics.meter(cursor, matchName(match));
+            }
+
+            // The shelter stays open until the cursor is closed
+            PetShelters.Shelter shelter = mShelters.acquire(shelterId);
+            Cursor cursor;
+            try {
+                cursor = queryPets(shelter, uri, match, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+            } catch (RuntimeException e) {
+                mShelters.release(shelter);
+                throw e;
+            }
+            return shelter.hold(mMetrics.meter(cursor, matchName(match)));
+        } finally {
+            PetStartup.endQuery(firstQuery);
+            mMetrics.end("query", matchName(match), start, -1);
+        }
+    }
+
+    private Cursor queryPets(PetShelters.Shelter shelter, Uri uri, int match, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder,
+                             CancellationSignal cancellationSignal) {
+        // In WAL mode the framework runs the query on a free connection of its pool, or inside
+        // the transaction of this thread's batch so the batch sees its own writes
+        SQLiteDatabase database = shelter.getDbHelper().getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = uriMatcher.match(uri);
         switch (match) {
             case PETS:
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
 
-                cursor = database.query(PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                selection = appendSelection(selection, LIVE_SELECTION);
+                ArrayList<String> filterArgs = new ArrayList<>();
+                String filter = buildFilter(uri, filterArgs);
+                if (filter != null) {
+                    selection = appendSelection(selection, filter);
+                    selectionArgs = appendSelectionArgs(selectionArgs,
+                            filterArgs.toArray(new String[filterArgs.size()]));
+                }
+                String sortKey = uri.getQueryParameter(PetsEntry.QUERY_SORT);
+                sortOrder = buildSortOrder(uri, sortOrder);
+
+                String afterId = uri.getQueryParameter(PetsEntry.QUERY_AFTER_ID);
+                if (afterId != null) {
+                    // Keyset paging: start right after the given row, in the index order
+                    String afterName = uri.getQueryParameter(PetsEntry.QUERY_AFTER_NAME);
+                    String keySelection;
+                    String[] keyArgs;
+                    if (sortKey != null && !sortKey.equals(afterName != null
+                            ? PetsEntry.SORT_KEY_NAME : PetsEntry.SORT_KEY_ID)) {
+                        throw new IllegalArgumentException("Keyset paging does not support the sort of " + uri);
+                    }
+                    // Descending walks the same index backwards, to the rows before the key
+                    boolean descending = sortKey != null
+                            && uri.getBooleanQueryParameter(PetsEntry.QUERY_DESCENDING, false);
+                    String comparison = descending ? " < ?" : " > ?";
+                    if (afterName != null) {
+                        keySelection = "(" + PetsEntry.COLUMN_NAME + comparison + " OR ("
+                                + PetsEntry.COLUMN_NAME + " = ? AND " + PetsEntry.COLUMN_ID + comparison + "))";
+                        keyArgs = new String[] { afterName, afterName, afterId };
+                        sortOrder = descending ? PetsEntry.COLUMN_NAME + " DESC, " + PetsEntry.COLUMN_ID + " DESC"
+                                : PetsEntry.SORT_BY_NAME;
+                    } else {
+                        keySelection = PetsEntry.COLUMN_ID + comparison;
+                        keyArgs = new String[] { afterId };
+                        sortOrder = descending ? PetsEntry.COLUMN_ID + " DESC" : PetsEntry.SORT_BY_ID;
+                    }
+                    selection = appendSelection(selection, keySelection);
+                    selectionArgs = appendSelectionArgs(selectionArgs, keyArgs);
+                }
+
+                cursor = database.query(false, PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, buildLimit(uri), cancellationSignal);
                 break;
 
             case PET_ID:
+                long id = ContentUris.parseId(uri);
+
+                // Pets that were shown recently are answered from memory. The cache is keyed by
+                // id alone, so it only holds pets of the default shelter
+                PetCache cache = shelter.isDefault() ? PetCache.getInstance() : null;
+                if (cache != null && PetCache.covers(projection)) {
+                    Pet pet = cache.get(id);
+                    if (pet != null) {
+                        cursor = PetCache.toCursor(pet, projection);
+                        break;
+                    }
+                }
+                int generation = cache == null ? 0 : cache.getGeneration();
+
                 // For the PET_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.pets/pets/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -78,13 +359,30 @@ public class PetProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = PetsEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                selection = PetsEntry._ID + "=? AND " + LIVE_SELECTION;
+                selectionArgs = new String[] { String.valueOf(id) };
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                if (cache != null && PetCache.isFullProjection(projection) && cursor.moveToFirst()) {
+                    cache.put(PetCache.fromCursor(cursor), generation);
+                    cursor.moveToPosition(-1);
+                }
+                break;
+            case SEARCH:
+                cursor = search(database, uri, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case STATS_BY_GENDER:
+            case STATS_BY_BREED:
+            case STATS_WEIGHT:
+                cursor = aggregate(database, uri, match, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            case CHANGES:
+                cursor = queryChanges(database, uri, projection, cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -93,28 +391,606 @@ public class PetProvider extends ContentProvider {
         // set notification URI on the cursor,
         // so we know what content URi the cursor was created for
         // If the data at this URI changes, we know to update the Cursor
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Search results and aggregates can change with any pet, so they listen to the whole table.
+        // Notifications of the default shelter go to the URIs under /Pets, whichever way it was
+        // queried
+        Uri notificationUri;
+        if (match == PETS || match == PET_ID) {
+            notificationUri = shelter.isDefault() ? stripShelter(uri) : uri;
+        } else {
+            notificationUri = PetsEntry.buildShelterUri(shelter.getId());
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Query the pets of every shelter and merge them into one cursor, in the order of the typed
+     * sort or by name, with the shelter of each row in {@link PetsEntry#COLUMN_SHELTER}.
+     *
+     * Each shelter runs the query with the same filters and sort and reads at most offset plus
+     * limit rows, which are merged here and copied into memory, so page a large catalog.
+     * Keyset paging and free sort orders are not supported, ids and sort expressions only mean
+     * something within one shelter.
      */
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = uriMatcher.match(uri);
+    private Cursor queryAllShelters(Uri uri, int match, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder,
+                                    CancellationSignal cancellationSignal) {
+        if (match != PETS) {
+            throw new IllegalArgumentException("Cannot query all shelters for " + uri);
+        }
+        if (sortOrder != null || uri.getQueryParameter(PetsEntry.QUERY_AFTER_ID) != null) {
+            throw new IllegalArgumentException("All shelters only take a typed sort and paging by position " + uri);
+        }
+
+        // Validates the paging values
+        buildLimit(uri);
+        int limit = uri.getQueryParameter(PetsEntry.QUERY_LIMIT) == null
+                ? -1 : parseIntParameter(uri, PetsEntry.QUERY_LIMIT);
+        int offset = uri.getQueryParameter(PetsEntry.QUERY_OFFSET) == null
+                ? 0 : parseIntParameter(uri, PetsEntry.QUERY_OFFSET);
+
+        String sortKey = uri.getQueryParameter(PetsEntry.QUERY_SORT);
+        if (sortKey == null) {
+            sortKey = PetsEntry.SORT_KEY_NAME;
+        } else if (!SORT_KEYS.contains(sortKey)) {
+            throw new IllegalArgumentException("Cannot sort by " + sortKey);
+        }
+        boolean descending = uri.getBooleanQueryParameter(PetsEntry.QUERY_DESCENDING, false);
+
+        // The same query for one shelter, reading every row up to the end of the page
+        Uri.Builder shelterUri = PetsEntry.CONTENT_URI.buildUpon();
+        for (String name : uri.getQueryParameterNames()) {
+            if (name.equals(PetsEntry.QUERY_SORT) || name.equals(PetsEntry.QUERY_DESCENDING)
+                    || name.equals(PetsEntry.QUERY_LIMIT) || name.equals(PetsEntry.QUERY_OFFSET)) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                shelterUri.appendQueryParameter(name, value);
+            }
+        }
+        shelterUri.appendQueryParameter(PetsEntry.QUERY_SORT, sortKey);
+        if (descending) {
+            shelterUri.appendQueryParameter(PetsEntry.QUERY_DESCENDING, "true");
+        }
+        if (limit != -1) {
+            shelterUri.appendQueryParameter(PetsEntry.QUERY_LIMIT, String.valueOf((long) offset + limit));
+        }
+
+        // The columns asked for, then the sort key, id and shelter to merge by
+        List<String> columns = new ArrayList<>(Arrays.asList(projection != null ? projection : Pet.PROJECTION));
+        columns.remove(PetsEntry.COLUMN_SHELTER);
+        int columnCount = columns.size();
+        columns.add(sortKey + " AS " + MERGE_SORT_COLUMN);
+        columns.add(PetsEntry.COLUMN_ID + " AS " + MERGE_ID_COLUMN);
+
+        List<PetShelters.Shelter> shelters = new ArrayList<>();
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (long shelterId : mShelters.list()) {
+                PetShelters.Shelter shelter = mShelters.acquire(shelterId);
+                shelters.add(shelter);
+                List<String> shelterColumns = new ArrayList<>(columns);
+                shelterColumns.add(shelterId + " AS " + PetsEntry.COLUMN_SHELTER);
+                cursors.add(queryPets(shelter, shelterUri.build(), PETS,
+                        shelterColumns.toArray(new String[shelterColumns.size()]), selection,
+                        selectionArgs, null, cancellationSignal));
+            }
+
+            String[] names = Arrays.copyOf(cursors.get(0).getColumnNames(), columnCount + 1);
+            names[columnCount] = PetsEntry.COLUMN_SHELTER;
+            MatrixCursor merged = new MatrixCursor(names, limit == -1 ? 16 : Math.min(limit, 256));
+
+            PriorityQueue<Cursor> queue = new PriorityQueue<>(cursors.size(),
+                    new MergeComparator(sortKey, descending, columnCount));
+            for (Cursor cursor : cursors) {
+                if (cursor.moveToFirst()) {
+                    queue.add(cursor);
+                }
+            }
+            int skipped = 0;
+            while (!queue.isEmpty() && (limit == -1 || merged.getCount() < limit)) {
+                Cursor cursor = queue.poll();
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    copyRow(cursor, columnCount, merged);
+                }
+                if (cursor.moveToNext()) {
+                    queue.add(cursor);
+                }
+            }
+
+            // Changes of any shelter are under the base URI
+            merged.setNotificationUri(getContext().getContentResolver(), PetsContract.BASE_CONTENT_URI);
+            return merged;
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+            for (PetShelters.Shelter shelter : shelters) {
+                mShelters.release(shelter);
+            }
+        }
+    }
+
+    /**
+     * Copy the current row of a shelter's cursor, with its shelter, to the merged cursor.
+     */
+    private static void copyRow(Cursor cursor, int columnCount, MatrixCursor merged) {
+        MatrixCursor.RowBuilder row = merged.newRow();
+        for (int i = 0; i < columnCount; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    row.add(null);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row.add(cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row.add(cursor.getDouble(i));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row.add(cursor.getBlob(i));
+                    break;
+                default:
+                    row.add(cursor.getString(i));
+                    break;
+            }
+        }
+        row.add(cursor.getLong(columnCount + 2));
+    }
+
+    /**
+     * Orders the current rows of the shelters' cursors like the ORDER BY of
+     * {@link #buildSortOrder(Uri, String)}, then by shelter. Nulls come first, as in SQLite.
+     */
+    private static final class MergeComparator implements Comparator<Cursor> {
+
+        private final boolean mNumeric;
+        private final int mDirection;
+        private final int mSortIndex;
+
+        MergeComparator(String sortKey, boolean descending, int sortIndex) {
+            mNumeric = sortKey.equals(PetsEntry.SORT_KEY_WEIGHT) || sortKey.equals(PetsEntry.SORT_KEY_ID);
+            mDirection = descending ? -1 : 1;
+            mSortIndex = sortIndex;
+        }
+
+        @Override
+        public int compare(Cursor a, Cursor b) {
+            int result = compareKeys(a, b);
+            if (result == 0) {
+                result = compareLongs(a.getLong(mSortIndex + 1), b.getLong(mSortIndex + 1));
+            }
+            if (result != 0) {
+                return mDirection * result;
+            }
+            return compareLongs(a.getLong(mSortIndex + 2), b.getLong(mSortIndex + 2));
+        }
+
+        private int compareKeys(Cursor a, Cursor b) {
+            boolean aNull = a.isNull(mSortIndex);
+            boolean bNull = b.isNull(mSortIndex);
+            if (aNull || bNull) {
+                return aNull == bNull ? 0 : aNull ? -1 : 1;
+            }
+            if (mNumeric) {
+                return compareLongs(a.getLong(mSortIndex), b.getLong(mSortIndex));
+            }
+            return PetSchema.compareText(a.getString(mSortIndex), b.getString(mSortIndex));
+        }
+
+        private static int compareLongs(long a, long b) {
+            return a < b ? -1 : a == b ? 0 : 1;
+        }
+    }
+
+    /**
+     * Run a prefix full-text search over name and breed. Unless the caller asks for another
+     * order, pets whose name starts with the first word come first, then the rest by name.
+     */
+    private Cursor search(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder,
+                          CancellationSignal cancellationSignal) {
+        String query = uri.getQueryParameter(PetsEntry.QUERY_SEARCH);
+        String[] words = query == null ? new String[0] : query.trim().split("[^\\p{L}\\p{N}]+");
+
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(word).append('*');
+        }
+
+        if (match.length() == 0) {
+            // Nothing to look for, hand back an empty cursor with the right columns
+            return database.query(PetsEntry.TABLE_NAME, projection, "0", null, null, null, null);
+        }
+
+        if (sortOrder == null) {
+            String firstWord = match.substring(0, match.indexOf("*"));
+            sortOrder = "CASE WHEN " + PetsEntry.TABLE_NAME + "." + PetsEntry.COLUMN_NAME + " LIKE "
+                    + DatabaseUtils.sqlEscapeString(firstWord + "%") + " THEN 0 ELSE 1 END, "
+                    + PetsEntry.TABLE_NAME + "." + PetsEntry.COLUMN_NAME + ", "
+                    + PetsEntry.TABLE_NAME + "." + PetsEntry.COLUMN_ID;
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SEARCH_TABLES);
+        builder.setProjectionMap(SEARCH_PROJECTION_MAP);
+        builder.appendWhere(PetsEntry.FTS_TABLE_NAME + " MATCH ");
+        builder.appendWhereEscapeString(match.toString());
+        builder.appendWhere(" AND " + PetSchema.buildLiveSelection(PetsEntry.TABLE_NAME));
+
+        return builder.query(database, projection, selection, selectionArgs, null, null, sortOrder,
+                buildLimit(uri), cancellationSignal);
+    }
+
+    /**
+     * Compute one of the stats URIs with GROUP BY, after applying the filter parameters.
+     */
+    private Cursor aggregate(SQLiteDatabase database, Uri uri, int match, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder,
+                             CancellationSignal cancellationSignal) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PetsEntry.TABLE_NAME);
+
+        String groupBy;
         switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
+            case STATS_BY_GENDER:
+                builder.setProjectionMap(GENDER_STATS_PROJECTION_MAP);
+                groupBy = PetsEntry.COLUMN_GENDER;
+                if (sortOrder == null) {
+                    sortOrder = PetsEntry.COLUMN_GENDER;
+                }
+                break;
+            case STATS_BY_BREED:
+                builder.setProjectionMap(BREED_STATS_PROJECTION_MAP);
+                groupBy = PetsEntry.COLUMN_BREED;
+                if (sortOrder == null) {
+                    sortOrder = PetsEntry.COLUMN_COUNT + " DESC, " + PetsEntry.COLUMN_BREED;
+                }
+                break;
+            case STATS_WEIGHT:
+                builder.setProjectionMap(WEIGHT_STATS_PROJECTION_MAP);
+                groupBy = null;
+                break;
             default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+                throw new IllegalArgumentException("Cannot aggregate unknown URI " + uri);
+        }
+
+        selection = appendSelection(selection, LIVE_SELECTION);
+        ArrayList<String> filterArgs = new ArrayList<>();
+        String filter = buildFilter(uri, filterArgs);
+        if (filter != null) {
+            selection = appendSelection(selection, filter);
+            selectionArgs = appendSelectionArgs(selectionArgs,
+                    filterArgs.toArray(new String[filterArgs.size()]));
+        }
+
+        return builder.query(database, projection, selection, selectionArgs, groupBy, null,
+                sortOrder, buildLimit(uri), cancellationSignal);
+    }
+
+    /**
+     * Read the change log after {@link PetsEntry#QUERY_SINCE}. When the log has been trimmed
+     * past that point, or the caller has a sequence number this database never handed out, the
+     * cursor holds a single {@link PetsEntry#OP_RESYNC} row instead.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                CancellationSignal cancellationSignal) {
+        long since = parseLongParameter(uri, PetsEntry.QUERY_SINCE, 0);
+        if (projection == null) {
+            projection = CHANGES_PROJECTION;
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(CHANGES_TABLES);
+        builder.setProjectionMap(CHANGES_PROJECTION_MAP);
+        String[] args = { String.valueOf(since), String.valueOf(since) };
+        Cursor cursor = builder.query(database, projection, CHANGES_SELECTION, args, null, null,
+                PetsEntry.CHANGES_TABLE_NAME + "." + PetsEntry.COLUMN_SEQUENCE, null,
+                cancellationSignal);
+        // Run it now, so a trim that races with it shows up in the range read after it
+        cursor.getCount();
+
+        long oldest;
+        long last;
+        Cursor range = database.rawQuery(SQL_CHANGES_RANGE, null);
+        try {
+            range.moveToFirst();
+            oldest = range.getLong(0);
+            last = range.getLong(1);
+        } finally {
+            range.close();
+        }
+        if (since <= last && (oldest == 0 || since >= oldest - 1)) {
+            return cursor;
+        }
+        cursor.close();
+
+        MatrixCursor resync = new MatrixCursor(projection, 1);
+        MatrixCursor.RowBuilder row = resync.newRow();
+        for (String column : projection) {
+            if (PetsEntry.COLUMN_SEQUENCE.equals(column)) {
+                row.add(last);
+            } else if (PetsEntry.COLUMN_OPERATION.equals(column)) {
+                row.add(PetsEntry.OP_RESYNC);
+            } else {
+                row.add(null);
+            }
+        }
+        return resync;
+    }
+
+    /**
+     * Selection of the rows where at least one of the given columns differs from its new value,
+     * adding the arguments. Arguments are bound as text, which the column affinity converts
+     * back for the comparison.
+     */
+    private static String buildChangedSelection(ContentValues values, List<String> args) {
+        StringBuilder changed = new StringBuilder("(");
+        for (String column : values.keySet()) {
+            if (changed.length() > 1) {
+                changed.append(" OR ");
+            }
+            String value = values.getAsString(column);
+            if (value == null) {
+                changed.append(column).append(" IS NOT NULL");
+            } else {
+                changed.append(column).append(" IS NOT ?");
+                args.add(value);
+            }
+        }
+        return changed.append(')').toString();
+    }
+
+    /**
+     * Build the WHERE clause for the typed filter parameters of the given URI and add its
+     * arguments, or return null if it has none.
+     */
+    private static String buildFilter(Uri uri, List<String> args) {
+        StringBuilder filter = new StringBuilder();
+
+        String gender = uri.getQueryParameter(PetsEntry.QUERY_GENDER);
+        if (gender != null) {
+            if (!PetsEntry.isValidGender(parseIntParameter(uri, PetsEntry.QUERY_GENDER))) {
+                throw new IllegalArgumentException("Invalid gender filter " + uri);
+            }
+            appendFilter(filter, PetsEntry.COLUMN_GENDER + " = ?", args, gender);
+        }
+
+        String breed = uri.getQueryParameter(PetsEntry.QUERY_BREED);
+        if (breed != null) {
+            appendFilter(filter, PetsEntry.COLUMN_BREED + " = ?", args, breed);
+        }
+
+        if (uri.getQueryParameter(PetsEntry.QUERY_MIN_WEIGHT) != null) {
+            appendFilter(filter, PetsEntry.COLUMN_WEIGHT + " >= ?", args,
+                    String.valueOf(parseIntParameter(uri, PetsEntry.QUERY_MIN_WEIGHT)));
+        }
+        if (uri.getQueryParameter(PetsEntry.QUERY_MAX_WEIGHT) != null) {
+            appendFilter(filter, PetsEntry.COLUMN_WEIGHT + " <= ?", args,
+                    String.valueOf(parseIntParameter(uri, PetsEntry.QUERY_MAX_WEIGHT)));
+        }
+
+        return filter.length() == 0 ? null : filter.toString();
+    }
+
+    private static void appendFilter(StringBuilder filter, String clause, List<String> args,
+                                     String arg) {
+        if (filter.length() > 0) {
+            filter.append(" AND ");
+        }
+        filter.append(clause);
+        args.add(arg);
+    }
+
+    /**
+     * Match a URI, under /Pets or under a shelter, to its code.
+     */
+    private static int match(Uri uri) {
+        return uriMatcher.match(stripShelter(uri));
+    }
+
+    /**
+     * The shelter of a URI: the default shelter for the URIs under /Pets, the id under
+     * /shelters, or {@link #ALL_SHELTERS}.
+     */
+    private static long parseShelterId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2 || !PetsContract.PATH_SHELTERS.equals(segments.get(0))) {
+            return PetsContract.DEFAULT_SHELTER;
+        }
+        String shelter = segments.get(1);
+        if (PetsContract.PATH_ALL_SHELTERS.equals(shelter)) {
+            return ALL_SHELTERS;
+        }
+        try {
+            long shelterId = Long.parseLong(shelter);
+            if (shelterId >= 0) {
+                return shelterId;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid shelter " + uri);
+    }
+
+    /**
+     * The URI under /Pets that a shelter URI stands for, with the same query. URIs under /Pets
+     * are returned as they are.
+     */
+    private static Uri stripShelter(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2 || !PetsContract.PATH_SHELTERS.equals(segments.get(0))) {
+            return uri;
+        }
+        Uri.Builder builder = uri.buildUpon().path("");
+        for (String segment : segments.subList(2, segments.size())) {
+            builder.appendPath(segment);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Open the single shelter a URI is for, to release once the operation is done.
+     */
+    private PetShelters.Shelter acquireShelter(Uri uri) {
+        return acquireShelter(uri, false);
+    }
+
+    /**
+     * @param create whether a shelter without a database gets one, for inserts
+     */
+    private PetShelters.Shelter acquireShelter(Uri uri, boolean create) {
+        long shelterId = parseShelterId(uri);
+        if (shelterId == ALL_SHELTERS) {
+            throw new IllegalArgumentException("Pick one shelter for " + uri);
+        }
+        return create ? mShelters.acquireOrCreate(shelterId) : mShelters.acquire(shelterId);
+    }
+
+    /**
+     * Open the shelter whose id a {@link #call} passed as its arg, the default one for null.
+     */
+    private PetShelters.Shelter acquireShelter(String arg) {
+        if (arg == null) {
+            return mShelters.acquire(PetsContract.DEFAULT_SHELTER);
+        }
+        try {
+            return mShelters.acquire(Long.parseLong(arg));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid shelter " + arg, e);
+        }
+    }
+
+    private static int parseIntParameter(Uri uri, String name) {
+        try {
+            return Integer.parseInt(uri.getQueryParameter(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + uri, e);
+        }
+    }
+
+    private static long parseLongParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + uri, e);
+        }
+    }
+
+    /**
+     * Turn the typed sort parameters of the given URI into an ORDER BY clause, or hand back the
+     * caller's sort order if there are none.
+     */
+    private static String buildSortOrder(Uri uri, String sortOrder) {
+        String sortKey = uri.getQueryParameter(PetsEntry.QUERY_SORT);
+        if (sortKey == null) {
+            return sortOrder;
+        }
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Cannot combine a sort order with " + uri);
+        }
+        if (!SORT_KEYS.contains(sortKey)) {
+            throw new IllegalArgumentException("Cannot sort by " + sortKey);
+        }
+
+        String direction = uri.getBooleanQueryParameter(PetsEntry.QUERY_DESCENDING, false)
+                ? " DESC" : " ASC";
+        if (sortKey.equals(PetsEntry.SORT_KEY_ID)) {
+            return PetsEntry.COLUMN_ID + direction;
+        }
+        return sortKey + direction + ", " + PetsEntry.COLUMN_ID + direction;
+    }
+
+    /**
+     * Build the LIMIT clause for the paging parameters of the given URI, or null if it has none.
+     */
+    private static String buildLimit(Uri uri) {
+        String limit = uri.getQueryParameter(PetsEntry.QUERY_LIMIT);
+        String offset = uri.getQueryParameter(PetsEntry.QUERY_OFFSET);
+        if (limit == null) {
+            if (offset != null) {
+                throw new IllegalArgumentException("Offset requires a limit " + uri);
+            }
+            return null;
+        }
 
+        try {
+            int limitValue = Integer.parseInt(limit);
+            int offsetValue = offset == null ? 0 : Integer.parseInt(offset);
+            if (limitValue < 0 || offsetValue < 0) {
+                throw new IllegalArgumentException("Paging values cannot be negative " + uri);
+            }
+            return offsetValue == 0 ? String.valueOf(limitValue) : limitValue + " OFFSET " + offsetValue;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid paging values " + uri, e);
+        }
+    }
+
+    /**
+     * AND the given extra clause onto a caller supplied selection.
+     */
+    private static String appendSelection(String selection, String extra) {
+        if (selection == null || selection.isEmpty()) {
+            return extra;
         }
+        return "(" + selection + ") AND " + extra;
+    }
 
+    private static String[] appendSelectionArgs(String[] selectionArgs, String[] extra) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return extra;
+        }
+        String[] result = new String[selectionArgs.length + extra.length];
+        System.arraycopy(selectionArgs, 0, result, 0, selectionArgs.length);
+        System.arraycopy(extra, 0, result, selectionArgs.length, extra.length);
+        return result;
     }
 
-    private Uri insertPet(Uri uri, ContentValues contentValues) {
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        final int match = match(uri);
+        long start = mMetrics.begin("insert");
+        Uri result = null;
+        try {
+            switch (match) {
+                case PETS:
+                    PetShelters.Shelter shelter = acquireShelter(uri, true);
+                    try {
+                        result = insertPet(shelter, uri, contentValues);
+                    } finally {
+                        mShelters.release(shelter);
+                    }
+                    return result;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+
+            }
+        } finally {
+            mMetrics.end("insert", matchName(match), start, result == null ? 0 : 1);
+        }
 
+    }
+
+    /**
+     * Check that the given values describe a pet that can be inserted.
+     */
+    private void validatePet(PetShelters.Shelter shelter, ContentValues contentValues) {
         if (contentValues.getAsString(PetsEntry.COLUMN_NAME)== null) {
             throw new IllegalArgumentException("Pet name cannot be null");
         }
@@ -124,8 +1000,56 @@ public class PetProvider extends ContentProvider {
             throw new IllegalArgumentException("Pet weight cannot be negative");
         }
 
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        long rowNumber = database.insert(PetsEntry.TABLE_NAME, null, contentValues);
+        // gender is NOT NULL, checked here so a bulk insert rejects the batch before writing
+        // anything instead of aborting it on the constraint
+        Integer gender = contentValues.getAsInteger(PetsEntry.COLUMN_GENDER);
+        if (gender == null || !PetsEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
+
+        validatePhoto(shelter, contentValues);
+    }
+
+    /**
+     * A photo has to be a file imported with {@link PetPhotos#importPhoto}, or null. It is
+     * copied to the photos of the shelter if it is not there yet.
+     */
+    private void validatePhoto(PetShelters.Shelter shelter, ContentValues contentValues) {
+        String photo = contentValues.getAsString(PetsEntry.COLUMN_PHOTO);
+        if (photo != null && !PetPhotos.copyToShelter(getContext(), shelter.getId(), photo)) {
+            throw new IllegalArgumentException("Pet photo " + photo + " does not exist");
+        }
+    }
+
+    private Uri insertPet(PetShelters.Shelter shelter, Uri uri, ContentValues contentValues) {
+
+        validatePet(shelter, contentValues);
+
+        PetDbHelper dbHelper = shelter.getDbHelper();
+        long rowNumber;
+        if (uri.getBooleanQueryParameter(PetsEntry.QUERY_SKIP_DUPLICATES, false)) {
+            // Look and insert in one transaction, so two inserts of the same pet cannot both
+            // miss each other
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            PetDuplicates.Finder finder = new PetDuplicates.Finder(database);
+            database.beginTransaction();
+            try {
+                List<PetDuplicates.Match> matches = finder.find(contentValues);
+                if (!matches.isEmpty()) {
+                    database.setTransactionSuccessful();
+                    return ContentUris.withAppendedId(uri, matches.get(0).pet.getId()).buildUpon()
+                            .appendQueryParameter(PetsEntry.QUERY_DUPLICATE, "true")
+                            .build();
+                }
+                rowNumber = insertRow(dbHelper, uri, contentValues);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                finder.close();
+            }
+        } else {
+            rowNumber = insertRow(dbHelper, uri, contentValues);
+        }
 
         if (rowNumber == -1) {
             Log.e(TAG, "failed to insert pet data" + uri);
@@ -133,31 +1057,244 @@ public class PetProvider extends ContentProvider {
         }
 
         //notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        PetChanges changes = new PetChanges();
+        changes.addInserted(rowNumber);
+        notifyChange(shelter, changes);
 
         return ContentUris.withAppendedId(uri,rowNumber);
     }
+
+    private static long insertRow(PetDbHelper dbHelper, Uri uri, ContentValues contentValues) {
+        if (PetStatements.isInsertable(contentValues)) {
+            try {
+                return dbHelper.getStatements().insert(contentValues);
+            } catch (SQLException e) {
+                Log.e(TAG, "failed to insert pet data" + uri, e);
+                return -1;
+            }
+        }
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        return database.insert(PetsEntry.TABLE_NAME, null, contentValues);
+    }
+
+    /**
+     * Insert all the given rows in a single transaction, reusing the compiled insert statement, and
+     * notify listeners once when the whole batch is committed.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = match(uri);
+        long start = mMetrics.begin("bulkInsert");
+        int rowCount = 0;
+        try {
+            if (match != PETS) {
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+            PetShelters.Shelter shelter = acquireShelter(uri, true);
+            try {
+                rowCount = bulkInsertPets(shelter, values,
+                        uri.getBooleanQueryParameter(PetsEntry.QUERY_SKIP_DUPLICATES, false));
+            } finally {
+                mShelters.release(shelter);
+            }
+            return rowCount;
+        } finally {
+            mMetrics.end("bulkInsert", matchName(match), start, rowCount);
+        }
+    }
+
+    /**
+     * @param skipDuplicates whether to leave out rows that look like a pet already there,
+     *                       including one inserted earlier in the same batch
+     */
+    private int bulkInsertPets(PetShelters.Shelter shelter, ContentValues[] values,
+                               boolean skipDuplicates) {
+        // Validate everything up front so a bad row never leaves a half written batch behind
+        for (ContentValues contentValues : values) {
+            validatePet(shelter, contentValues);
+        }
+
+        SQLiteDatabase database = shelter.getDbHelper().getWritableDatabase();
+        PetStatements statements = shelter.getDbHelper().getStatements();
+        PetChanges changes = new PetChanges();
+        int rowCount = 0;
+
+        // Compiled once for the whole batch
+        PetDuplicates.Finder finder = skipDuplicates ? new PetDuplicates.Finder(database) : null;
+        database.beginTransaction();
+        try {
+            for (ContentValues contentValues : values) {
+                if (finder != null && !finder.find(contentValues).isEmpty()) {
+                    continue;
+                }
+                long id = statements.insert(contentValues);
+                if (id != -1) {
+                    if (rowCount < PetChanges.MAX_IDS) {
+                        changes.addInserted(id);
+                    } else if (rowCount == PetChanges.MAX_IDS) {
+                        changes.addWholeTable();
+                    }
+                    rowCount++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            if (finder != null) {
+                finder.close();
+            }
+        }
+
+        if (rowCount != 0) {
+            notifyChange(shelter, changes);
+        }
+        return rowCount;
+    }
+
+    /**
+     * Apply all the operations in a single transaction and notify listeners once at the end.
+     * A transaction cannot span database files, so all operations have to be on one shelter.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long shelterId = PetsContract.DEFAULT_SHELTER;
+        for (int i = 0; i < operations.size(); i++) {
+            long operationShelterId = parseShelterId(operations.get(i).getUri());
+            if (operationShelterId == ALL_SHELTERS
+                    || (i > 0 && operationShelterId != shelterId)) {
+                throw new IllegalArgumentException("A batch has to stay in one shelter "
+                        + operations.get(i).getUri());
+            }
+            shelterId = operationShelterId;
+        }
+
+        // The batch may insert, and the first insert into a shelter creates it
+        PetShelters.Shelter shelter = mShelters.acquireOrCreate(shelterId);
+        try {
+            SQLiteDatabase database = shelter.getDbHelper().getWritableDatabase();
+            ContentProviderResult[] results;
+            PetChanges changes = new PetChanges();
+            long start = mMetrics.begin("applyBatch");
+
+            mBatchChanges.set(changes);
+            database.beginTransaction();
+            try {
+                results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                mBatchChanges.remove();
+                mMetrics.end("applyBatch", matchName(PETS), start, operations.size());
+            }
+
+            if (!changes.isEmpty()) {
+                // Readers may have cached rows while the batch was still uncommitted
+                invalidate(shelter, -1);
+
+                mMetrics.notified(changes);
+                getContext().getContentResolver().notifyChange(
+                        changes.toUri(PetsEntry.buildShelterUri(shelterId)), null);
+            }
+            return results;
+        } finally {
+            mShelters.release(shelter);
+        }
+    }
+
+    /**
+     * Notify listeners about the given changes, unless a batch is in progress on this thread,
+     * in which case they are added to the batch and {@link #applyBatch(ArrayList)} notifies once
+     * when it is done.
+     */
+    private void notifyChange(PetShelters.Shelter shelter, PetChanges changes) {
+        PetChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.addAll(changes);
+            return;
+        }
+        mMetrics.notified(changes);
+        getContext().getContentResolver().notifyChange(
+                changes.toUri(PetsEntry.buildShelterUri(shelter.getId())), null);
+    }
+
+    /**
+     * Drop the given pet from {@link PetCache}, or every pet when id is -1. Only pets of the
+     * default shelter are cached.
+     */
+    private static void invalidate(PetShelters.Shelter shelter, long id) {
+        if (!shelter.isDefault()) {
+            return;
+        }
+        if (id == -1) {
+            PetCache.getInstance().invalidateAll();
+        } else {
+            PetCache.getInstance().invalidate(id);
+        }
+    }
+
+    /**
+     * The changes made by a write that touched either the single pet with the given id, or
+     * the rows of an unknown selection when id is -1.
+     */
+    private static PetChanges updatedOrWholeTable(long id, boolean deleted) {
+        PetChanges changes = new PetChanges();
+        if (id == -1) {
+            changes.addWholeTable();
+        } else if (deleted) {
+            changes.addDeleted(id);
+        } else {
+            changes.addUpdated(id);
+        }
+        return changes;
+    }
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
      */
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-        final int match = uriMatcher.match(uri);
+        final int match = match(uri);
+        long start = mMetrics.begin("update");
+        int rowNumber = 0;
+        try {
+            if (match != PETS && match != PET_ID) {
+                throw new IllegalArgumentException("Update is not possible for " + uri);
+            }
+            PetShelters.Shelter shelter = acquireShelter(uri);
+            try {
+                rowNumber = updatePets(shelter, uri, match, contentValues, selection, selectionArgs);
+            } finally {
+                mShelters.release(shelter);
+            }
+            return rowNumber;
+        } finally {
+            mMetrics.end("update", matchName(match), start, rowNumber);
+        }
+    }
 
+    private int updatePets(PetShelters.Shelter shelter, Uri uri, int match,
+                           ContentValues contentValues, String selection, String[] selectionArgs) {
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                return updatePet(shelter, contentValues,
+                        appendSelection(selection, LIVE_SELECTION), selectionArgs, -1);
             case PET_ID:
-                selection = PetsEntry.COLUMN_ID + "=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                return updatePet(uri, contentValues,selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                selection = PetsEntry.COLUMN_ID + "=? AND " + LIVE_SELECTION;
+                selectionArgs = new String[] {String.valueOf(id)};
+                return updatePet(shelter, contentValues,selection, selectionArgs, id);
             default:
                 throw new IllegalArgumentException("Update is not possible for " + uri);
 
         }
     }
 
-    private int updatePet(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+    /**
+     * @param id the pet to update when the URI names a single pet, or -1
+     * @return the number of live pets the selection matched, changed or not
+     */
+    private int updatePet(PetShelters.Shelter shelter, ContentValues contentValues, String selection,
+                          String[] selectionArgs, long id) {
 
         //check if key is present
         if (contentValues.containsKey(PetsEntry.COLUMN_NAME)) {
@@ -185,18 +1322,48 @@ public class PetProvider extends ContentProvider {
             }
         }
 
+        validatePhoto(shelter, contentValues);
+
         if (contentValues.size() == 0) {
             return 0;
         }
 
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-
-        int rowNumber =  database.update(PetsEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+        // Rows that already hold the values are left out, so they are not rewritten and an
+        // update that changes nothing notifies nobody. They still count as matched, so the
+        // caller can tell an unchanged pet from a missing one and an expected count holds
+        SQLiteDatabase database = shelter.getDbHelper().getWritableDatabase();
+        int rowNumber;
+        int matched;
+        if (id != -1 && PetStatements.isUpdatable(contentValues)) {
+            rowNumber = shelter.getDbHelper().getStatements().updateById(id, contentValues);
+            matched = rowNumber != 0 ? rowNumber : (int) DatabaseUtils.queryNumEntries(database,
+                    PetsEntry.TABLE_NAME, selection, selectionArgs);
+        } else {
+            ArrayList<String> changedArgs = new ArrayList<>();
+            String changedSelection = appendSelection(selection,
+                    buildChangedSelection(contentValues, changedArgs));
+            String[] changedSelectionArgs = appendSelectionArgs(selectionArgs,
+                    changedArgs.toArray(new String[changedArgs.size()]));
+            database.beginTransaction();
+            try {
+                matched = (int) DatabaseUtils.queryNumEntries(database, PetsEntry.TABLE_NAME,
+                        selection, selectionArgs);
+                rowNumber = matched == 0 ? 0 : database.update(PetsEntry.TABLE_NAME, contentValues,
+                        changedSelection, changedSelectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
         if(rowNumber != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidate(shelter, id);
+            notifyChange(shelter, updatedOrWholeTable(id, false));
+            if (contentValues.containsKey(PetsEntry.COLUMN_PHOTO)) {
+                // The photo that was replaced is swept with the deleted pets
+                shelter.getCompactor().schedule();
+            }
         }
-        return rowNumber;
+        return matched;
     }
 
 
@@ -205,25 +1372,61 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        final int match = match(uri);
+        long start = mMetrics.begin("delete");
+        int rowNumber = 0;
+        try {
+            if (match != PETS && match != PET_ID) {
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
+            PetShelters.Shelter shelter = acquireShelter(uri);
+            try {
+                rowNumber = deletePets(shelter, uri, match, selection, selectionArgs);
+            } finally {
+                mShelters.release(shelter);
+            }
+            return rowNumber;
+        } finally {
+            mMetrics.end("delete", matchName(match), start, rowNumber);
+        }
+    }
+
+    /**
+     * Deleting only flags the pets, or moves the deleted watermark when every pet goes, and
+     * {@link PetCompactor} removes the rows later. Either way the pets are gone for every query
+     * as soon as this returns. Only the shelter's own database is written, so deleting all pets
+     * of one shelter never waits for another.
+     */
+    private int deletePets(PetShelters.Shelter shelter, Uri uri, int match, String selection,
+                           String[] selectionArgs) {
+        SQLiteDatabase database = shelter.getDbHelper().getWritableDatabase();
         int rowNumber;
-        final int match = uriMatcher.match(uri);
         switch (match) {
             case PETS:
-                rowNumber = database.delete(PetsEntry.TABLE_NAME, selection, selectionArgs);
+                if (selection == null || selection.isEmpty()) {
+                    rowNumber = deleteAllPets(database);
+                } else {
+                    ContentValues deleted = new ContentValues();
+                    deleted.put(PetsEntry.COLUMN_DELETED, 1);
+                    rowNumber = database.update(PetsEntry.TABLE_NAME, deleted,
+                            appendSelection(selection, LIVE_SELECTION), selectionArgs);
+                }
 
                 if(rowNumber != 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    invalidate(shelter, -1);
+                    notifyChange(shelter, updatedOrWholeTable(-1, true));
+                    shelter.getCompactor().schedule();
                 }
                 return rowNumber;
 
             case PET_ID:
-                selection = PetsEntry.COLUMN_ID + "=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                rowNumber = database.delete(PetsEntry.TABLE_NAME, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                rowNumber = shelter.getDbHelper().getStatements().deleteById(id);
 
                 if(rowNumber != 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    invalidate(shelter, id);
+                    notifyChange(shelter, updatedOrWholeTable(id, true));
+                    shelter.getCompactor().schedule();
                 }
                 return rowNumber;
             default:
@@ -231,22 +1434,331 @@ public class PetProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Delete every pet with {@link PetSchema#SQL_DELETE_ALL_PETS}.
+     *
+     * @return the number of pets that were not deleted yet
+     */
+    private static int deleteAllPets(SQLiteDatabase database) {
+        database.beginTransaction();
+        try {
+            int rowNumber = (int) DatabaseUtils.queryNumEntries(database, PetsEntry.TABLE_NAME,
+                    LIVE_SELECTION);
+            if (rowNumber != 0) {
+                database.execSQL(PetSchema.SQL_DELETE_ALL_PETS);
+            }
+            database.setTransactionSuccessful();
+            return rowNumber;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Open a pet's photo, or a thumbnail of it from the disk cache, for reading. Thumbnails that
+     * are not cached yet are made on the calling thread, so call this off the main thread.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int match = match(uri);
+        long start = mMetrics.begin("openFile");
+        try {
+            if (match != PET_PHOTO && match != PET_THUMBNAIL) {
+                throw new IllegalArgumentException("Cannot open files for " + uri);
+            }
+            if (!"r".equals(mode)) {
+                throw new IllegalArgumentException("Photos are read only, set them through "
+                        + PetsEntry.COLUMN_PHOTO + " " + uri);
+            }
+
+            long id = parsePetId(uri);
+            String photo;
+            long shelterId;
+            PetShelters.Shelter shelter = acquireShelter(uri);
+            try {
+                shelterId = shelter.getId();
+                photo = queryPhoto(shelter, id);
+            } finally {
+                mShelters.release(shelter);
+            }
+            if (photo == null) {
+                throw new FileNotFoundException("Pet " + id + " has no photo");
+            }
+
+            File file;
+            if (match == PET_PHOTO) {
+                file = PetPhotos.getPhotoFile(getContext(), shelterId, photo);
+            } else {
+                int size;
+                try {
+                    size = Integer.parseInt(uri.getQueryParameter(PetsEntry.QUERY_SIZE));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid thumbnail size " + uri, e);
+                }
+                try {
+                    file = PetPhotos.getThumbnail(getContext(), shelterId, photo, size);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Cannot make thumbnail of " + photo, e);
+                    throw new FileNotFoundException("Cannot make thumbnail of " + photo);
+                }
+            }
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        } finally {
+            mMetrics.end("openFile", matchName(match), start, -1);
+        }
+    }
+
+    /**
+     * The id of the pet a photo or thumbnail URI belongs to.
+     */
+    private static long parsePetId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return Long.parseLong(segments.get(segments.size() - 2));
+    }
+
+    /**
+     * The photo file name of a live pet, or null if it has none or does not exist.
+     */
+    private String queryPhoto(PetShelters.Shelter shelter, long id) {
+        Cursor cursor = shelter.getDbHelper().getReadableDatabase().query(PetsEntry.TABLE_NAME,
+                new String[] { PetsEntry.COLUMN_PHOTO },
+                PetsEntry.COLUMN_ID + "=? AND " + LIVE_SELECTION,
+                new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
     @Override
     public String getType(Uri uri) {
 
-        final int match = uriMatcher.match(uri);
+        final int match = match(uri);
+        long start = mMetrics.begin("getType");
+        try {
+            switch(match) {
+                case PETS:
+                    return PetsEntry.CONTENT_LIST_TYPE;
+                case PET_ID:
+                    return PetsEntry.CONTENT_ITEM_TYPE;
+                case SEARCH:
+                    return PetsEntry.CONTENT_LIST_TYPE;
+                case STATS_BY_GENDER:
+                case STATS_BY_BREED:
+                case STATS_WEIGHT:
+                    return PetsEntry.CONTENT_STATS_TYPE;
+                case CHANGES:
+                    return PetsEntry.CONTENT_CHANGES_TYPE;
+                case PET_PHOTO:
+                    String photo;
+                    PetShelters.Shelter shelter = acquireShelter(uri);
+                    try {
+                        photo = queryPhoto(shelter, parsePetId(uri));
+                    } finally {
+                        mShelters.release(shelter);
+                    }
+                    String extension = photo == null ? null : MimeTypeMap.getFileExtensionFromUrl(photo);
+                    String type = extension == null ? null
+                            : MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+                    return type == null ? "image/*" : type;
+                case PET_THUMBNAIL:
+                    return "image/jpeg";
+                default:
+                    throw new IllegalArgumentException("Unknown URI " +
+                            " uri" + "with the match" + match);
+            }
+        } finally {
+            mMetrics.end("getType", matchName(match), start, -1);
+        }
+    }
 
-        switch(match) {
+    /**
+     * Name of a match code for the metrics, in the shape of the URI path it matches.
+     */
+    private static String matchName(int match) {
+        switch (match) {
             case PETS:
-                return PetsEntry.CONTENT_LIST_TYPE;
+                return PetsContract.PATH_PETS;
             case PET_ID:
-                return PetsEntry.CONTENT_ITEM_TYPE;
+                return PetsContract.PATH_PETS + "/#";
+            case SEARCH:
+                return PetsContract.PATH_PETS + "/" + PetsContract.PATH_SEARCH;
+            case STATS_BY_GENDER:
+                return PetsContract.PATH_PETS + "/" + PetsContract.PATH_STATS + "/" + PetsContract.PATH_BY_GENDER;
+            case STATS_BY_BREED:
+                return PetsContract.PATH_PETS + "/" + PetsContract.PATH_STATS + "/" + PetsContract.PATH_BY_BREED;
+            case STATS_WEIGHT:
+                return PetsContract.PATH_PETS + "/" + PetsContract.PATH_STATS + "/" + PetsContract.PATH_WEIGHT;
+            case PET_PHOTO:
+                return PetsContract.PATH_PETS + "/#/" + PetsContract.PATH_PHOTO;
+            case PET_THUMBNAIL:
+                return PetsContract.PATH_PETS + "/#/" + PetsContract.PATH_THUMBNAIL;
+            case CHANGES:
+                return PetsContract.PATH_PETS + "/" + PetsContract.PATH_CHANGES;
             default:
-                throw new IllegalArgumentException("Unknown URI " +
-                        " uri" + "with the match" + match);
+                return "unknown";
+        }
+    }
+
+    /**
+     * Provider methods that are not about rows, see {@link PetsContract#METHOD_DUMP_METRICS},
+     * {@link PetsContract#METHOD_COMPACT} and {@link PetsContract#METHOD_SCAN_DUPLICATES}. The
+     * others run on the shelter whose id is the arg, or the default shelter.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetsContract.METHOD_DUMP_METRICS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putString(PetsContract.KEY_METRICS, mMetrics.dump());
+            if (extras != null && extras.getBoolean(PetsContract.KEY_RESET)) {
+                mMetrics.reset();
+            }
+            return result;
+        }
+        if (PetsContract.METHOD_COMPACT.equals(method)) {
+            PetShelters.Shelter shelter = acquireShelter(arg);
+            try {
+                shelter.getCompactor().schedule();
+                return shelter.getCompactor().getProgress();
+            } finally {
+                mShelters.release(shelter);
+            }
+        }
+        if (PetsContract.METHOD_COMPACTION_PROGRESS.equals(method)) {
+            PetShelters.Shelter shelter = acquireShelter(arg);
+            try {
+                return shelter.getCompactor().getProgress();
+            } finally {
+                mShelters.release(shelter);
+            }
+        }
+        if (PetsContract.METHOD_BULK_FETCH.equals(method)) {
+            long start = mMetrics.begin("call");
+            int count = 0;
+            PetShelters.Shelter shelter = acquireShelter(arg);
+            try {
+                Bundle result = bulkFetch(shelter, extras == null ? Bundle.EMPTY : extras);
+                count = result.getInt(PetsContract.KEY_COUNT);
+                return result;
+            } finally {
+                mShelters.release(shelter);
+                mMetrics.end("call", PetsContract.METHOD_BULK_FETCH, start, count);
+            }
+        }
+        if (PetsContract.METHOD_FIND_DUPLICATES.equals(method)) {
+            long start = mMetrics.begin("call");
+            int count = 0;
+            PetShelters.Shelter shelter = acquireShelter(arg);
+            try {
+                Bundle result = findDuplicates(shelter, extras == null ? Bundle.EMPTY : extras);
+                count = result.getLongArray(PetsContract.KEY_DUPLICATE_IDS).length;
+                return result;
+            } finally {
+                mShelters.release(shelter);
+                mMetrics.end("call", PetsContract.METHOD_FIND_DUPLICATES, start, count);
+            }
         }
+        if (PetsContract.METHOD_SCAN_DUPLICATES.equals(method)) {
+            long start = mMetrics.begin("call");
+            int count = 0;
+            PetShelters.Shelter shelter = acquireShelter(arg);
+            try {
+                long fromId = extras == null ? 0 : extras.getLong(PetsContract.KEY_FROM_ID, 0);
+                Bundle result = PetDuplicates.scan(shelter.getDbHelper().getReadableDatabase(), fromId,
+                        PetDuplicates.MAX_SCAN_PAIRS);
+                count = result.getLongArray(PetsContract.KEY_IDS).length;
+                return result;
+            } finally {
+                mShelters.release(shelter);
+                mMetrics.end("call", PetsContract.METHOD_SCAN_DUPLICATES, start, count);
+            }
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * The live pets that look like the one described by the extras, best first.
+     */
+    private Bundle findDuplicates(PetShelters.Shelter shelter, Bundle extras) {
+        String name = extras.getString(PetsEntry.COLUMN_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Pet name cannot be null");
+        }
+        int gender = extras.getInt(PetsEntry.COLUMN_GENDER, PetsEntry.GENDER_UNKNOWN);
+        if (!PetsEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Invalid gender " + gender);
+        }
+        List<PetDuplicates.Match> matches;
+        PetDuplicates.Finder finder = new PetDuplicates.Finder(
+                shelter.getDbHelper().getReadableDatabase());
+        try {
+            matches = finder.find(name, extras.getString(PetsEntry.COLUMN_BREED), gender,
+                    extras.getInt(PetsEntry.COLUMN_WEIGHT, 0));
+        } finally {
+            finder.close();
+        }
+
+        long[] ids = new long[matches.size()];
+        float[] scores = new float[matches.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = matches.get(i).pet.getId();
+            scores[i] = matches.get(i).score;
+        }
+        Bundle result = new Bundle();
+        result.putLongArray(PetsContract.KEY_DUPLICATE_IDS, ids);
+        result.putFloatArray(PetsContract.KEY_SCORES, scores);
+        return result;
+    }
+
+    /**
+     * Pack the live pets of an id range into one block of {@link PetRecords}, stopping early
+     * when the block is full.
+     */
+    private Bundle bulkFetch(PetShelters.Shelter shelter, Bundle extras) {
+        int mask = PetRecords.columnMask(extras.getStringArray(PetsContract.KEY_COLUMNS));
+        long fromId = extras.getLong(PetsContract.KEY_FROM_ID, 0);
+        long toId = extras.getLong(PetsContract.KEY_TO_ID, Long.MAX_VALUE);
+
+        String selection = LIVE_SELECTION + " AND " + PetsEntry.COLUMN_ID + " >= ? AND "
+                + PetsEntry.COLUMN_ID + " <= ?";
+        String[] selectionArgs = { String.valueOf(fromId), String.valueOf(toId) };
+        Cursor cursor = shelter.getDbHelper().getReadableDatabase().query(PetsEntry.TABLE_NAME, Pet.PROJECTION,
+                selection, selectionArgs, null, null, PetsEntry.SORT_BY_ID);
+
+        PetRecords.Writer writer = new PetRecords.Writer(mask);
+        int count = 0;
+        long nextId = -1;
+        try {
+            while (cursor.moveToNext()) {
+                if (writer.size() >= PetRecords.MAX_BLOCK_BYTES) {
+                    nextId = cursor.getLong(Pet.INDEX_ID);
+                    break;
+                }
+                writer.addRow(cursor);
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Bundle result = new Bundle();
+        result.putByteArray(PetsContract.KEY_RECORDS, writer.toByteArray());
+        result.putInt(PetsContract.KEY_COUNT, count);
+        result.putLong(PetsContract.KEY_NEXT_ID, nextId);
+        return result;
+    }
+
+    /**
+     * Print the metrics for {@code adb shell dumpsys activity provider com.example.android.pets}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        PetStartup.dump(writer);
+        mMetrics.dump(writer);
+        mShelters.dump(writer);
     }
 }
\ No newline at end of file
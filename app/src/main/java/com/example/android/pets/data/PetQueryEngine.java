@@ -0,0 +1,263 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs pet queries on a small pool of background threads and delivers immutable lists of
+ * {@link Pet}s on the main thread, in place of the framework CursorLoader.
+ *
+ * Identical queries that wait for a thread at the same time share one trip to the provider. A
+ * query that already runs may have read the database before the latest change, so a new
+ * subscription starts its own instead of joining it. A query that nobody waits for any more is
+ * cancelled through its {@link CancellationSignal}, which reaches into SQLite. A subscription can be handed from an activity to the one recreated after
+ * a configuration change, so the query keeps running instead of starting over.
+ *
+ * All methods must be called on the main thread.
+ */
+public final class PetQueryEngine {
+
+    /**
+     * Receives the result of a query on the main thread.
+     */
+    public interface Callback {
+        void onPetsLoaded(List<Pet> pets);
+    }
+
+    private static final int THREAD_COUNT = 2;
+
+    private static PetQueryEngine sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+    /**
+     * Queries waiting for or running on the executor, by {@link #keyOf}. Main thread only.
+     */
+    private final Map<String, Request> mInFlight = new HashMap<>();
+
+    private PetQueryEngine(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    public static PetQueryEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetQueryEngine(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Run the query once.
+     */
+    public Subscription query(Uri uri, String selection, String[] selectionArgs, String sortOrder,
+                              Callback callback) {
+        Subscription subscription = new Subscription(uri, selection, selectionArgs, sortOrder, callback);
+        subscription.start();
+        return subscription;
+    }
+
+    private static String keyOf(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        return uri + "|" + selection + "|" + Arrays.toString(selectionArgs) + "|" + sortOrder;
+    }
+
+    /**
+     * Join the query for the subscription that has not started running yet, or start a new one.
+     */
+    private Request submit(Subscription subscription) {
+        Request request = mInFlight.get(subscription.mKey);
+        if (request == null || request.mStarted) {
+            request = new Request(subscription);
+            mInFlight.put(subscription.mKey, request);
+            mExecutor.execute(request);
+        }
+        request.mSubscribers.add(subscription);
+        return request;
+    }
+
+    /**
+     * Stop waiting for the subscription's query, and cancel it if nobody else waits for it.
+     */
+    private void detach(Subscription subscription) {
+        Request request = subscription.mCurrent;
+        if (request == null) {
+            return;
+        }
+        subscription.mCurrent = null;
+        request.mSubscribers.remove(subscription);
+        if (request.mSubscribers.isEmpty()) {
+            request.mSignal.cancel();
+            if (mInFlight.get(request.mKey) == request) {
+                mInFlight.remove(request.mKey);
+            }
+        }
+    }
+
+    /**
+     * Handle to a query, cancel it when the result is no longer wanted.
+     */
+    public final class Subscription {
+
+        private final Uri mUri;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final String mKey;
+        private Callback mCallback;
+
+        private Request mCurrent;
+        private boolean mCancelled;
+
+        /**
+         * Result that arrived while no callback was set, delivered when one is.
+         */
+        private List<Pet> mHeld;
+
+        private Subscription(Uri uri, String selection, String[] selectionArgs, String sortOrder,
+                             Callback callback) {
+            mUri = uri;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+            mKey = keyOf(uri, selection, selectionArgs, sortOrder);
+            mCallback = callback;
+        }
+
+        private void start() {
+            if (!mCancelled) {
+                mCurrent = submit(this);
+            }
+        }
+
+        private void deliver(List<Pet> pets) {
+            mCurrent = null;
+            if (mCancelled) {
+                return;
+            }
+            if (mCallback == null) {
+                mHeld = pets;
+            } else {
+                mCallback.onPetsLoaded(pets);
+            }
+        }
+
+        /**
+         * Whether the result has not been delivered to a callback yet.
+         */
+        public boolean isPending() {
+            return !mCancelled && (mCurrent != null || mHeld != null);
+        }
+
+        /**
+         * Send the result to another callback, or hold it until one is set if null. An activity
+         * clears the callback when it is destroyed for a configuration change, and the activity
+         * that replaces it sets itself.
+         */
+        public void setCallback(Callback callback) {
+            mCallback = callback;
+            if (callback != null && mHeld != null && !mCancelled) {
+                List<Pet> held = mHeld;
+                mHeld = null;
+                callback.onPetsLoaded(held);
+            }
+        }
+
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            mHeld = null;
+            detach(this);
+        }
+    }
+
+    private final class Request implements Runnable {
+
+        private final String mKey;
+        private final Uri mUri;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final CancellationSignal mSignal = new CancellationSignal();
+        private final List<Subscription> mSubscribers = new ArrayList<>();
+
+        /**
+         * Set on the executor before the query is sent, read on the main thread.
+         */
+        private volatile boolean mStarted;
+
+        Request(Subscription subscription) {
+            mKey = subscription.mKey;
+            mUri = subscription.mUri;
+            mSelection = subscription.mSelection;
+            mSelectionArgs = subscription.mSelectionArgs;
+            mSortOrder = subscription.mSortOrder;
+        }
+
+        /**
+         * Runs on the executor.
+         */
+        @Override
+        public void run() {
+            mStarted = true;
+            List<Pet> pets = null;
+            try {
+                if (!mSignal.isCanceled()) {
+                    pets = readPets(mContentResolver.query(mUri, Pet.PROJECTION, mSelection,
+                            mSelectionArgs, mSortOrder, mSignal));
+                }
+            } catch (OperationCanceledException e) {
+                // Nobody is waiting for this result any more
+            }
+
+            final List<Pet> result = pets;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mInFlight.get(mKey) == Request.this) {
+                        mInFlight.remove(mKey);
+                    }
+                    if (result == null || mSignal.isCanceled()) {
+                        return;
+                    }
+                    for (Subscription subscription : new ArrayList<>(mSubscribers)) {
+                        subscription.deliver(result);
+                    }
+                    mSubscribers.clear();
+                }
+            });
+        }
+
+        private List<Pet> readPets(Cursor cursor) {
+            if (cursor == null) {
+                return Collections.emptyList();
+            }
+            try {
+                List<Pet> pets = new ArrayList<>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    pets.add(Pet.fromCursor(cursor));
+                }
+                return Collections.unmodifiableList(pets);
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+}
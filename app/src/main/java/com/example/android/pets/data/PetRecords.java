@@ -0,0 +1,323 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Packed binary form of pet rows, returned by {@link PetsContract#METHOD_BULK_FETCH}.
+ *
+ * A block starts with a header: {@link #MAGIC}, {@link #VERSION}, a mask of the columns it holds
+ * and the number of records. Each record follows as the difference of its id from the previous
+ * one, then the columns of the mask in {@link Pet#PROJECTION} order. Numbers are unsigned
+ * variable length integers, seven bits per byte, so the ids of a range take one byte each.
+ * Gender and weight are zig-zag encoded first, so small values of either sign take one byte as
+ * well. Strings are their UTF-8 length plus one followed by the bytes, a length of zero
+ * is null. A whole block crosses the process boundary in one transaction, where a cursor would
+ * refill its window every few hundred rows.
+ */
+public final class PetRecords {
+
+    static final int MAGIC = 0x50455453;
+    static final int VERSION = 2;
+
+    /**
+     * Bits of the column mask.
+     */
+    static final int COLUMN_NAME = 1;
+    static final int COLUMN_BREED = 1 << 1;
+    static final int COLUMN_GENDER = 1 << 2;
+    static final int COLUMN_WEIGHT = 1 << 3;
+    static final int COLUMN_PHOTO = 1 << 4;
+    static final int ALL_COLUMNS = COLUMN_NAME | COLUMN_BREED | COLUMN_GENDER | COLUMN_WEIGHT | COLUMN_PHOTO;
+
+    /**
+     * Largest block the provider returns, well under the binder transaction limit. The rest of
+     * the range is left for the next call.
+     */
+    static final int MAX_BLOCK_BYTES = 512 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PetRecords() {
+    }
+
+    /**
+     * Fetch every live pet with an id in the given range, one call per block.
+     *
+     * @param columns the columns to read besides the id, or null for all of them. Columns left
+     *                out read back as null or 0.
+     * @param fromId  the first id to read, inclusive
+     * @param toId    the last id to read, inclusive
+     */
+    public static PetSnapshot fetch(ContentResolver contentResolver, String[] columns, long fromId,
+                                    long toId) {
+        PetSnapshot.Builder builder = new PetSnapshot.Builder(0);
+        long nextId = fromId;
+        while (nextId != -1) {
+            Bundle extras = new Bundle();
+            extras.putStringArray(PetsContract.KEY_COLUMNS, columns);
+            extras.putLong(PetsContract.KEY_FROM_ID, nextId);
+            extras.putLong(PetsContract.KEY_TO_ID, toId);
+            Bundle result = contentResolver.call(PetsEntry.CONTENT_URI,
+                    PetsContract.METHOD_BULK_FETCH, null, extras);
+            if (result == null) {
+                throw new IllegalStateException("Bulk fetch returned nothing");
+            }
+            decode(result.getByteArray(PetsContract.KEY_RECORDS), builder);
+            nextId = result.getLong(PetsContract.KEY_NEXT_ID, -1);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Decode one block into a snapshot.
+     */
+    public static PetSnapshot decode(byte[] block) {
+        PetSnapshot.Builder builder = new PetSnapshot.Builder(0);
+        decode(block, builder);
+        return builder.build();
+    }
+
+    /**
+     * Decode one block, adding its records to the builder.
+     *
+     * @throws IllegalArgumentException if the block is not one this version can read
+     */
+    public static void decode(byte[] block, PetSnapshot.Builder builder) {
+        Reader reader = new Reader(block);
+        if (reader.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a block of pet records");
+        }
+        int version = reader.readVarInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported pet records version " + version);
+        }
+        int mask = reader.readVarInt();
+        int count = reader.readVarInt();
+        builder.ensureCapacity(count);
+
+        long id = 0;
+        for (int i = 0; i < count; i++) {
+            id += reader.readVarLong();
+            String name = (mask & COLUMN_NAME) != 0 ? reader.readString() : null;
+            String breed = (mask & COLUMN_BREED) != 0 ? reader.readString() : null;
+            int gender = (mask & COLUMN_GENDER) != 0 ? reader.readSignedVarInt() : PetsEntry.GENDER_UNKNOWN;
+            int weight = (mask & COLUMN_WEIGHT) != 0 ? reader.readSignedVarInt() : 0;
+            String photo = (mask & COLUMN_PHOTO) != 0 ? reader.readString() : null;
+            builder.add(id, name, breed, gender, weight, photo);
+        }
+    }
+
+    /**
+     * The column mask for the given column names, all of them for null.
+     */
+    static int columnMask(String[] columns) {
+        if (columns == null) {
+            return ALL_COLUMNS;
+        }
+        int mask = 0;
+        for (String column : columns) {
+            switch (column) {
+                case PetsEntry.COLUMN_ID:
+                    break;
+                case PetsEntry.COLUMN_NAME:
+                    mask |= COLUMN_NAME;
+                    break;
+                case PetsEntry.COLUMN_BREED:
+                    mask |= COLUMN_BREED;
+                    break;
+                case PetsEntry.COLUMN_GENDER:
+                    mask |= COLUMN_GENDER;
+                    break;
+                case PetsEntry.COLUMN_WEIGHT:
+                    mask |= COLUMN_WEIGHT;
+                    break;
+                case PetsEntry.COLUMN_PHOTO:
+                    mask |= COLUMN_PHOTO;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Pets have no column " + column);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Packs rows of a cursor queried with {@link Pet#PROJECTION}, in ascending id order.
+     */
+    static final class Writer {
+
+        private final int mMask;
+        private byte[] mBuffer;
+        private int mLength;
+        private int mCount;
+        private long mLastId;
+
+        Writer(int mask) {
+            this(mask, 4096);
+        }
+
+        private Writer(int mask, int capacity) {
+            mMask = mask;
+            mBuffer = new byte[capacity];
+        }
+
+        int size() {
+            return mLength;
+        }
+
+        void addRow(Cursor cursor) {
+            long id = cursor.getLong(Pet.INDEX_ID);
+            writeVarLong(id - mLastId);
+            mLastId = id;
+            if ((mMask & COLUMN_NAME) != 0) {
+                writeString(cursor.getString(Pet.INDEX_NAME));
+            }
+            if ((mMask & COLUMN_BREED) != 0) {
+                writeString(cursor.getString(Pet.INDEX_BREED));
+            }
+            if ((mMask & COLUMN_GENDER) != 0) {
+                writeSignedVarInt(cursor.getInt(Pet.INDEX_GENDER));
+            }
+            if ((mMask & COLUMN_WEIGHT) != 0) {
+                writeSignedVarInt(cursor.getInt(Pet.INDEX_WEIGHT));
+            }
+            if ((mMask & COLUMN_PHOTO) != 0) {
+                writeString(cursor.getString(Pet.INDEX_PHOTO));
+            }
+            mCount++;
+        }
+
+        /**
+         * The block with its header in front of the records.
+         */
+        byte[] toByteArray() {
+            Writer header = new Writer(mMask, 16);
+            header.writeInt(MAGIC);
+            header.writeVarLong(VERSION);
+            header.writeVarLong(mMask);
+            header.writeVarLong(mCount);
+            byte[] block = new byte[header.mLength + mLength];
+            System.arraycopy(header.mBuffer, 0, block, 0, header.mLength);
+            System.arraycopy(mBuffer, 0, block, header.mLength, mLength);
+            return block;
+        }
+
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+            mLength += bytes.length;
+        }
+
+        private void writeInt(int value) {
+            ensureCapacity(4);
+            mBuffer[mLength++] = (byte) (value >>> 24);
+            mBuffer[mLength++] = (byte) (value >>> 16);
+            mBuffer[mLength++] = (byte) (value >>> 8);
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                mBuffer[mLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        /**
+         * Zig-zag encode the value, mapping 0, -1, 1, -2... to 0, 1, 2, 3..., so a negative
+         * number does not take all ten bytes of a sign-extended long.
+         */
+        private void writeSignedVarInt(int value) {
+            writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mLength + extra > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] mBlock;
+        private int mPosition;
+
+        Reader(byte[] block) {
+            if (block == null) {
+                throw new IllegalArgumentException("Not a block of pet records");
+            }
+            mBlock = block;
+        }
+
+        int readInt() {
+            return (readByte() & 0xFF) << 24 | (readByte() & 0xFF) << 16
+                    | (readByte() & 0xFF) << 8 | (readByte() & 0xFF);
+        }
+
+        int readVarInt() {
+            long value = readVarLong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Corrupt pet records at " + mPosition);
+            }
+            return (int) value;
+        }
+
+        int readSignedVarInt() {
+            long value = readVarLong();
+            if (value > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("Corrupt pet records at " + mPosition);
+            }
+            int encoded = (int) value;
+            return (encoded >>> 1) ^ -(encoded & 1);
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Corrupt pet records at " + mPosition);
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            length--;
+            if (length > mBlock.length - mPosition) {
+                throw new IllegalArgumentException("Corrupt pet records at " + mPosition);
+            }
+            String value = new String(mBlock, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        private byte readByte() {
+            if (mPosition >= mBlock.length) {
+                throw new IllegalArgumentException("Truncated pet records");
+            }
+            return mBlock[mPosition++];
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The schema of the pets database and the SQL of its fixed statements.
+ *
+ * Only plain Java, so the benchmark module compiles this file as it is and runs the same SQL as
+ * the app. {@link PetsContract.PetsEntry} hands out the table and column names from here; see it
+ * for what they hold.
+ */
+public final class PetSchema {
+
+    public static final String TABLE_NAME = "Pets";
+
+    /**
+     * Same as BaseColumns._ID of the framework.
+     */
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_BREED = "breed";
+    public static final String COLUMN_GENDER = "gender";
+    public static final String COLUMN_WEIGHT = "weight";
+    public static final String COLUMN_PHOTO = "photo";
+    public static final String COLUMN_DELETED = "deleted";
+
+    public static final String INDEX_NAME = "Pets_name_idx";
+    public static final String INDEX_BREED = "Pets_breed_idx";
+    public static final String INDEX_GENDER = "Pets_gender_idx";
+    public static final String INDEX_WEIGHT = "Pets_weight_idx";
+
+    public static final String FTS_TABLE_NAME = "Pets_fts";
+    public static final String META_TABLE_NAME = "Pets_meta";
+
+    public static final String CHANGES_TABLE_NAME = "Pets_changes";
+    public static final String COLUMN_SEQUENCE = "seq";
+    public static final String COLUMN_PET_ID = "pet_id";
+    public static final String COLUMN_OPERATION = "op";
+
+    public static final int OP_INSERT = 1;
+    public static final int OP_UPDATE = 2;
+    public static final int OP_DELETE = 3;
+    public static final int OP_DELETE_THROUGH = 4;
+
+    public static final String TRIGRAMS_TABLE_NAME = "Pets_trigrams";
+    public static final String COLUMN_TRIGRAM = "gram";
+    public static final String INDEX_TRIGRAMS_PET = "Pets_trigrams_pet_idx";
+    public static final String NUMBERS_TABLE_NAME = "Pets_numbers";
+    public static final String TRIGRAM_COUNTS_TABLE_NAME = "Pets_trigram_counts";
+    public static final String COLUMN_PET_COUNT = "pet_count";
+
+    /**
+     * Trigrams kept of a name, longer names only get the trigrams of their start. Also the
+     * highest number in the numbers table.
+     */
+    public static final int MAX_NAME_TRIGRAMS = 64;
+
+    public static final String SQL_CREATE_ENTERIES = "CREATE TABLE " + TABLE_NAME + "("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + COLUMN_NAME + " TEXT NOT NULL, "
+            + COLUMN_BREED + " TEXT, "
+            + COLUMN_GENDER + " INTEGER NOT NULL, "
+            + COLUMN_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_PHOTO + " TEXT);";
+
+    /**
+     * Key of the row in the meta table holding the highest id deleted by a delete of all pets.
+     */
+    public static final String META_DELETED_THROUGH_ID = "deleted_through_id";
+
+    public static final String SQL_CREATE_META = "CREATE TABLE IF NOT EXISTS " + META_TABLE_NAME + "("
+            + "key TEXT PRIMARY KEY, "
+            + "value INTEGER NOT NULL);";
+
+    public static final String SQL_INSERT_META = "INSERT OR IGNORE INTO " + META_TABLE_NAME
+            + "(key, value) VALUES ('" + META_DELETED_THROUGH_ID + "', 0);";
+
+    /**
+     * The deleted watermark, as a subquery that SQLite evaluates once per statement.
+     */
+    public static final String SQL_DELETED_THROUGH_ID = "(SELECT value FROM " + META_TABLE_NAME
+            + " WHERE key = '" + META_DELETED_THROUGH_ID + "')";
+
+    /**
+     * The change log. AUTOINCREMENT keeps sequence numbers growing even after the oldest rows are
+     * trimmed, so a sequence number is never handed out twice.
+     */
+    public static final String SQL_CREATE_CHANGES = "CREATE TABLE IF NOT EXISTS " + CHANGES_TABLE_NAME + "("
+            + COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + COLUMN_PET_ID + " INTEGER NOT NULL, "
+            + COLUMN_OPERATION + " INTEGER NOT NULL);";
+
+    private static final String SQL_LOG_CHANGE = " BEGIN INSERT INTO " + CHANGES_TABLE_NAME
+            + "(" + COLUMN_PET_ID + ", " + COLUMN_OPERATION + ") VALUES (";
+
+    /**
+     * Triggers that write the change log, so every writer is covered, including ones that go
+     * around the provider. Deleting a pet only flags it, so that update is logged as the delete,
+     * and the purge that removes flagged rows later logs nothing. Deleting all pets moves the
+     * watermark in the meta table instead, logged as one delete through the watermark.
+     */
+    public static final String[] SQL_CREATE_CHANGE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + CHANGES_TABLE_NAME + "_ai AFTER INSERT ON " + TABLE_NAME
+                    + SQL_LOG_CHANGE + "new." + COLUMN_ID + ", " + OP_INSERT + "); END;",
+            "CREATE TRIGGER IF NOT EXISTS " + CHANGES_TABLE_NAME + "_au AFTER UPDATE ON " + TABLE_NAME
+                    + " WHEN new." + COLUMN_DELETED + " = 0 AND old." + COLUMN_DELETED + " = 0"
+                    + SQL_LOG_CHANGE + "new." + COLUMN_ID + ", " + OP_UPDATE + "); END;",
+            "CREATE TRIGGER IF NOT EXISTS " + CHANGES_TABLE_NAME + "_au_deleted AFTER UPDATE OF "
+                    + COLUMN_DELETED + " ON " + TABLE_NAME
+                    + " WHEN new." + COLUMN_DELETED + " = 1 AND old." + COLUMN_DELETED + " = 0"
+                    + SQL_LOG_CHANGE + "new." + COLUMN_ID + ", " + OP_DELETE + "); END;",
+            "CREATE TRIGGER IF NOT EXISTS " + CHANGES_TABLE_NAME + "_ad AFTER DELETE ON " + TABLE_NAME
+                    + " WHEN old." + COLUMN_DELETED + " = 0 AND old." + COLUMN_ID + " > " + SQL_DELETED_THROUGH_ID
+                    + SQL_LOG_CHANGE + "old." + COLUMN_ID + ", " + OP_DELETE + "); END;",
+            "CREATE TRIGGER IF NOT EXISTS " + CHANGES_TABLE_NAME + "_au_meta AFTER UPDATE ON " + META_TABLE_NAME
+                    + " WHEN new.key = '" + META_DELETED_THROUGH_ID + "' AND new.value > old.value"
+                    + SQL_LOG_CHANGE + "new.value, " + OP_DELETE_THROUGH + "); END;"
+    };
+
+    /**
+     * Change log rows kept. A reader further behind than that reads the whole table again.
+     */
+    public static final int CHANGE_LOG_SIZE = 10000;
+
+    /**
+     * The log is trimmed by every change whose sequence number is a multiple of this, so it never
+     * holds more than {@link #CHANGE_LOG_SIZE} plus this many rows and the writes in between pay
+     * nothing for it.
+     */
+    public static final int CHANGE_LOG_TRIM_INTERVAL = 256;
+
+    /**
+     * Trims the change log from the writes that fill it, including writes that go around the
+     * provider. The delete is a range of the primary key.
+     */
+    public static final String SQL_CREATE_CHANGES_TRIM_TRIGGER = "CREATE TRIGGER IF NOT EXISTS "
+            + CHANGES_TABLE_NAME + "_trim AFTER INSERT ON " + CHANGES_TABLE_NAME
+            + " WHEN new." + COLUMN_SEQUENCE + " % " + CHANGE_LOG_TRIM_INTERVAL + " = 0"
+            + " BEGIN DELETE FROM " + CHANGES_TABLE_NAME
+            + " WHERE " + COLUMN_SEQUENCE + " <= new." + COLUMN_SEQUENCE + " - " + CHANGE_LOG_SIZE + "; END;";
+
+    /**
+     * Drop the oldest change log rows past {@link #CHANGE_LOG_SIZE} at once.
+     */
+    public static final String SQL_TRIM_CHANGES = "DELETE FROM " + CHANGES_TABLE_NAME
+            + " WHERE " + COLUMN_SEQUENCE + " <= (SELECT MAX(" + COLUMN_SEQUENCE
+            + ") FROM " + CHANGES_TABLE_NAME + ") - " + CHANGE_LOG_SIZE;
+
+    /**
+     * The trigram index. The primary key leads with the trigram, so the pets under one trigram
+     * are a range, and the second index finds the trigrams of one pet to replace them.
+     */
+    public static final String SQL_CREATE_TRIGRAMS = "CREATE TABLE IF NOT EXISTS " + TRIGRAMS_TABLE_NAME + "("
+            + COLUMN_TRIGRAM + " TEXT NOT NULL, "
+            + COLUMN_PET_ID + " INTEGER NOT NULL, "
+            + "PRIMARY KEY (" + COLUMN_TRIGRAM + ", " + COLUMN_PET_ID + "));";
+
+    public static final String SQL_CREATE_TRIGRAMS_PET_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + INDEX_TRIGRAMS_PET + " ON " + TRIGRAMS_TABLE_NAME + "("
+            + COLUMN_PET_ID + ");";
+
+    public static final String SQL_CREATE_NUMBERS = "CREATE TABLE IF NOT EXISTS " + NUMBERS_TABLE_NAME + "("
+            + "n INTEGER PRIMARY KEY);";
+
+    /**
+     * Fill the numbers table with the integers from 1 to {@link #MAX_NAME_TRIGRAMS}.
+     */
+    public static final String SQL_INSERT_NUMBERS = buildInsertNumbers();
+
+    private static String buildInsertNumbers() {
+        StringBuilder sql = new StringBuilder("INSERT OR IGNORE INTO ").append(NUMBERS_TABLE_NAME)
+                .append("(n) VALUES ");
+        for (int n = 1; n <= MAX_NAME_TRIGRAMS; n++) {
+            sql.append(n == 1 ? "(" : ", (").append(n).append(')');
+        }
+        return sql.append(';').toString();
+    }
+
+    /**
+     * The trigrams of a name, as PetTrigrams.trigrams(String) makes them: lower cased,
+     * padded with a space on each side, one trigram starting at every character of the name.
+     * Like the rest of SQLite, lower() only folds ASCII letters.
+     *
+     * @param row    the row holding the name, new in a trigger or the pets table
+     * @param tables the tables to select from, the numbers table and the pets table if needed
+     */
+    private static String selectTrigrams(String row, String tables) {
+        return " SELECT substr(' ' || lower(trim(" + row + "." + COLUMN_NAME + ")) || ' ', n, 3), "
+                + row + "." + COLUMN_ID + " FROM " + tables
+                + " WHERE n <= length(trim(" + row + "." + COLUMN_NAME + "))";
+    }
+
+    private static final String SQL_INSERT_TRIGRAMS = "INSERT OR IGNORE INTO " + TRIGRAMS_TABLE_NAME
+            + "(" + COLUMN_TRIGRAM + ", " + COLUMN_PET_ID + ")";
+
+    private static final String SQL_DELETE_TRIGRAMS = "DELETE FROM " + TRIGRAMS_TABLE_NAME
+            + " WHERE " + COLUMN_PET_ID + " = old." + COLUMN_ID + ";";
+
+    /**
+     * Triggers that keep the trigram index in step with the names. Deleted pets keep their
+     * trigrams until the purge removes the row, queries of the index leave them out.
+     */
+    public static final String[] SQL_CREATE_TRIGRAM_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGRAMS_TABLE_NAME + "_ai AFTER INSERT ON " + TABLE_NAME
+                    + " BEGIN " + SQL_INSERT_TRIGRAMS + selectTrigrams("new", NUMBERS_TABLE_NAME) + "; END;",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGRAMS_TABLE_NAME + "_au AFTER UPDATE OF "
+                    + COLUMN_NAME + " ON " + TABLE_NAME
+                    + " WHEN new." + COLUMN_NAME + " IS NOT old." + COLUMN_NAME
+                    + " BEGIN " + SQL_DELETE_TRIGRAMS + " " + SQL_INSERT_TRIGRAMS + selectTrigrams("new", NUMBERS_TABLE_NAME) + "; END;",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGRAMS_TABLE_NAME + "_ad AFTER DELETE ON " + TABLE_NAME
+                    + " BEGIN " + SQL_DELETE_TRIGRAMS + " END;"
+    };
+
+    /**
+     * Fill the trigram index from the pets already in the table.
+     */
+    public static final String SQL_REBUILD_TRIGRAMS = SQL_INSERT_TRIGRAMS
+            + selectTrigrams(TABLE_NAME, TABLE_NAME + ", " + NUMBERS_TABLE_NAME) + ";";
+
+    /**
+     * How many pets are under each trigram, so duplicate detection can tell the rare trigrams
+     * of a name without counting the index. Deleted pets count until the purge removes their
+     * trigrams, like they stay in the index.
+     */
+    public static final String SQL_CREATE_TRIGRAM_COUNTS = "CREATE TABLE IF NOT EXISTS "
+            + TRIGRAM_COUNTS_TABLE_NAME + "("
+            + COLUMN_TRIGRAM + " TEXT PRIMARY KEY, "
+            + COLUMN_PET_COUNT + " INTEGER NOT NULL);";
+
+    private static final String SQL_UPDATE_TRIGRAM_COUNT = "UPDATE " + TRIGRAM_COUNTS_TABLE_NAME
+            + " SET " + COLUMN_PET_COUNT + " = " + COLUMN_PET_COUNT;
+
+    /**
+     * Triggers that keep the counts in step with the trigram index. A trigram the index already
+     * had for a pet is ignored by its insert and fires nothing.
+     */
+    public static final String[] SQL_CREATE_TRIGRAM_COUNT_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGRAM_COUNTS_TABLE_NAME + "_ai AFTER INSERT ON "
+                    + TRIGRAMS_TABLE_NAME + " BEGIN"
+                    + " INSERT OR IGNORE INTO " + TRIGRAM_COUNTS_TABLE_NAME
+                    + "(" + COLUMN_TRIGRAM + ", " + COLUMN_PET_COUNT + ") VALUES (new." + COLUMN_TRIGRAM + ", 0);"
+                    + " " + SQL_UPDATE_TRIGRAM_COUNT + " + 1 WHERE " + COLUMN_TRIGRAM + " = new." + COLUMN_TRIGRAM + ";"
+                    + " END;",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGRAM_COUNTS_TABLE_NAME + "_ad AFTER DELETE ON "
+                    + TRIGRAMS_TABLE_NAME + " BEGIN"
+                    + " " + SQL_UPDATE_TRIGRAM_COUNT + " - 1 WHERE " + COLUMN_TRIGRAM + " = old." + COLUMN_TRIGRAM + ";"
+                    + " DELETE FROM " + TRIGRAM_COUNTS_TABLE_NAME + " WHERE " + COLUMN_TRIGRAM + " = old." + COLUMN_TRIGRAM
+                    + " AND " + COLUMN_PET_COUNT + " <= 0;"
+                    + " END;"
+    };
+
+    /**
+     * Fill the counts from the trigram index.
+     */
+    public static final String SQL_REBUILD_TRIGRAM_COUNTS = "INSERT OR REPLACE INTO "
+            + TRIGRAM_COUNTS_TABLE_NAME + "(" + COLUMN_TRIGRAM + ", " + COLUMN_PET_COUNT + ")"
+            + " SELECT " + COLUMN_TRIGRAM + ", COUNT(*) FROM " + TRIGRAMS_TABLE_NAME
+            + " GROUP BY " + COLUMN_TRIGRAM + ";";
+
+    /**
+     * Every trigram with its count, for a scan of all pets.
+     */
+    public static final String SQL_QUERY_TRIGRAM_COUNTS = "SELECT " + COLUMN_TRIGRAM + ", "
+            + COLUMN_PET_COUNT + " FROM " + TRIGRAM_COUNTS_TABLE_NAME;
+
+    /**
+     * The count of one trigram, 0 for one no pet has.
+     */
+    public static final String SQL_QUERY_TRIGRAM_COUNT = "SELECT IFNULL((SELECT "
+            + COLUMN_PET_COUNT + " FROM " + TRIGRAM_COUNTS_TABLE_NAME
+            + " WHERE " + COLUMN_TRIGRAM + " = ?), 0)";
+
+    /**
+     * Index backing name ordered pages, so every page is a range scan on (name, _id).
+     */
+    public static final String SQL_CREATE_NAME_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + INDEX_NAME + " ON " + TABLE_NAME + "("
+            + COLUMN_NAME + ", " + COLUMN_ID + ");";
+
+    /**
+     * Indexes behind the filter parameters and the GROUP BY aggregates of the stats URIs. They
+     * lead with the deleted flag, so the aggregates over live pets still only read the index,
+     * and the purge finds deleted pets without a table scan.
+     */
+    public static final String[] SQL_CREATE_FILTER_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS " + INDEX_BREED + " ON " + TABLE_NAME
+                    + "(" + COLUMN_DELETED + ", " + COLUMN_BREED + ");",
+            "CREATE INDEX IF NOT EXISTS " + INDEX_GENDER + " ON " + TABLE_NAME
+                    + "(" + COLUMN_DELETED + ", " + COLUMN_GENDER + ", "
+                    + COLUMN_WEIGHT + ");",
+            "CREATE INDEX IF NOT EXISTS " + INDEX_WEIGHT + " ON " + TABLE_NAME
+                    + "(" + COLUMN_DELETED + ", " + COLUMN_WEIGHT + ");"
+    };
+
+    /**
+     * External content FTS4 table over name and breed. Prefix indexes keep type-ahead queries
+     * off a full term scan.
+     */
+    public static final String SQL_CREATE_FTS = "CREATE VIRTUAL TABLE IF NOT EXISTS "
+            + FTS_TABLE_NAME + " USING fts4("
+            + "content=\"" + TABLE_NAME + "\", "
+            + "prefix=\"1,2,3\", "
+            + COLUMN_NAME + ", "
+            + COLUMN_BREED + ");";
+
+    /**
+     * Triggers that keep the FTS table in step with the pets table. Old rows are removed before
+     * the change, while the content row still holds the old values, and new rows are added after.
+     */
+    public static final String[] SQL_CREATE_FTS_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE_NAME + "_bu BEFORE UPDATE OF "
+                    + COLUMN_NAME + ", " + COLUMN_BREED + " ON " + TABLE_NAME
+                    + " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + COLUMN_ID + "; END;",
+            "CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE_NAME + "_bd BEFORE DELETE ON " + TABLE_NAME
+                    + " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + COLUMN_ID + "; END;",
+            "CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE_NAME + "_au AFTER UPDATE OF "
+                    + COLUMN_NAME + ", " + COLUMN_BREED + " ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + FTS_TABLE_NAME + "(docid, " + COLUMN_NAME + ", " + COLUMN_BREED
+                    + ") VALUES (new." + COLUMN_ID + ", new." + COLUMN_NAME + ", new." + COLUMN_BREED + "); END;",
+            "CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE_NAME + "_ai AFTER INSERT ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + FTS_TABLE_NAME + "(docid, " + COLUMN_NAME + ", " + COLUMN_BREED
+                    + ") VALUES (new." + COLUMN_ID + ", new." + COLUMN_NAME + ", new." + COLUMN_BREED + "); END;"
+    };
+
+    /**
+     * Fill the FTS table from the rows already in the pets table.
+     */
+    public static final String SQL_REBUILD_FTS = "INSERT INTO " + FTS_TABLE_NAME
+            + "(" + FTS_TABLE_NAME + ") VALUES ('rebuild');";
+
+    public static final String SQL_INSERT_PET = "INSERT INTO " + TABLE_NAME + " ("
+            + COLUMN_NAME + ", "
+            + COLUMN_BREED + ", "
+            + COLUMN_GENDER + ", "
+            + COLUMN_WEIGHT + ", "
+            + COLUMN_PHOTO + ") VALUES (?, ?, ?, ?, ?)";
+
+    /**
+     * The columns a pet update can set, in the order of {@link #SQL_INSERT_PET}.
+     */
+    public static final String[] PET_COLUMNS = {
+            COLUMN_NAME, COLUMN_BREED, COLUMN_GENDER, COLUMN_WEIGHT, COLUMN_PHOTO };
+
+    /**
+     * Update of every column of a pet, see {@link #buildUpdatePetById(String[])}.
+     */
+    public static final String SQL_UPDATE_PET_BY_ID = buildUpdatePetById(PET_COLUMNS);
+
+    /**
+     * Deleting only flags the pet, PetCompactor removes the row later.
+     */
+    public static final String SQL_DELETE_PET_BY_ID = "UPDATE " + TABLE_NAME + " SET "
+            + COLUMN_DELETED + " = 1 WHERE " + COLUMN_ID + " = ? AND "
+            + buildLiveSelection(null);
+
+    /**
+     * Deleting all pets moves the deleted watermark up to the highest id, which costs the same
+     * however many pets there are. PetCompactor removes the rows later.
+     */
+    public static final String SQL_DELETE_ALL_PETS = "UPDATE " + META_TABLE_NAME
+            + " SET value = (SELECT MAX(" + COLUMN_ID + ") FROM " + TABLE_NAME + ")"
+            + " WHERE key = '" + META_DELETED_THROUGH_ID + "'";
+
+    /**
+     * Rows removed per transaction by the purge statements.
+     */
+    public static final int PURGE_BATCH_SIZE = 500;
+
+    /**
+     * Removes a batch of pets under the watermark, which are a range of the primary key.
+     */
+    public static final String SQL_PURGE_BELOW_WATERMARK = "DELETE FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_ID + " <= " + SQL_DELETED_THROUGH_ID
+            + " LIMIT " + PURGE_BATCH_SIZE + ")";
+
+    /**
+     * Removes a batch of flagged pets, found through the filter indexes, which lead with the
+     * flag.
+     */
+    public static final String SQL_PURGE_FLAGGED = "DELETE FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_DELETED + " = 1"
+            + " LIMIT " + PURGE_BATCH_SIZE + ")";
+
+    private PetSchema() {
+    }
+
+    /**
+     * Every statement that creates the schema of a new database, in order.
+     */
+    public static List<String> buildCreateStatements() {
+        List<String> statements = new ArrayList<>();
+        statements.add(SQL_CREATE_ENTERIES);
+        statements.add(SQL_CREATE_NAME_INDEX);
+        Collections.addAll(statements, SQL_CREATE_FILTER_INDEXES);
+        statements.add(SQL_CREATE_FTS);
+        Collections.addAll(statements, SQL_CREATE_FTS_TRIGGERS);
+        statements.add(SQL_CREATE_META);
+        statements.add(SQL_INSERT_META);
+        statements.add(SQL_CREATE_CHANGES);
+        Collections.addAll(statements, SQL_CREATE_CHANGE_TRIGGERS);
+        statements.add(SQL_CREATE_CHANGES_TRIM_TRIGGER);
+        statements.add(SQL_CREATE_NUMBERS);
+        statements.add(SQL_INSERT_NUMBERS);
+        statements.add(SQL_CREATE_TRIGRAMS);
+        statements.add(SQL_CREATE_TRIGRAMS_PET_INDEX);
+        Collections.addAll(statements, SQL_CREATE_TRIGRAM_TRIGGERS);
+        statements.add(SQL_CREATE_TRIGRAM_COUNTS);
+        Collections.addAll(statements, SQL_CREATE_TRIGRAM_COUNT_TRIGGERS);
+        return statements;
+    }
+
+    /**
+     * Update of the given columns of one pet, bound to ?1 to ?n in the given order and the id to
+     * ?n+1. Leaves a row that already holds the values alone, so saving an unchanged pet writes
+     * nothing, fires no trigger and reports no row. The values are bound once and numbered, so
+     * the comparison reuses them.
+     */
+    public static String buildUpdatePetById(String[] columns) {
+        StringBuilder set = new StringBuilder();
+        StringBuilder changed = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                set.append(", ");
+                changed.append(" OR ");
+            }
+            set.append(columns[i]).append(" = ?").append(i + 1);
+            changed.append(columns[i]).append(" IS NOT ?").append(i + 1);
+        }
+        return "UPDATE " + TABLE_NAME + " SET " + set
+                + " WHERE " + COLUMN_ID + " = ?" + (columns.length + 1) + " AND "
+                + buildLiveSelection(null) + " AND (" + changed + ")";
+    }
+
+    /**
+     * The live pets found in the trigram index under at least the given number of the looked
+     * up trigrams, binding the trigrams to the first probes arguments and, when after is set,
+     * the id the pets have to be above to the last one. Only the number of trigrams and the flag
+     * make the SQL differ, so statement caches keep the few variants compiled.
+     *
+     * @param columns the columns to read of each pet
+     */
+    public static String buildDuplicateCandidatesQuery(String[] columns, int probes, int shared,
+                                                       boolean after) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        sql.append(" FROM ").append(TABLE_NAME)
+                .append(" WHERE ").append(buildLiveSelection(null))
+                .append(" AND ").append(COLUMN_ID).append(" IN (SELECT ")
+                .append(COLUMN_PET_ID).append(" FROM ").append(TRIGRAMS_TABLE_NAME)
+                .append(" WHERE ").append(COLUMN_TRIGRAM).append(" IN (");
+        for (int i = 0; i < probes; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        if (after) {
+            sql.append(" AND ").append(COLUMN_PET_ID).append(" > ?");
+        }
+        // Inlined, COUNT(*) compared with a text argument would always be smaller
+        sql.append(" GROUP BY ").append(COLUMN_PET_ID)
+                .append(" HAVING COUNT(*) >= ").append(shared).append(')');
+        return sql.toString();
+    }
+
+    /**
+     * Selection that leaves out deleted pets. Pass the table name to qualify the columns when
+     * the pets table is joined, or null.
+     */
+    public static String buildLiveSelection(String table) {
+        String prefix = table == null ? "" : table + ".";
+        return prefix + COLUMN_DELETED + " = 0 AND "
+                + prefix + COLUMN_ID + " > " + SQL_DELETED_THROUGH_ID;
+    }
+
+    /**
+     * Compare text the way SQLite's default BINARY collation orders it, by the bytes of its
+     * UTF-8 encoding, which is the order of the code points. String.compareTo compares UTF-16
+     * units instead and puts characters above U+FFFF before U+E000 to U+FFFF.
+     */
+    public static int compareText(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int first = a.codePointAt(i);
+            int second = b.codePointAt(j);
+            if (first != second) {
+                return first < second ? -1 : 1;
+            }
+            i += Character.charCount(first);
+            j += Character.charCount(second);
+        }
+        return i < a.length() ? 1 : j < b.length() ? -1 : 0;
+    }
+}
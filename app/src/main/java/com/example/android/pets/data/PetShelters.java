@@ -0,0 +1,266 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The database of every shelter, each in a file of its own.
+ *
+ * The default shelter keeps {@link PetDbHelper#DATABASE_NAME} and stays open for the life of the
+ * process. Any other shelter is opened the first time it is used and closed again once nothing
+ * has used it for {@link #IDLE_CLOSE_MS}, so a process that touched many shelters does not keep
+ * a connection pool open for each of them. Every shelter has its own {@link PetCompactor}, so
+ * deleting all pets of one shelter and purging them never holds up another shelter.
+ *
+ * A shelter exists once it has a database file, which the first insert into it creates, see
+ * {@link #acquireOrCreate(long)}. Callers {@link #acquire(long)} a shelter for the duration of
+ * an operation and {@link #release(Shelter)} it afterwards. A cursor keeps its shelter open until it is closed,
+ * see {@link Shelter#hold(Cursor)}.
+ */
+final class PetShelters {
+
+    private static final String LOG_TAG = PetShelters.class.getSimpleName();
+
+    /**
+     * How long a shelter other than the default one stays open after its last use.
+     */
+    static final long IDLE_CLOSE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Pattern SHELTER_DATABASE_NAME = Pattern.compile("Pets_shelter_(\\d+)\\.db");
+
+    private final Context mContext;
+    private final Shelter mDefault;
+
+    /**
+     * Shelters that are open, by id. Guarded by itself.
+     */
+    private final Map<Long, Shelter> mOpen = new HashMap<>();
+
+    private final ScheduledExecutorService mIdleCloser = Executors.newSingleThreadScheduledExecutor();
+
+    PetShelters(Context context) {
+        mContext = context;
+        mDefault = new Shelter(PetsContract.DEFAULT_SHELTER, new PetDbHelper(context));
+        mOpen.put(mDefault.mId, mDefault);
+
+        mIdleCloser.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                closeIdle();
+            }
+        }, IDLE_CLOSE_MS, IDLE_CLOSE_MS / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The file name of a shelter's database.
+     */
+    static String databaseName(long shelterId) {
+        return shelterId == PetsContract.DEFAULT_SHELTER
+                ? PetDbHelper.DATABASE_NAME : "Pets_shelter_" + shelterId + ".db";
+    }
+
+    Shelter getDefault() {
+        return mDefault;
+    }
+
+    /**
+     * Open the given shelter if it is not yet and keep it open until it is released.
+     *
+     * @throws IllegalArgumentException if the shelter has no database
+     */
+    Shelter acquire(long shelterId) {
+        return acquire(shelterId, false);
+    }
+
+    /**
+     * Same as {@link #acquire(long)}, giving a shelter without a database an empty one. Only
+     * for inserts, so reading or deleting from a mistyped shelter does not leave a file behind.
+     */
+    Shelter acquireOrCreate(long shelterId) {
+        return acquire(shelterId, true);
+    }
+
+    private Shelter acquire(long shelterId, boolean create) {
+        if (shelterId < 0) {
+            throw new IllegalArgumentException("Invalid shelter " + shelterId);
+        }
+        Shelter shelter;
+        boolean opened = false;
+        synchronized (mOpen) {
+            shelter = mOpen.get(shelterId);
+            if (shelter == null) {
+                if (!create && !mContext.getDatabasePath(databaseName(shelterId)).exists()) {
+                    throw new IllegalArgumentException("Unknown shelter " + shelterId);
+                }
+                shelter = new Shelter(shelterId,
+                        new PetDbHelper(mContext, databaseName(shelterId), PetDbProfile.DEFAULT));
+                mOpen.put(shelterId, shelter);
+                opened = true;
+            }
+            shelter.mActive++;
+        }
+        if (opened) {
+            // Purge what the shelter deleted before it was last closed
+            shelter.mCompactor.schedule();
+        }
+        return shelter;
+    }
+
+    void release(Shelter shelter) {
+        synchronized (mOpen) {
+            shelter.mActive--;
+            shelter.mLastUsed = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * The ids of every shelter that has a database file, in ascending order.
+     */
+    List<Long> list() {
+        Set<Long> ids = new TreeSet<>();
+        ids.add(PetsContract.DEFAULT_SHELTER);
+        for (String name : mContext.databaseList()) {
+            Matcher matcher = SHELTER_DATABASE_NAME.matcher(name);
+            if (matcher.matches()) {
+                ids.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        synchronized (mOpen) {
+            ids.addAll(mOpen.keySet());
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Close the shelters nobody has used for {@link #IDLE_CLOSE_MS}, unless they are purging.
+     */
+    void closeIdle() {
+        long now = SystemClock.elapsedRealtime();
+        List<Shelter> idle = new ArrayList<>();
+        synchronized (mOpen) {
+            Iterator<Shelter> iterator = mOpen.values().iterator();
+            while (iterator.hasNext()) {
+                Shelter shelter = iterator.next();
+                if (shelter != mDefault && shelter.mActive == 0
+                        && now - shelter.mLastUsed >= IDLE_CLOSE_MS && shelter.mCompactor.isIdle()) {
+                    iterator.remove();
+                    idle.add(shelter);
+                }
+            }
+        }
+        for (Shelter shelter : idle) {
+            shelter.close();
+            Log.v(LOG_TAG, "Closed idle shelter " + shelter.mId);
+        }
+    }
+
+    void close() {
+        mIdleCloser.shutdownNow();
+        synchronized (mOpen) {
+            for (Shelter shelter : mOpen.values()) {
+                shelter.close();
+            }
+            mOpen.clear();
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        List<Shelter> open;
+        synchronized (mOpen) {
+            open = new ArrayList<>(mOpen.values());
+        }
+        writer.println("Shelters: " + open.size() + " open");
+        for (Shelter shelter : open) {
+            writer.print("  shelter " + shelter.mId + ": ");
+            shelter.mCompactor.dump(writer);
+        }
+    }
+
+    /**
+     * One open shelter, its database and its purge.
+     */
+    final class Shelter {
+
+        private final long mId;
+        private final PetDbHelper mDbHelper;
+        private final PetCompactor mCompactor;
+
+        /**
+         * Operations and cursors using the shelter, and when the last of them let go. Guarded
+         * by {@link #mOpen}.
+         */
+        private int mActive;
+        private long mLastUsed = SystemClock.elapsedRealtime();
+
+        private Shelter(long id, PetDbHelper dbHelper) {
+            mId = id;
+            mDbHelper = dbHelper;
+            mCompactor = new PetCompactor(mContext, dbHelper, id);
+        }
+
+        long getId() {
+            return mId;
+        }
+
+        boolean isDefault() {
+            return mId == PetsContract.DEFAULT_SHELTER;
+        }
+
+        PetDbHelper getDbHelper() {
+            return mDbHelper;
+        }
+
+        PetCompactor getCompactor() {
+            return mCompactor;
+        }
+
+        /**
+         * Hand the shelter over to a cursor: it stays open until the cursor is closed, and the
+         * caller must not release it.
+         */
+        Cursor hold(Cursor cursor) {
+            return new HeldCursor(cursor, this);
+        }
+
+        private void close() {
+            mCompactor.close();
+            mDbHelper.close();
+        }
+    }
+
+    private final class HeldCursor extends CrossProcessCursorWrapper {
+
+        private Shelter mShelter;
+
+        HeldCursor(Cursor cursor, Shelter shelter) {
+            super(cursor);
+            mShelter = shelter;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (mShelter != null) {
+                release(mShelter);
+                mShelter = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+
+/**
+ * Read-only, column by column copy of a list of pets.
+ *
+ * Ids, genders and weights are kept in primitive arrays. Names, breeds and photo file names are
+ * kept as indices into a pool of distinct strings, so a breed shared by a thousand pets is stored once, and
+ * reading a row back does not allocate. Build it off the main thread with a {@link Builder},
+ * then share it freely; nothing in it changes after {@link Builder#build()}.
+ */
+public final class PetSnapshot {
+
+    public static final PetSnapshot EMPTY = new Builder(0).build();
+
+    /**
+     * Stored instead of a pool index for a null string.
+     */
+    private static final int NULL_STRING = -1;
+
+    private final int mSize;
+    private final long[] mIds;
+    private final int[] mNames;
+    private final int[] mBreeds;
+    private final byte[] mGenders;
+    private final int[] mWeights;
+    private final int[] mPhotos;
+    private final String[] mStrings;
+
+    private PetSnapshot(Builder builder) {
+        mSize = builder.mSize;
+        mIds = builder.mIds;
+        mNames = builder.mNames;
+        mBreeds = builder.mBreeds;
+        mGenders = builder.mGenders;
+        mWeights = builder.mWeights;
+        mPhotos = builder.mPhotos;
+        mStrings = builder.mPool.mStrings;
+    }
+
+    /**
+     * Read every remaining row of a cursor queried with {@link Pet#PROJECTION}. The cursor is
+     * left open.
+     */
+    public static PetSnapshot fromCursor(Cursor cursor) {
+        Builder builder = new Builder(cursor.getCount());
+        while (cursor.moveToNext()) {
+            builder.addRow(cursor);
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getId(int position) {
+        return mIds[checkPosition(position)];
+    }
+
+    public String getName(int position) {
+        return string(mNames[checkPosition(position)]);
+    }
+
+    public String getBreed(int position) {
+        return string(mBreeds[checkPosition(position)]);
+    }
+
+    public int getGender(int position) {
+        return mGenders[checkPosition(position)];
+    }
+
+    public int getWeight(int position) {
+        return mWeights[checkPosition(position)];
+    }
+
+    public String getPhoto(int position) {
+        return string(mPhotos[checkPosition(position)]);
+    }
+
+    /**
+     * Copy one row out as a {@link Pet}, for code that needs to hold on to a single pet.
+     */
+    public Pet getPet(int position) {
+        return new Pet(getId(position), getName(position), getBreed(position),
+                getGender(position), getWeight(position), getPhoto(position));
+    }
+
+    /**
+     * Number of distinct strings stored.
+     */
+    public int getPoolSize() {
+        return mStrings.length;
+    }
+
+    /**
+     * Whether two rows, possibly of different snapshots, hold the same values.
+     */
+    public static boolean sameContents(PetSnapshot first, int firstPosition,
+                                       PetSnapshot second, int secondPosition) {
+        return first.getId(firstPosition) == second.getId(secondPosition)
+                && first.getGender(firstPosition) == second.getGender(secondPosition)
+                && first.getWeight(firstPosition) == second.getWeight(secondPosition)
+                && TextUtils.equals(first.getName(firstPosition), second.getName(secondPosition))
+                && TextUtils.equals(first.getBreed(firstPosition), second.getBreed(secondPosition))
+                && TextUtils.equals(first.getPhoto(firstPosition), second.getPhoto(secondPosition));
+    }
+
+    private String string(int index) {
+        return index == NULL_STRING ? null : mStrings[index];
+    }
+
+    private int checkPosition(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        return position;
+    }
+
+    /**
+     * Collects rows for a {@link PetSnapshot}. Not thread safe, and not usable after
+     * {@link #build()}.
+     */
+    public static final class Builder {
+
+        private int mSize;
+        private long[] mIds;
+        private int[] mNames;
+        private int[] mBreeds;
+        private byte[] mGenders;
+        private int[] mWeights;
+        private int[] mPhotos;
+        private final StringPool mPool = new StringPool();
+
+        /**
+         * Reused for every string read from a cursor, so only strings not in the pool yet are
+         * allocated.
+         */
+        private CharArrayBuffer mBuffer;
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 0);
+            mIds = new long[capacity];
+            mNames = new int[capacity];
+            mBreeds = new int[capacity];
+            mGenders = new byte[capacity];
+            mWeights = new int[capacity];
+            mPhotos = new int[capacity];
+        }
+
+        /**
+         * Add the row at the current position of a cursor queried with {@link Pet#PROJECTION}.
+         */
+        public Builder addRow(Cursor cursor) {
+            if (mBuffer == null) {
+                mBuffer = new CharArrayBuffer(64);
+            }
+            int position = nextPosition();
+            mIds[position] = cursor.getLong(Pet.INDEX_ID);
+            mNames[position] = readString(cursor, Pet.INDEX_NAME);
+            mBreeds[position] = readString(cursor, Pet.INDEX_BREED);
+            mGenders[position] = (byte) cursor.getInt(Pet.INDEX_GENDER);
+            mWeights[position] = cursor.getInt(Pet.INDEX_WEIGHT);
+            mPhotos[position] = readString(cursor, Pet.INDEX_PHOTO);
+            return this;
+        }
+
+        /**
+         * Add one row of another snapshot.
+         */
+        public Builder add(PetSnapshot snapshot, int position) {
+            int added = nextPosition();
+            mIds[added] = snapshot.getId(position);
+            mNames[added] = mPool.intern(snapshot.getName(position));
+            mBreeds[added] = mPool.intern(snapshot.getBreed(position));
+            mGenders[added] = (byte) snapshot.getGender(position);
+            mWeights[added] = snapshot.getWeight(position);
+            mPhotos[added] = mPool.intern(snapshot.getPhoto(position));
+            return this;
+        }
+
+        /**
+         * Add a row from its values.
+         */
+        public Builder add(long id, String name, String breed, int gender, int weight,
+                           String photo) {
+            int position = nextPosition();
+            mIds[position] = id;
+            mNames[position] = mPool.intern(name);
+            mBreeds[position] = mPool.intern(breed);
+            mGenders[position] = (byte) gender;
+            mWeights[position] = weight;
+            mPhotos[position] = mPool.intern(photo);
+            return this;
+        }
+
+        /**
+         * Make room for the given number of rows more, ahead of adding them one by one.
+         */
+        public Builder ensureCapacity(int extra) {
+            if (mSize + extra > mIds.length) {
+                resize(mSize + extra);
+            }
+            return this;
+        }
+
+        /**
+         * Add every row of another snapshot.
+         */
+        public Builder addAll(PetSnapshot snapshot) {
+            return addRange(snapshot, 0, snapshot.size());
+        }
+
+        /**
+         * Add the rows of another snapshot from the first position, inclusive, to the second,
+         * exclusive.
+         */
+        public Builder addRange(PetSnapshot snapshot, int from, int to) {
+            for (int i = from; i < to; i++) {
+                add(snapshot, i);
+            }
+            return this;
+        }
+
+        public PetSnapshot build() {
+            if (mSize < mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize);
+                mNames = Arrays.copyOf(mNames, mSize);
+                mBreeds = Arrays.copyOf(mBreeds, mSize);
+                mGenders = Arrays.copyOf(mGenders, mSize);
+                mWeights = Arrays.copyOf(mWeights, mSize);
+                mPhotos = Arrays.copyOf(mPhotos, mSize);
+            }
+            mPool.trim();
+            return new PetSnapshot(this);
+        }
+
+        private int readString(Cursor cursor, int column) {
+            if (cursor.isNull(column)) {
+                return NULL_STRING;
+            }
+            cursor.copyStringToBuffer(column, mBuffer);
+            return mPool.intern(mBuffer.data, mBuffer.sizeCopied);
+        }
+
+        private int nextPosition() {
+            if (mSize == mIds.length) {
+                resize(Math.max(16, mSize * 2));
+            }
+            return mSize++;
+        }
+
+        private void resize(int capacity) {
+            mIds = Arrays.copyOf(mIds, capacity);
+            mNames = Arrays.copyOf(mNames, capacity);
+            mBreeds = Arrays.copyOf(mBreeds, capacity);
+            mGenders = Arrays.copyOf(mGenders, capacity);
+            mWeights = Arrays.copyOf(mWeights, capacity);
+            mPhotos = Arrays.copyOf(mPhotos, capacity);
+        }
+    }
+
+    /**
+     * Distinct strings by index, with an open addressing table to find a string by its
+     * characters without creating a {@link String} first.
+     */
+    private static final class StringPool {
+
+        private String[] mStrings = new String[16];
+        private int mCount;
+
+        /**
+         * Pool index plus one for every slot, zero for an empty slot. Its length is a power of two.
+         */
+        private int[] mTable = new int[32];
+
+        int intern(String value) {
+            if (value == null) {
+                return NULL_STRING;
+            }
+            int mask = mTable.length - 1;
+            for (int slot = value.hashCode() & mask; ; slot = (slot + 1) & mask) {
+                int index = mTable[slot] - 1;
+                if (index < 0) {
+                    return add(value, slot);
+                }
+                if (mStrings[index].equals(value)) {
+                    return index;
+                }
+            }
+        }
+
+        int intern(char[] chars, int length) {
+            int mask = mTable.length - 1;
+            for (int slot = hash(chars, length) & mask; ; slot = (slot + 1) & mask) {
+                int index = mTable[slot] - 1;
+                if (index < 0) {
+                    return add(new String(chars, 0, length), slot);
+                }
+                if (matches(mStrings[index], chars, length)) {
+                    return index;
+                }
+            }
+        }
+
+        void trim() {
+            if (mCount < mStrings.length) {
+                mStrings = Arrays.copyOf(mStrings, mCount);
+            }
+        }
+
+        private int add(String value, int slot) {
+            if (mCount == mStrings.length) {
+                mStrings = Arrays.copyOf(mStrings, mCount * 2);
+            }
+            int index = mCount++;
+            mStrings[index] = value;
+            mTable[slot] = index + 1;
+            if (mCount * 2 > mTable.length) {
+                rehash();
+            }
+            return index;
+        }
+
+        private void rehash() {
+            int[] table = new int[mTable.length * 2];
+            int mask = table.length - 1;
+            for (int index = 0; index < mCount; index++) {
+                int slot = mStrings[index].hashCode() & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = index + 1;
+            }
+            mTable = table;
+        }
+
+        /**
+         * Same value as {@link String#hashCode()} of the same characters.
+         */
+        private static int hash(char[] chars, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            return hash;
+        }
+
+        private static boolean matches(String value, char[] chars, int length) {
+            if (value.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) != chars[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
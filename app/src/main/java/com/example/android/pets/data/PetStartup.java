@@ -0,0 +1,128 @@
+package com.example.android.pets.data;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cold start of the pets database: warms it up in the background and records how long the
+ * phases of a start took.
+ *
+ * {@link PetProvider#onCreate()} runs on the main thread while the process starts, so it only
+ * creates objects and hands opening the database to {@link #prewarm}. By the time the catalog
+ * asks for its first page, the schema is checked, the statements are compiled and the database
+ * has read that page once. Each phase is a trace section named "Pets:...", visible in systrace,
+ * and the time since process start of the provider being ready, the first query and the first
+ * frame of the catalog is logged and kept for dumpsys.
+ */
+public final class PetStartup {
+
+    private static final String LOG_TAG = PetStartup.class.getSimpleName();
+
+    /**
+     * Process start on releases that cannot tell, close enough since this class is loaded by
+     * the provider, before any activity.
+     */
+    private static final long CLASS_LOADED = SystemClock.elapsedRealtime();
+
+    private static final AtomicBoolean sFirstQuery = new AtomicBoolean();
+    private static final AtomicBoolean sFirstFrame = new AtomicBoolean();
+
+    private static volatile long sProviderReadyMs = -1;
+    private static volatile long sPrewarmedMs = -1;
+    private static volatile long sFirstQueryMs = -1;
+    private static volatile long sFirstFrameMs = -1;
+
+    private PetStartup() {
+    }
+
+    /**
+     * Open and warm the database on a thread of its own, then run the given task there.
+     */
+    static void prewarm(final PetDbHelper dbHelper, final Runnable then) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TraceCompat.beginSection("Pets:prewarm");
+                try {
+                    dbHelper.prewarm();
+                    sPrewarmedMs = sinceProcessStart();
+                    Log.i(LOG_TAG, "Database warm " + sPrewarmedMs + " ms after process start");
+                } catch (RuntimeException e) {
+                    // The first query opens the database again and reports the error to its caller
+                    Log.e(LOG_TAG, "Prewarm of the pets database failed", e);
+                } finally {
+                    TraceCompat.endSection();
+                }
+                then.run();
+            }
+        }, "PetStartup");
+        thread.start();
+    }
+
+    static void onProviderReady() {
+        sProviderReadyMs = sinceProcessStart();
+        Log.i(LOG_TAG, "Provider ready " + sProviderReadyMs + " ms after process start");
+    }
+
+    /**
+     * Begin the trace section of the first query of the process, if this is it.
+     *
+     * @return whether this is the first query, to pass to {@link #endQuery(boolean)}
+     */
+    static boolean beginQuery() {
+        if (sFirstQuery.get() || !sFirstQuery.compareAndSet(false, true)) {
+            return false;
+        }
+        TraceCompat.beginSection("Pets:first query");
+        return true;
+    }
+
+    static void endQuery(boolean firstQuery) {
+        if (!firstQuery) {
+            return;
+        }
+        TraceCompat.endSection();
+        sFirstQueryMs = sinceProcessStart();
+        Log.i(LOG_TAG, "First query done " + sFirstQueryMs + " ms after process start");
+    }
+
+    /**
+     * Record the first frame of the catalog. Call it on the main thread from the pre-draw of
+     * that frame, and report the activity fully drawn right after. The trace section only marks
+     * the moment: trace sections nest per thread, so it begins and ends within the call, inside
+     * the framework's sections of the frame.
+     *
+     * @return whether this was the first frame, so the activity reports itself once
+     */
+    public static boolean recordFirstFrame() {
+        if (!sFirstFrame.compareAndSet(false, true)) {
+            return false;
+        }
+        TraceCompat.beginSection("Pets:first frame");
+        try {
+            sFirstFrameMs = sinceProcessStart();
+        } finally {
+            TraceCompat.endSection();
+        }
+        Log.i(LOG_TAG, "First frame drawn " + sFirstFrameMs + " ms after process start");
+        return true;
+    }
+
+    static void dump(PrintWriter writer) {
+        writer.println("Startup: provider ready " + sProviderReadyMs + " ms, database warm "
+                + sPrewarmedMs + " ms, first query " + sFirstQueryMs + " ms, first frame "
+                + sFirstFrameMs + " ms after process start");
+    }
+
+    private static long sinceProcessStart() {
+        long start = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartElapsedRealtime() : CLASS_LOADED;
+        return SystemClock.elapsedRealtime() - start;
+    }
+}
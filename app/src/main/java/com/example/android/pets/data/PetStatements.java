@@ -0,0 +1,174 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+/**
+ * Compiled statements for the fixed single row writes of {@link PetProvider}, so they are
+ * prepared once instead of on every call.
+ *
+ * A compiled statement keeps its bindings between calls, so each one is only used while holding
+ * its own lock.
+ */
+final class PetStatements {
+
+    private final SQLiteDatabase mDatabase;
+    private final SQLiteStatement mInsert;
+    private final SQLiteStatement mDeleteById;
+
+    /**
+     * Updates by id, indexed by the bit mask of the {@link PetSchema#PET_COLUMNS} they set and
+     * compiled the first time an update sets those columns. Guarded by itself.
+     */
+    private final SQLiteStatement[] mUpdatesById = new SQLiteStatement[1 << PetSchema.PET_COLUMNS.length];
+
+    PetStatements(SQLiteDatabase database) {
+        mDatabase = database;
+        mInsert = database.compileStatement(PetSchema.SQL_INSERT_PET);
+        mDeleteById = database.compileStatement(PetSchema.SQL_DELETE_PET_BY_ID);
+    }
+
+    /**
+     * Whether the values only hold pet columns, so the fixed insert statement can write them.
+     */
+    static boolean isInsertable(ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!PetsEntry.COLUMN_NAME.equals(key)
+                    && !PetsEntry.COLUMN_BREED.equals(key)
+                    && !PetsEntry.COLUMN_GENDER.equals(key)
+                    && !PetsEntry.COLUMN_WEIGHT.equals(key)
+                    && !PetsEntry.COLUMN_PHOTO.equals(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the values set some pet columns and nothing else, so a compiled update can write
+     * them.
+     */
+    static boolean isUpdatable(ContentValues values) {
+        return values.size() > 0 && isInsertable(values);
+    }
+
+    /**
+     * Insert a pet, a missing weight is stored as 0 like the column default.
+     *
+     * @throws android.database.SQLException if a constraint fails
+     */
+    long insert(ContentValues values) {
+        synchronized (mInsert) {
+            bindPet(mInsert, values);
+            return mInsert.executeInsert();
+        }
+    }
+
+    /**
+     * Update the columns of a pet that the values hold, which passed {@link #isUpdatable}.
+     *
+     * @return 1 if the pet was changed, 0 if it is gone or already held these values
+     */
+    int updateById(long id, ContentValues values) {
+        int columns = 0;
+        for (int i = 0; i < PetSchema.PET_COLUMNS.length; i++) {
+            if (values.containsKey(PetSchema.PET_COLUMNS[i])) {
+                columns |= 1 << i;
+            }
+        }
+
+        SQLiteStatement update = getUpdateById(columns);
+        synchronized (update) {
+            update.clearBindings();
+            int index = 1;
+            for (int i = 0; i < PetSchema.PET_COLUMNS.length; i++) {
+                if ((columns & (1 << i)) != 0) {
+                    // The provider has checked the NOT NULL columns that are present
+                    bindColumn(update, index++, PetSchema.PET_COLUMNS[i], values);
+                }
+            }
+            update.bindLong(index, id);
+            return update.executeUpdateDelete();
+        }
+    }
+
+    private SQLiteStatement getUpdateById(int columns) {
+        synchronized (mUpdatesById) {
+            SQLiteStatement update = mUpdatesById[columns];
+            if (update == null) {
+                String[] set = new String[Integer.bitCount(columns)];
+                int next = 0;
+                for (int i = 0; i < PetSchema.PET_COLUMNS.length; i++) {
+                    if ((columns & (1 << i)) != 0) {
+                        set[next++] = PetSchema.PET_COLUMNS[i];
+                    }
+                }
+                update = mDatabase.compileStatement(PetSchema.buildUpdatePetById(set));
+                mUpdatesById[columns] = update;
+            }
+            return update;
+        }
+    }
+
+    int deleteById(long id) {
+        synchronized (mDeleteById) {
+            mDeleteById.bindLong(1, id);
+            return mDeleteById.executeUpdateDelete();
+        }
+    }
+
+    void close() {
+        mInsert.close();
+        mDeleteById.close();
+        synchronized (mUpdatesById) {
+            for (SQLiteStatement update : mUpdatesById) {
+                if (update != null) {
+                    update.close();
+                }
+            }
+        }
+    }
+
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        bindString(statement, 1, values.getAsString(PetsEntry.COLUMN_NAME));
+        bindString(statement, 2, values.getAsString(PetsEntry.COLUMN_BREED));
+
+        // gender is NOT NULL, the provider validates it before it gets here
+        Integer gender = values.getAsInteger(PetsEntry.COLUMN_GENDER);
+        if (gender == null) {
+            statement.bindNull(3);
+        } else {
+            statement.bindLong(3, gender);
+        }
+
+        Integer weight = values.getAsInteger(PetsEntry.COLUMN_WEIGHT);
+        statement.bindLong(4, weight == null ? 0 : weight);
+        bindString(statement, 5, values.getAsString(PetsEntry.COLUMN_PHOTO));
+    }
+
+    private static void bindColumn(SQLiteStatement statement, int index, String column,
+                                   ContentValues values) {
+        if (PetsEntry.COLUMN_GENDER.equals(column) || PetsEntry.COLUMN_WEIGHT.equals(column)) {
+            Integer value = values.getAsInteger(column);
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindLong(index, value);
+            }
+        } else {
+            bindString(statement, index, values.getAsString(column));
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
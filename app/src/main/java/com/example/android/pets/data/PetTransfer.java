@@ -0,0 +1,418 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams the pets table to and from CSV or JSON, to exchange the inventory with other systems.
+ *
+ * Export reads the table in pages of {@link #BATCH_SIZE} pets by id and import writes batches of
+ * the same size through {@link ContentResolver#bulkInsert}, so memory use does not grow with the
+ * size of the file. Imported pets get new ids, an _id column in the input is ignored.
+ */
+public final class PetTransfer {
+
+    public enum Format {
+        /** RFC 4180 CSV with a header line naming the columns. */
+        CSV,
+        /** A JSON array of objects keyed by column name. */
+        JSON
+    }
+
+    /**
+     * Told about the rows done so far after every batch, on the thread running the transfer.
+     */
+    public interface ProgressListener {
+        void onProgress(long rows, long elapsedMillis);
+    }
+
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Columns written by an export. Photos are files of this device, so their names are left out.
+     */
+    static final String[] EXPORT_COLUMNS = {
+            PetsEntry.COLUMN_ID,
+            PetsEntry.COLUMN_NAME,
+            PetsEntry.COLUMN_BREED,
+            PetsEntry.COLUMN_GENDER,
+            PetsEntry.COLUMN_WEIGHT };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PetTransfer() {
+    }
+
+    /**
+     * Write every pet to the stream. The stream is flushed but not closed.
+     *
+     * @return the number of pets written
+     */
+    public static long exportPets(ContentResolver contentResolver, Format format, OutputStream out,
+                                  ProgressListener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        JsonWriter jsonWriter = null;
+
+        if (format == Format.CSV) {
+            writeCsvRecord(writer, EXPORT_COLUMNS);
+        } else {
+            jsonWriter = new JsonWriter(writer);
+            jsonWriter.beginArray();
+        }
+
+        long rows = 0;
+        long lastId = 0;
+        String[] fields = new String[EXPORT_COLUMNS.length];
+        while (true) {
+            Uri page = PetsEntry.buildPageAfterUri(BATCH_SIZE, lastId, null);
+            Cursor cursor = contentResolver.query(page, Pet.PROJECTION, null, null, null);
+            if (cursor == null) {
+                throw new IOException("Cannot read pets");
+            }
+
+            int count = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    Pet pet = Pet.fromCursor(cursor);
+                    if (format == Format.CSV) {
+                        fields[0] = String.valueOf(pet.getId());
+                        fields[1] = pet.getName();
+                        fields[2] = pet.getBreed();
+                        fields[3] = String.valueOf(pet.getGender());
+                        fields[4] = String.valueOf(pet.getWeight());
+                        writeCsvRecord(writer, fields);
+                    } else {
+                        writeJsonPet(jsonWriter, pet);
+                    }
+                    lastId = pet.getId();
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+
+            rows += count;
+            if (listener != null) {
+                listener.onProgress(rows, SystemClock.elapsedRealtime() - start);
+            }
+            if (count < BATCH_SIZE) {
+                break;
+            }
+        }
+
+        if (jsonWriter != null) {
+            jsonWriter.endArray();
+            jsonWriter.flush();
+        }
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Read pets from the stream and insert them in batches. The stream is not closed.
+     *
+     * @return the number of pets inserted
+     * @throws IOException if the input is malformed or holds a pet the provider would reject;
+     *                     the batches before the bad record stay inserted
+     */
+    public static long importPets(ContentResolver contentResolver, Format format, InputStream in,
+                                  ProgressListener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Reader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        List<ContentValues> batch = new ArrayList<>(BATCH_SIZE);
+        long rows = 0;
+
+        if (format == Format.CSV) {
+            CsvReader csvReader = new CsvReader(reader);
+            String[] header = csvReader.readRecord();
+            if (header == null) {
+                return 0;
+            }
+
+            String[] record;
+            while ((record = csvReader.readRecord()) != null) {
+                if (record.length == 1 && record[0].isEmpty()) {
+                    // blank line
+                    continue;
+                }
+                batch.add(toValues(header, record, csvReader.getLine()));
+                if (batch.size() == BATCH_SIZE) {
+                    rows += insert(contentResolver, batch);
+                    report(listener, rows, start);
+                }
+            }
+        } else {
+            JsonReader jsonReader = new JsonReader(reader);
+            jsonReader.beginArray();
+            int index = 0;
+            while (jsonReader.hasNext()) {
+                batch.add(readJsonPet(jsonReader, index++));
+                if (batch.size() == BATCH_SIZE) {
+                    rows += insert(contentResolver, batch);
+                    report(listener, rows, start);
+                }
+            }
+            jsonReader.endArray();
+        }
+
+        if (!batch.isEmpty()) {
+            rows += insert(contentResolver, batch);
+        }
+        report(listener, rows, start);
+        return rows;
+    }
+
+    private static int insert(ContentResolver contentResolver, List<ContentValues> batch) {
+        int inserted = contentResolver.bulkInsert(PetsEntry.CONTENT_URI,
+                batch.toArray(new ContentValues[batch.size()]));
+        batch.clear();
+        return inserted;
+    }
+
+    private static void report(ProgressListener listener, long rows, long start) {
+        if (listener != null) {
+            listener.onProgress(rows, SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    private static void writeJsonPet(JsonWriter writer, Pet pet) throws IOException {
+        writer.beginObject();
+        writer.name(PetsEntry.COLUMN_ID).value(pet.getId());
+        writer.name(PetsEntry.COLUMN_NAME).value(pet.getName());
+        writer.name(PetsEntry.COLUMN_BREED).value(pet.getBreed());
+        writer.name(PetsEntry.COLUMN_GENDER).value(pet.getGender());
+        writer.name(PetsEntry.COLUMN_WEIGHT).value(pet.getWeight());
+        writer.endObject();
+    }
+
+    /**
+     * @param index position of the pet in the array, for error messages
+     */
+    private static ContentValues readJsonPet(JsonReader reader, int index) throws IOException {
+        String where = "pet " + index;
+        ContentValues values = new ContentValues();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            try {
+                switch (name) {
+                    case PetsEntry.COLUMN_NAME:
+                        values.put(PetsEntry.COLUMN_NAME, reader.nextString());
+                        break;
+                    case PetsEntry.COLUMN_BREED:
+                        values.put(PetsEntry.COLUMN_BREED, reader.nextString());
+                        break;
+                    case PetsEntry.COLUMN_GENDER:
+                        values.put(PetsEntry.COLUMN_GENDER, reader.nextInt());
+                        break;
+                    case PetsEntry.COLUMN_WEIGHT:
+                        values.put(PetsEntry.COLUMN_WEIGHT, reader.nextInt());
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            } catch (NumberFormatException | IllegalStateException e) {
+                throw new IOException("Invalid " + name + " in " + where, e);
+            }
+        }
+        reader.endObject();
+        validate(values, where);
+        return values;
+    }
+
+    /**
+     * @param line physical line the record starts on, for error messages
+     */
+    static ContentValues toValues(String[] header, String[] record, int line) throws IOException {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < header.length && i < record.length; i++) {
+            String value = record[i];
+            try {
+                switch (header[i]) {
+                    case PetsEntry.COLUMN_NAME:
+                        values.put(PetsEntry.COLUMN_NAME, value);
+                        break;
+                    case PetsEntry.COLUMN_BREED:
+                        // An export writes an unknown breed as an empty field
+                        if (value.trim().isEmpty()) {
+                            values.putNull(PetsEntry.COLUMN_BREED);
+                        } else {
+                            values.put(PetsEntry.COLUMN_BREED, value);
+                        }
+                        break;
+                    case PetsEntry.COLUMN_GENDER:
+                        values.put(PetsEntry.COLUMN_GENDER, Integer.parseInt(value.trim()));
+                        break;
+                    case PetsEntry.COLUMN_WEIGHT:
+                        if (!value.trim().isEmpty()) {
+                            values.put(PetsEntry.COLUMN_WEIGHT, Integer.parseInt(value.trim()));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid " + header[i] + " on line " + line + ": " + value);
+            }
+        }
+        validate(values, "line " + line);
+        return values;
+    }
+
+    /**
+     * Apply the checks of the provider to an imported pet, so a bad record fails the import
+     * with its position instead of failing the insert of its whole batch.
+     */
+    private static void validate(ContentValues values, String where) throws IOException {
+        if (values.getAsString(PetsEntry.COLUMN_NAME) == null) {
+            throw new IOException("Pet on " + where + " has no name");
+        }
+        Integer gender = values.getAsInteger(PetsEntry.COLUMN_GENDER);
+        if (gender == null) {
+            throw new IOException("Pet on " + where + " has no gender");
+        }
+        if (!PetsEntry.isValidGender(gender)) {
+            throw new IOException("Invalid gender on " + where + ": " + gender);
+        }
+        Integer weight = values.getAsInteger(PetsEntry.COLUMN_WEIGHT);
+        if (weight != null && weight < 0) {
+            throw new IOException("Invalid weight on " + where + ": " + weight);
+        }
+    }
+
+    private static void writeCsvRecord(Writer writer, String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String field = fields[i];
+            if (field == null) {
+                continue;
+            }
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0
+                    || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Reads one RFC 4180 record at a time, quoted fields may span lines.
+     */
+    static final class CsvReader {
+
+        private final Reader mReader;
+        private final List<String> mFields = new ArrayList<>();
+        private final StringBuilder mField = new StringBuilder();
+
+        /**
+         * Physical line the reader is on, counting the line breaks inside quoted fields.
+         */
+        private int mLine = 1;
+        private int mRecordLine;
+        private int mPending = -1;
+
+        CsvReader(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Physical line the last record started on, for error messages.
+         */
+        int getLine() {
+            return mRecordLine;
+        }
+
+        /**
+         * @return the fields of the next record, or null at the end of the input
+         */
+        String[] readRecord() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+            mRecordLine = mLine;
+
+            boolean quoted = false;
+            boolean empty = true;
+            int c;
+            while ((c = read()) != -1) {
+                empty = false;
+                if (quoted) {
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                            mPending = next;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            mLine++;
+                        }
+                        mField.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n') {
+                    mLine++;
+                    break;
+                } else if (c != '\r') {
+                    mField.append((char) c);
+                }
+            }
+
+            if (empty) {
+                return null;
+            }
+            if (quoted) {
+                throw new IOException("Unterminated quote in record starting on line " + mRecordLine);
+            }
+            mFields.add(mField.toString());
+            return mFields.toArray(new String[mFields.size()]);
+        }
+
+        private int read() throws IOException {
+            if (mPending != -1) {
+                int c = mPending;
+                mPending = -1;
+                return c;
+            }
+            return mReader.read();
+        }
+    }
+}
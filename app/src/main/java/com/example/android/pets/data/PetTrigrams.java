@@ -0,0 +1,191 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * How {@link PetDuplicates} compares pets: trigrams of the names, the prefix of them to look up
+ * in the trigram index and the score of a candidate. See PetDuplicates for the approach.
+ *
+ * Only plain Java, like {@link PetSchema}, so the benchmark module runs the same code as the
+ * app.
+ */
+public final class PetTrigrams {
+
+    public static final float NAME_THRESHOLD = 0.5f;
+    public static final float MATCH_THRESHOLD = 0.75f;
+    public static final int MIN_SHARED = 2;
+    public static final int MAX_BLOCK_SIZE = 5000;
+
+    /**
+     * Same as PetsEntry.GENDER_UNKNOWN.
+     */
+    private static final int GENDER_UNKNOWN = 0;
+
+    /**
+     * Share of each feature in the score. Breed, gender and weight count half when either pet
+     * does not have one.
+     */
+    private static final float WEIGHT_NAME = 0.5f;
+    private static final float WEIGHT_BREED = 0.2f;
+    private static final float WEIGHT_GENDER = 0.15f;
+    private static final float WEIGHT_WEIGHT = 0.15f;
+
+    private static final String[] NO_TRIGRAMS = new String[0];
+
+    private PetTrigrams() {
+    }
+
+    /**
+     * The number of looked up trigrams a pet has to be found under to be a candidate, see
+     * {@link #selectProbes}.
+     */
+    public static int minShared(String[] trigrams) {
+        return Math.min(MIN_SHARED, (int) Math.ceil(NAME_THRESHOLD * trigrams.length));
+    }
+
+    /**
+     * The trigrams of a name to look up in the index, the rarest ones first.
+     *
+     * Names at least {@link #NAME_THRESHOLD} alike share at least that many trigrams with the
+     * name. Any prefix that leaves out one less than the others then holds one of them, or
+     * {@link #minShared} of a prefix that is that much longer. Trigrams under more than
+     * {@link #MAX_BLOCK_SIZE} pets are left out.
+     *
+     * @param counts how many pets each trigram is under
+     * @return the trigrams, or null if fewer than {@link #minShared} are left to look up
+     */
+    public static String[] selectProbes(final String[] trigrams, final int[] counts) {
+        int overlap = (int) Math.ceil(NAME_THRESHOLD * trigrams.length);
+        int shared = minShared(trigrams);
+        int prefix = trigrams.length - overlap + shared;
+
+        Integer[] order = new Integer[trigrams.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int result = counts[a] < counts[b] ? -1 : counts[a] == counts[b] ? 0 : 1;
+                return result != 0 ? result : trigrams[a].compareTo(trigrams[b]);
+            }
+        });
+
+        List<String> probes = new ArrayList<>();
+        for (int i = 0; i < prefix; i++) {
+            if (counts[order[i]] <= MAX_BLOCK_SIZE) {
+                probes.add(trigrams[order[i]]);
+            }
+        }
+        if (probes.isEmpty() || probes.size() < shared) {
+            return null;
+        }
+        return probes.toArray(new String[probes.size()]);
+    }
+
+    /**
+     * How much two pets look alike, from 0 to 1. Pets of two known, different genders score 0.
+     *
+     * @param trigrams the trigrams of the first pet's name
+     */
+    public static float score(String[] trigrams, String breed, int gender, int weight,
+                              String otherName, String otherBreed, int otherGender, int otherWeight) {
+        float nameScore = similarity(trigrams, trigrams(otherName));
+        if (nameScore < NAME_THRESHOLD) {
+            return 0;
+        }
+
+        float genderScore;
+        if (gender == GENDER_UNKNOWN || otherGender == GENDER_UNKNOWN) {
+            genderScore = 0.5f;
+        } else if (gender == otherGender) {
+            genderScore = 1;
+        } else {
+            return 0;
+        }
+
+        float breedScore;
+        if (breed == null || breed.isEmpty() || otherBreed == null || otherBreed.isEmpty()) {
+            breedScore = 0.5f;
+        } else {
+            breedScore = similarity(trigrams(breed), trigrams(otherBreed));
+        }
+
+        float weightScore;
+        if (weight <= 0 || otherWeight <= 0) {
+            weightScore = 0.5f;
+        } else {
+            weightScore = (float) Math.min(weight, otherWeight) / Math.max(weight, otherWeight);
+        }
+
+        return WEIGHT_NAME * nameScore + WEIGHT_BREED * breedScore + WEIGHT_GENDER * genderScore
+                + WEIGHT_WEIGHT * weightScore;
+    }
+
+    /**
+     * The Jaccard index of two sorted sets of trigrams.
+     */
+    public static float similarity(String[] a, String[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return 0;
+        }
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            int order = a[i].compareTo(b[j]);
+            if (order == 0) {
+                common++;
+                i++;
+                j++;
+            } else if (order < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (float) common / (a.length + b.length - common);
+    }
+
+    /**
+     * The distinct trigrams of a value, sorted, the same the triggers index for a name. Counts
+     * and cuts characters by code point and folds only ASCII letters, like SQLite.
+     */
+    public static String[] trigrams(String value) {
+        if (value == null) {
+            return NO_TRIGRAMS;
+        }
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return NO_TRIGRAMS;
+        }
+
+        StringBuilder padded = new StringBuilder(end - start + 2).append(' ');
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            padded.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        padded.append(' ');
+
+        int count = Math.min(value.codePointCount(start, end), PetSchema.MAX_NAME_TRIGRAMS);
+        TreeSet<String> trigrams = new TreeSet<>();
+        int from = 0;
+        for (int i = 0; i < count; i++) {
+            int to = padded.offsetByCodePoints(from, 3);
+            trigrams.add(padded.substring(from, to));
+            from = padded.offsetByCodePoints(from, 1);
+        }
+        return trigrams.toArray(new String[trigrams.size()]);
+    }
+}
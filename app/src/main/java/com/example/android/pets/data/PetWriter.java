@@ -0,0 +1,171 @@
+package com.example.android.pets.data;
+
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs writes to the pets provider on the {@link AsyncQueryHandler} worker thread and reports
+ * the results back on the thread that created it.
+ *
+ * Updates to the same pet that are still waiting to run are merged into a single update. A write
+ * the provider rejects is reported to {@link Listener#onWriteFailed} instead of crashing the
+ * worker thread.
+ */
+public class PetWriter extends AsyncQueryHandler {
+
+    /**
+     * Called on the thread that created the {@link PetWriter}.
+     */
+    public interface Listener {
+        void onInsertComplete(Uri uri);
+
+        void onUpdateComplete(int rowNumber);
+
+        void onDeleteComplete(int rowNumber);
+
+        /**
+         * The provider rejected the write to the given URI.
+         */
+        void onWriteFailed(Uri uri, RuntimeException error);
+    }
+
+    private static final int TOKEN_INSERT = 1;
+    private static final int TOKEN_UPDATE = 2;
+    private static final int TOKEN_DELETE = 3;
+
+    private final Listener mListener;
+
+    /**
+     * One update sent to the worker. Either the worker takes it and runs it, or the main thread
+     * takes it back to merge newer values into it, whichever comes first.
+     */
+    private static final class PendingUpdate {
+
+        final Uri uri;
+        final ContentValues values;
+        private final AtomicBoolean mTaken = new AtomicBoolean();
+
+        PendingUpdate(Uri uri, ContentValues values) {
+            this.uri = uri;
+            this.values = values;
+        }
+
+        boolean take() {
+            return mTaken.compareAndSet(false, true);
+        }
+    }
+
+    /**
+     * The last update sent to the worker for every pet URI, until it completes.
+     */
+    private final Map<Uri, PendingUpdate> mPendingUpdates = new HashMap<>();
+
+    public PetWriter(ContentResolver contentResolver, Listener listener) {
+        super(contentResolver);
+        mListener = listener;
+    }
+
+    public void insertPet(ContentValues values) {
+        startInsert(TOKEN_INSERT, null, PetsEntry.CONTENT_URI, values);
+    }
+
+    public void updatePet(Uri uri, ContentValues values) {
+        ContentValues copy = new ContentValues(values);
+
+        // If an earlier update of this pet has not started yet, take it back and fold the new
+        // values into it. Once the worker runs it, the new values go in an update of their own.
+        PendingUpdate pending = mPendingUpdates.get(uri);
+        if (pending != null && pending.take()) {
+            copy = new ContentValues(pending.values);
+            copy.putAll(values);
+        }
+
+        PendingUpdate update = new PendingUpdate(uri, copy);
+        mPendingUpdates.put(uri, update);
+        startUpdate(TOKEN_UPDATE, update, uri, copy, null, null);
+    }
+
+    public void deletePet(Uri uri) {
+        startDelete(TOKEN_DELETE, null, uri, null, null);
+    }
+
+    public void deleteAllPets() {
+        startDelete(TOKEN_DELETE, null, PetsEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void onInsertComplete(int token, Object cookie, Uri uri) {
+        mListener.onInsertComplete(uri);
+    }
+
+    @Override
+    protected void onUpdateComplete(int token, Object cookie, int result) {
+        PendingUpdate update = (PendingUpdate) cookie;
+        if (mPendingUpdates.get(update.uri) == update) {
+            mPendingUpdates.remove(update.uri);
+        }
+        mListener.onUpdateComplete(result);
+    }
+
+    @Override
+    protected Handler createHandler(Looper looper) {
+        return new SafeWorkerHandler(looper);
+    }
+
+    /**
+     * Runs on the thread that created the {@link PetWriter}.
+     */
+    private void onWriteFailed(Object cookie, Uri uri, RuntimeException error) {
+        if (cookie instanceof PendingUpdate && mPendingUpdates.get(uri) == cookie) {
+            mPendingUpdates.remove(uri);
+        }
+        mListener.onWriteFailed(uri, error);
+    }
+
+    /**
+     * Skips updates that were merged into a later one, and hands exceptions of the provider back
+     * to the thread that created the {@link PetWriter}.
+     */
+    private class SafeWorkerHandler extends WorkerHandler {
+
+        SafeWorkerHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            final WorkerArgs args = (WorkerArgs) msg.obj;
+            if (args.cookie instanceof PendingUpdate && !((PendingUpdate) args.cookie).take()) {
+                return;
+            }
+            try {
+                super.handleMessage(msg);
+            } catch (IllegalArgumentException | SQLException e) {
+                final RuntimeException error = e;
+                args.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onWriteFailed(args.cookie, args.uri, error);
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    protected void onDeleteComplete(int token, Object cookie, int result) {
+        mListener.onDeleteComplete(result);
+    }
+}
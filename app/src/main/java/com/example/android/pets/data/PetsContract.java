@@ -10,24 +10,323 @@ public class PetsContract {
     static final String CONTENT_AUTHORITY = "com.example.android.pets";
     static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_PETS = "Pets";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_BY_GENDER = "by_gender";
+    public static final String PATH_BY_BREED = "by_breed";
+    public static final String PATH_WEIGHT = "weight";
+    public static final String PATH_PHOTO = "photo";
+    public static final String PATH_THUMBNAIL = "thumbnail";
+    public static final String PATH_CHANGES = "changes";
+    public static final String PATH_SHELTERS = "shelters";
+    public static final String PATH_ALL_SHELTERS = "all";
+
+    /**
+     * The shelter of {@link PetsEntry#CONTENT_URI} and the URIs under it. Every other shelter
+     * keeps its pets in a database of its own, under {@link PetsEntry#buildShelterUri(long)}.
+     */
+    public static final long DEFAULT_SHELTER = 0;
+
+    /**
+     * {@link android.content.ContentResolver#call} method that returns the provider metrics as
+     * text under {@link #KEY_METRICS}. Pass {@link #KEY_RESET} as true in the extras to clear
+     * them after reading.
+     */
+    public static final String METHOD_DUMP_METRICS = "dump_metrics";
+    public static final String KEY_METRICS = "metrics";
+    public static final String KEY_RESET = "reset";
+
+    /**
+     * {@link android.content.ContentResolver#call} methods for the purge of deleted pets.
+     * {@link #METHOD_COMPACT} starts a purge in the background if none is running, and both
+     * return its progress under {@link #KEY_PURGED_ROWS}, {@link #KEY_PENDING_ROWS},
+     * {@link #KEY_FREED_PAGES} and {@link #KEY_RUNNING}.
+     */
+    public static final String METHOD_COMPACT = "compact";
+    public static final String METHOD_COMPACTION_PROGRESS = "compaction_progress";
+    public static final String KEY_PURGED_ROWS = "purged_rows";
+    public static final String KEY_PENDING_ROWS = "pending_rows";
+    public static final String KEY_FREED_PAGES = "freed_pages";
+    public static final String KEY_RUNNING = "running";
+
+    /**
+     * {@link android.content.ContentResolver#call} method that returns live pets as one packed
+     * block of records under {@link #KEY_RECORDS}, decoded with {@link PetRecords}. Pass the
+     * columns to read besides the id in {@link #KEY_COLUMNS}, all of them if left out, and an
+     * inclusive id range in {@link #KEY_FROM_ID} and {@link #KEY_TO_ID}. A block is capped in
+     * size, when the range does not fit {@link #KEY_NEXT_ID} holds the id to continue from,
+     * otherwise -1.
+     *
+     * This and the compaction methods work on the shelter whose id is passed as the arg of the
+     * call, or the default shelter when it is null.
+     */
+    public static final String METHOD_BULK_FETCH = "bulk_fetch";
+    public static final String KEY_COLUMNS = "columns";
+    public static final String KEY_FROM_ID = "from_id";
+    public static final String KEY_TO_ID = "to_id";
+    public static final String KEY_RECORDS = "records";
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_NEXT_ID = "next_id";
+
+    /**
+     * {@link android.content.ContentResolver#call} method that looks for pets like the one
+     * described by the extras, under the column names {@link PetsEntry#COLUMN_NAME},
+     * {@link PetsEntry#COLUMN_BREED}, {@link PetsEntry#COLUMN_GENDER} and
+     * {@link PetsEntry#COLUMN_WEIGHT}. It returns their ids under {@link #KEY_DUPLICATE_IDS}
+     * and how alike they are, from 0 to 1, under {@link #KEY_SCORES}, best first.
+     */
+    public static final String METHOD_FIND_DUPLICATES = "find_duplicates";
+
+    /**
+     * {@link android.content.ContentResolver#call} method that scans the pets table for pairs
+     * of duplicates, starting at the id in {@link #KEY_FROM_ID}. Pair i is the pets
+     * {@link #KEY_IDS}[i] and {@link #KEY_DUPLICATE_IDS}[i], the first having the lower id, with
+     * {@link #KEY_SCORES}[i]. The number of pairs per call is capped, when the scan stops early
+     * {@link #KEY_NEXT_ID} holds the id to continue from, otherwise -1. It reads the whole
+     * table, so call it off the main thread.
+     */
+    public static final String METHOD_SCAN_DUPLICATES = "scan_duplicates";
+    public static final String KEY_IDS = "ids";
+    public static final String KEY_DUPLICATE_IDS = "duplicate_ids";
+    public static final String KEY_SCORES = "scores";
 
     public static abstract class PetsEntry implements BaseColumns {
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,PATH_PETS);
 
+        /**
+         * The pets of every shelter, queried shelter by shelter and merged, with the shelter of
+         * each pet in {@link #COLUMN_SHELTER}. Ids are only unique within a shelter. It takes the
+         * filter, typed sort and position paging parameters of {@link #CONTENT_URI}, the rows
+         * come in name order when there is no typed sort, and it is read only.
+         */
+        public static final Uri CONTENT_ALL_SHELTERS_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SHELTERS)
+                .appendPath(PATH_ALL_SHELTERS)
+                .appendPath(PATH_PETS)
+                .build();
+
+        /**
+         * Full-text search over name and breed, pass the words to look for in {@link #QUERY_SEARCH}.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * Aggregates over the pets table, one small cursor each. They take the same filter
+         * parameters as {@link #CONTENT_URI}, and a selection.
+         *
+         * {@link #CONTENT_COUNT_BY_GENDER_URI} has one row per gender with {@link #COLUMN_GENDER}
+         * and {@link #COLUMN_COUNT}. {@link #CONTENT_COUNT_BY_BREED_URI} has one row per breed
+         * with {@link #COLUMN_BREED} and {@link #COLUMN_COUNT}, most common first.
+         * {@link #CONTENT_WEIGHT_STATS_URI} has a single row with {@link #COLUMN_COUNT},
+         * {@link #COLUMN_MIN_WEIGHT}, {@link #COLUMN_MAX_WEIGHT} and {@link #COLUMN_AVG_WEIGHT}.
+         */
+        public static final Uri CONTENT_STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+        public static final Uri CONTENT_COUNT_BY_GENDER_URI = Uri.withAppendedPath(CONTENT_STATS_URI, PATH_BY_GENDER);
+        public static final Uri CONTENT_COUNT_BY_BREED_URI = Uri.withAppendedPath(CONTENT_STATS_URI, PATH_BY_BREED);
+        public static final Uri CONTENT_WEIGHT_STATS_URI = Uri.withAppendedPath(CONTENT_STATS_URI, PATH_WEIGHT);
+
         public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        /**
+         * Rows of the change log after the sequence number in {@link #QUERY_SINCE}, see
+         * {@link #buildChangesUri(long)}.
+         */
+        public static final Uri CONTENT_CHANGES_URI = Uri.withAppendedPath(CONTENT_URI, PATH_CHANGES);
+
+        public static final String CONTENT_CHANGES_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        public static final String CONTENT_STATS_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
         /**
          * table name and column names
          */
-        public static final String TABLE_NAME = "Pets";
+        public static final String TABLE_NAME = PetSchema.TABLE_NAME;
         public static final String COLUMN_ID = BaseColumns._ID;
-        public static final String COLUMN_NAME= "name";
-        public static final String COLUMN_BREED = "breed";
-        public static final String COLUMN_GENDER = "gender";
-        public static final String COLUMN_WEIGHT = "weight";
+        public static final String COLUMN_NAME = PetSchema.COLUMN_NAME;
+        public static final String COLUMN_BREED = PetSchema.COLUMN_BREED;
+        public static final String COLUMN_GENDER = PetSchema.COLUMN_GENDER;
+        public static final String COLUMN_WEIGHT = PetSchema.COLUMN_WEIGHT;
+
+        /**
+         * File name of the pet's photo, or null. The image itself is a file, read it through
+         * {@link #buildPhotoUri(long)} or {@link #buildThumbnailUri(long, int)}.
+         */
+        public static final String COLUMN_PHOTO = PetSchema.COLUMN_PHOTO;
+
+        /**
+         * Set to 1 when a pet is deleted. Deleted pets are left out of every query and purged
+         * later in the background, so a delete only costs a flag write.
+         */
+        public static final String COLUMN_DELETED = PetSchema.COLUMN_DELETED;
+
+        /**
+         * The shelter of a pet, only in rows of {@link #CONTENT_ALL_SHELTERS_URI}.
+         */
+        public static final String COLUMN_SHELTER = "shelter";
+
+        /**
+         * Columns of the aggregate cursors.
+         */
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+        public static final String COLUMN_AVG_WEIGHT = "avg_weight";
+
+        public static final String INDEX_NAME = PetSchema.INDEX_NAME;
+
+        /**
+         * Indexes behind the filter parameters and the aggregates. Gender is indexed together
+         * with weight, so weight stats of one gender never read the table.
+         */
+        public static final String INDEX_BREED = PetSchema.INDEX_BREED;
+        public static final String INDEX_GENDER = PetSchema.INDEX_GENDER;
+        public static final String INDEX_WEIGHT = PetSchema.INDEX_WEIGHT;
+
+        /**
+         * FTS4 table that shadows name and breed of the pets table, keyed by docid = _id.
+         */
+        public static final String FTS_TABLE_NAME = PetSchema.FTS_TABLE_NAME;
+
+        /**
+         * Key and value table for the state of the pets table. Deleting all pets only moves the
+         * watermark kept here, every pet with an id up to it counts as deleted.
+         */
+        public static final String META_TABLE_NAME = PetSchema.META_TABLE_NAME;
+
+        /**
+         * Change log of the pets table, written by triggers. Every insert, update and delete of a
+         * pet adds a row with the next sequence number.
+         */
+        public static final String CHANGES_TABLE_NAME = PetSchema.CHANGES_TABLE_NAME;
+
+        /**
+         * Trigrams of every pet's name, one row per trigram and pet in {@link #COLUMN_TRIGRAM}
+         * and {@link #COLUMN_PET_ID}, written by triggers. The blocking index of
+         * {@link PetDuplicates}.
+         */
+        public static final String TRIGRAMS_TABLE_NAME = PetSchema.TRIGRAMS_TABLE_NAME;
+        public static final String COLUMN_TRIGRAM = PetSchema.COLUMN_TRIGRAM;
+        public static final String INDEX_TRIGRAMS_PET = PetSchema.INDEX_TRIGRAMS_PET;
+
+        /**
+         * The number of pets under every trigram of the index, written by triggers.
+         */
+        public static final String TRIGRAM_COUNTS_TABLE_NAME = PetSchema.TRIGRAM_COUNTS_TABLE_NAME;
+
+        /**
+         * The integers from 1 to {@link PetSchema#MAX_NAME_TRIGRAMS}, which the trigram
+         * triggers join with to cut a name into trigrams.
+         */
+        public static final String NUMBERS_TABLE_NAME = PetSchema.NUMBERS_TABLE_NAME;
+
+        /**
+         * Columns of the change log and of {@link #CONTENT_CHANGES_URI}. Rows of the changes URI
+         * also hold the pet's current columns for inserts and updates.
+         */
+        public static final String COLUMN_SEQUENCE = PetSchema.COLUMN_SEQUENCE;
+        public static final String COLUMN_PET_ID = PetSchema.COLUMN_PET_ID;
+        public static final String COLUMN_OPERATION = PetSchema.COLUMN_OPERATION;
+
+        /**
+         * Values of {@link #COLUMN_OPERATION}.
+         *
+         * {@link #OP_DELETE_THROUGH} is a delete of all pets: every pet with an id up to
+         * {@link #COLUMN_PET_ID} is gone. {@link #OP_RESYNC} means the log no longer reaches back
+         * to the sequence number asked for. Read the whole table again, then ask for the changes
+         * after the sequence number of that row.
+         */
+        public static final int OP_INSERT = PetSchema.OP_INSERT;
+        public static final int OP_UPDATE = PetSchema.OP_UPDATE;
+        public static final int OP_DELETE = PetSchema.OP_DELETE;
+        public static final int OP_DELETE_THROUGH = PetSchema.OP_DELETE_THROUGH;
+        public static final int OP_RESYNC = 5;
+
+        /**
+         * Query parameter holding the words for {@link #CONTENT_SEARCH_URI}. Every word is
+         * matched as a prefix, so partial input works for type-ahead.
+         */
+        public static final String QUERY_SEARCH = "q";
+
+        /**
+         * Query parameter of {@link #buildThumbnailUri(long, int)}, the edge of the square
+         * thumbnail in pixels.
+         */
+        public static final String QUERY_SIZE = "size";
+
+        /**
+         * Query parameter of {@link #CONTENT_CHANGES_URI}, the last sequence number the caller
+         * has seen. Zero for everything still in the log.
+         */
+        public static final String QUERY_SINCE = "since";
+
+        /**
+         * Query parameter of inserts into {@link #CONTENT_URI}. Set to true to leave out pets
+         * that look like one that is already there, see {@link PetsContract#METHOD_FIND_DUPLICATES}.
+         * An insert that is left out returns the URI of the pet it duplicates with
+         * {@link #QUERY_DUPLICATE} set, and a bulk insert does not count it.
+         */
+        public static final String QUERY_SKIP_DUPLICATES = "skip_duplicates";
+
+        /**
+         * Set to true on the URI an insert with {@link #QUERY_SKIP_DUPLICATES} returns when it
+         * left the pet out, so a caller can tell the pet already there from a new one.
+         */
+        public static final String QUERY_DUPLICATE = "duplicate";
+
+        /**
+         * Query parameters for reading the pets table one page at a time.
+         *
+         * {@link #QUERY_LIMIT} and {@link #QUERY_OFFSET} page by position. {@link #QUERY_AFTER_ID}
+         * and {@link #QUERY_AFTER_NAME} page by key: the page starts right after the given row in
+         * {@link #SORT_BY_NAME} order, or in {@link #SORT_BY_ID} order when only the id is given.
+         * With {@link #QUERY_SORT} on the same key and {@link #QUERY_DESCENDING}, it holds the rows
+         * right before the given one instead, nearest first.
+         */
+        public static final String QUERY_LIMIT = "limit";
+        public static final String QUERY_OFFSET = "offset";
+        public static final String QUERY_AFTER_ID = "after_id";
+        public static final String QUERY_AFTER_NAME = "after_name";
+
+        /**
+         * Typed filters for {@link #CONTENT_URI} and the aggregate URIs, ANDed with each other
+         * and with the selection. {@link #QUERY_GENDER} takes one of the gender values and
+         * {@link #QUERY_BREED} an exact breed. The weight bounds are inclusive.
+         */
+        public static final String QUERY_GENDER = "gender";
+        public static final String QUERY_BREED = "breed";
+        public static final String QUERY_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_MAX_WEIGHT = "max_weight";
+
+        /**
+         * Typed sort for {@link #CONTENT_URI}, one of {@link #SORT_KEY_NAME}, {@link #SORT_KEY_BREED},
+         * {@link #SORT_KEY_WEIGHT} or {@link #SORT_KEY_ID}. Ties are broken by id. Set
+         * {@link #QUERY_DESCENDING} to true to reverse it. It cannot be combined with a sort
+         * order, and keyset paging only supports name and id.
+         */
+        public static final String QUERY_SORT = "sort";
+        public static final String QUERY_DESCENDING = "desc";
+
+        public static final String SORT_KEY_NAME = COLUMN_NAME;
+        public static final String SORT_KEY_BREED = COLUMN_BREED;
+        public static final String SORT_KEY_WEIGHT = COLUMN_WEIGHT;
+        public static final String SORT_KEY_ID = COLUMN_ID;
+
+        /**
+         * Query parameters of change notification URIs, each one holding a comma separated list
+         * of the ids that were inserted, updated or deleted. See {@link PetChanges}.
+         */
+        public static final String QUERY_INSERTED = "inserted";
+        public static final String QUERY_UPDATED = "updated";
+        public static final String QUERY_DELETED = "deleted";
+
+        /**
+         * Sort orders that are served straight from an index.
+         */
+        public static final String SORT_BY_ID = COLUMN_ID + " ASC";
+        public static final String SORT_BY_NAME = COLUMN_NAME + " ASC, " + COLUMN_ID + " ASC";
 
 
         /**
@@ -45,7 +344,170 @@ public class PetsContract {
             }
             return false;
         }
+
+        /**
+         * Build the pets URI of a shelter, {@code /shelters/{id}/Pets}. Everything under
+         * {@link #CONTENT_URI} works the same under it, on the shelter's own database, and
+         * change notifications of the shelter go to it. The default shelter is
+         * {@link #CONTENT_URI} itself. The first insert into a shelter creates it, anything
+         * else on a shelter that does not exist yet throws IllegalArgumentException.
+         */
+        public static Uri buildShelterUri(long shelterId) {
+            if (shelterId == DEFAULT_SHELTER) {
+                return CONTENT_URI;
+            }
+            return BASE_CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SHELTERS)
+                    .appendPath(String.valueOf(shelterId))
+                    .appendPath(PATH_PETS)
+                    .build();
+        }
+
+        /**
+         * Build a URI for the first page of pets of the given size, by position.
+         */
+        public static Uri buildPageUri(int limit, int offset) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_OFFSET, String.valueOf(offset))
+                    .build();
+        }
+
+        /**
+         * Add the filter and sort parameters of a {@link Filter} to a URI builder.
+         */
+        public static Uri buildFilteredUri(Uri uri, Filter filter) {
+            return filter.appendTo(uri.buildUpon()).build();
+        }
+
+        /**
+         * Build the URI of a pet's photo, to open with
+         * {@link ContentResolver#openFileDescriptor(Uri, String)} in read mode.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_PHOTO)
+                    .build();
+        }
+
+        /**
+         * Build the URI of a square, center cropped JPEG thumbnail of a pet's photo with the
+         * given edge in pixels. Thumbnails are made once and kept in a disk cache.
+         */
+        public static Uri buildThumbnailUri(long id, int size) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_THUMBNAIL)
+                    .appendQueryParameter(QUERY_SIZE, String.valueOf(size))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the changes after the given sequence number. Only the last change of
+         * each pet is returned, in sequence order, so the result grows with the number of pets
+         * changed and not with the table. Continue from the highest {@link #COLUMN_SEQUENCE}
+         * read.
+         */
+        public static Uri buildChangesUri(long since) {
+            return CONTENT_CHANGES_URI.buildUpon()
+                    .appendQueryParameter(QUERY_SINCE, String.valueOf(since))
+                    .build();
+        }
+
+        /**
+         * Build a search URI for the given user input.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_SEARCH, query)
+                    .build();
+        }
+
+        /**
+         * Build a URI for the page of pets that follows the given row in name order.
+         * Pass a null name to page in id order instead.
+         */
+        public static Uri buildPageAfterUri(int limit, long afterId, String afterName) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_AFTER_ID, String.valueOf(afterId));
+            if (afterName != null) {
+                builder.appendQueryParameter(QUERY_AFTER_NAME, afterName);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Build a URI for the page of pets that comes before the given row in name order. The
+         * page is in descending order, the row right before the given one first.
+         */
+        public static Uri buildPageBeforeUri(int limit, long beforeId, String beforeName) {
+            return buildPageAfterUri(limit, beforeId, beforeName).buildUpon()
+                    .appendQueryParameter(QUERY_SORT, SORT_KEY_NAME)
+                    .appendQueryParameter(QUERY_DESCENDING, "true")
+                    .build();
+        }
     }
 
+    /**
+     * Builder for the typed filter and sort parameters of {@link PetsEntry}. Unset values are
+     * left out of the URI.
+     */
+    public static final class Filter {
+
+        private Integer mGender;
+        private String mBreed;
+        private Integer mMinWeight;
+        private Integer mMaxWeight;
+        private String mSortKey;
+        private boolean mDescending;
+
+        public Filter gender(int gender) {
+            if (!PetsEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Invalid gender " + gender);
+            }
+            mGender = gender;
+            return this;
+        }
+
+        public Filter breed(String breed) {
+            mBreed = breed;
+            return this;
+        }
+
+        public Filter weightBetween(int minWeight, int maxWeight) {
+            mMinWeight = minWeight;
+            mMaxWeight = maxWeight;
+            return this;
+        }
+
+        public Filter sortBy(String sortKey, boolean descending) {
+            mSortKey = sortKey;
+            mDescending = descending;
+            return this;
+        }
 
+        Uri.Builder appendTo(Uri.Builder builder) {
+            if (mGender != null) {
+                builder.appendQueryParameter(PetsEntry.QUERY_GENDER, String.valueOf(mGender));
+            }
+            if (mBreed != null) {
+                builder.appendQueryParameter(PetsEntry.QUERY_BREED, mBreed);
+            }
+            if (mMinWeight != null) {
+                builder.appendQueryParameter(PetsEntry.QUERY_MIN_WEIGHT, String.valueOf(mMinWeight));
+            }
+            if (mMaxWeight != null) {
+                builder.appendQueryParameter(PetsEntry.QUERY_MAX_WEIGHT, String.valueOf(mMaxWeight));
+            }
+            if (mSortKey != null) {
+                builder.appendQueryParameter(PetsEntry.QUERY_SORT, mSortKey);
+                if (mDescending) {
+                    builder.appendQueryParameter(PetsEntry.QUERY_DESCENDING, "true");
+                }
+            }
+            return builder;
+        }
+    }
 }
@@ -0,0 +1,183 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database of the first version one step at a time up to
+ * {@link PetDbHelper#DATABASE_VERSION}, checks the pets after every step, and compares the
+ * result with a database created at the current version.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetMigrationsTest {
+
+    /**
+     * The schema of version 1, as it shipped.
+     */
+    private static final String SQL_CREATE_VERSION_1 = "CREATE TABLE Pets("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "breed TEXT, "
+            + "gender INTEGER NOT NULL, "
+            + "weight INTEGER NOT NULL DEFAULT 0);";
+
+    /**
+     * Enough pets for the time each step logs to mean something.
+     */
+    private static final int SEEDED_PETS = 1000;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL(SQL_CREATE_VERSION_1);
+        mDatabase.execSQL("INSERT INTO Pets (name, breed, gender, weight) VALUES ('Tommy', 'Pomeranian', 1, 4);");
+        mDatabase.execSQL("INSERT INTO Pets (name, breed, gender, weight) VALUES ('Garfield', NULL, 0, 14);");
+        for (int i = 0; i < SEEDED_PETS; i++) {
+            mDatabase.execSQL("INSERT INTO Pets (name, breed, gender, weight) VALUES (?, ?, ?, ?);",
+                    new Object[]{"Pet " + i, "Breed " + (i % 10), i % 3, i % 40});
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void everyStepKeepsThePets() {
+        for (int version = 1; version < PetDbHelper.DATABASE_VERSION; version++) {
+            mDatabase.beginTransaction();
+            try {
+                PetMigrations.migrate(mDatabase, version, version + 1);
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+            assertPetsKept(version + 1);
+        }
+    }
+
+    @Test
+    public void upgradedSchemaMatchesCreatedSchema() {
+        mDatabase.beginTransaction();
+        try {
+            PetMigrations.migrate(mDatabase, 1, PetDbHelper.DATABASE_VERSION);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        SQLiteDatabase created = SQLiteDatabase.create(null);
+        try {
+            new PetDbHelper(RuntimeEnvironment.application).onCreate(created);
+            assertEquals(describeSchema(created), describeSchema(mDatabase));
+        } finally {
+            created.close();
+        }
+    }
+
+    private void assertPetsKept(int version) {
+        String at = "at version " + version;
+        assertEquals(at, SEEDED_PETS + 2, DatabaseUtils.queryNumEntries(mDatabase, PetsEntry.TABLE_NAME));
+
+        Cursor cursor = mDatabase.rawQuery("SELECT name, breed, gender, weight FROM Pets"
+                + " WHERE _id IN (1, 2) ORDER BY _id", null);
+        try {
+            assertTrue(at, cursor.moveToNext());
+            assertEquals(at, "Tommy", cursor.getString(0));
+            assertEquals(at, "Pomeranian", cursor.getString(1));
+            assertEquals(at, 1, cursor.getInt(2));
+            assertEquals(at, 4, cursor.getInt(3));
+            assertTrue(at, cursor.moveToNext());
+            assertEquals(at, "Garfield", cursor.getString(0));
+            assertNull(at, cursor.getString(1));
+            assertEquals(at, 0, cursor.getInt(2));
+            assertEquals(at, 14, cursor.getInt(3));
+        } finally {
+            cursor.close();
+        }
+
+        if (version >= 2) {
+            assertTrue(at, hasObject("index", PetsEntry.INDEX_NAME));
+        }
+        if (version >= 3) {
+            assertEquals(at, 1, DatabaseUtils.longForQuery(mDatabase,
+                    "SELECT docid FROM Pets_fts WHERE Pets_fts MATCH 'pomeranian'", null));
+        }
+        if (version >= 4) {
+            assertTrue(at, hasObject("index", PetsEntry.INDEX_BREED));
+            assertTrue(at, hasObject("index", PetsEntry.INDEX_GENDER));
+            assertTrue(at, hasObject("index", PetsEntry.INDEX_WEIGHT));
+        }
+        if (version >= 5) {
+            assertEquals(at, SEEDED_PETS + 2, DatabaseUtils.queryNumEntries(mDatabase,
+                    PetsEntry.TABLE_NAME, PetSchema.buildLiveSelection(null)));
+        }
+        if (version >= 6) {
+            assertEquals(at, SEEDED_PETS + 2, DatabaseUtils.queryNumEntries(mDatabase,
+                    PetsEntry.TABLE_NAME, PetsEntry.COLUMN_PHOTO + " IS NULL"));
+        }
+        if (version >= 7) {
+            assertEquals(at, 0, DatabaseUtils.queryNumEntries(mDatabase, PetsEntry.CHANGES_TABLE_NAME));
+        }
+        if (version >= 8) {
+            // " tommy " has a trigram starting at each of its 5 letters
+            assertEquals(at, 5, DatabaseUtils.queryNumEntries(mDatabase,
+                    PetsEntry.TRIGRAMS_TABLE_NAME, PetsEntry.COLUMN_PET_ID + " = 1"));
+        }
+        if (version >= 9) {
+            assertTrue(at, hasObject("trigger", PetsEntry.CHANGES_TABLE_NAME + "_trim"));
+        }
+        if (version >= 10) {
+            // The counts add up to the index, and only Tommy has "tom"
+            assertEquals(at, DatabaseUtils.queryNumEntries(mDatabase, PetsEntry.TRIGRAMS_TABLE_NAME),
+                    DatabaseUtils.longForQuery(mDatabase, "SELECT SUM(" + PetSchema.COLUMN_PET_COUNT
+                            + ") FROM " + PetsEntry.TRIGRAM_COUNTS_TABLE_NAME, null));
+            assertEquals(at, 1, DatabaseUtils.longForQuery(mDatabase, PetSchema.SQL_QUERY_TRIGRAM_COUNT,
+                    new String[]{"tom"}));
+        }
+    }
+
+    private boolean hasObject(String type, String name) {
+        return DatabaseUtils.queryNumEntries(mDatabase, "sqlite_master", "type = ? AND name = ?",
+                new String[]{type, name}) == 1;
+    }
+
+    /**
+     * The tables, indexes and triggers of a database with the statements that made them, as
+     * SQLite keeps them in sqlite_master. A column added by ALTER TABLE is part of the table's
+     * statement there too.
+     */
+    private static TreeSet<String> describeSchema(SQLiteDatabase database) {
+        TreeSet<String> schema = new TreeSet<>();
+        Cursor cursor = database.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%'", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": "
+                        + cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.pets.data;
+
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Blocks of pet records packed by {@link PetRecords.Writer} and read back by
+ * {@link PetRecords#decode(byte[])}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetRecordsTest {
+
+    @Test
+    public void roundTripsEveryColumn() {
+        MatrixCursor cursor = new MatrixCursor(Pet.PROJECTION);
+        cursor.addRow(new Object[]{1L, "Tommy", "Pomeranian", PetsEntry.GENDER_MALE, 4, "tommy.jpg"});
+        cursor.addRow(new Object[]{2L, "Garfield", null, PetsEntry.GENDER_UNKNOWN, 14, null});
+        cursor.addRow(new Object[]{900000L, "Zoë", "", PetsEntry.GENDER_FEMALE, 0, ""});
+
+        PetSnapshot snapshot = PetRecords.decode(encode(PetRecords.ALL_COLUMNS, cursor));
+
+        assertEquals(3, snapshot.size());
+        assertPet(snapshot, 0, 1, "Tommy", "Pomeranian", PetsEntry.GENDER_MALE, 4, "tommy.jpg");
+        assertPet(snapshot, 1, 2, "Garfield", null, PetsEntry.GENDER_UNKNOWN, 14, null);
+        assertPet(snapshot, 2, 900000, "Zoë", "", PetsEntry.GENDER_FEMALE, 0, "");
+    }
+
+    @Test
+    public void roundTripsNegativeAndExtremeNumbers() {
+        int[] weights = {-1, -2, -64, -65, Integer.MIN_VALUE, 63, 64, Integer.MAX_VALUE};
+        MatrixCursor cursor = new MatrixCursor(Pet.PROJECTION);
+        for (int i = 0; i < weights.length; i++) {
+            // Snapshots keep the gender in a byte
+            cursor.addRow(new Object[]{i + 1L, "Pet " + i, null, -i, weights[i], null});
+        }
+
+        PetSnapshot snapshot = PetRecords.decode(encode(PetRecords.ALL_COLUMNS, cursor));
+
+        assertEquals(weights.length, snapshot.size());
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(-i, snapshot.getGender(i));
+            assertEquals(weights[i], snapshot.getWeight(i));
+        }
+    }
+
+    @Test
+    public void smallNegativeNumbersTakeOneByte() {
+        MatrixCursor positive = new MatrixCursor(Pet.PROJECTION);
+        positive.addRow(new Object[]{1L, null, null, 0, 1, null});
+        MatrixCursor negative = new MatrixCursor(Pet.PROJECTION);
+        negative.addRow(new Object[]{1L, null, null, 0, -1, null});
+
+        assertEquals(encode(PetRecords.COLUMN_WEIGHT, positive).length,
+                encode(PetRecords.COLUMN_WEIGHT, negative).length);
+    }
+
+    @Test
+    public void leavesOutColumnsNotInTheMask() {
+        MatrixCursor cursor = new MatrixCursor(Pet.PROJECTION);
+        cursor.addRow(new Object[]{5L, "Tommy", "Pomeranian", PetsEntry.GENDER_MALE, -3, "tommy.jpg"});
+
+        PetSnapshot snapshot = PetRecords.decode(encode(
+                PetRecords.columnMask(new String[]{PetsEntry.COLUMN_ID, PetsEntry.COLUMN_WEIGHT}),
+                cursor));
+
+        assertPet(snapshot, 0, 5, null, null, PetsEntry.GENDER_UNKNOWN, -3, null);
+    }
+
+    @Test
+    public void rejectsATruncatedBlock() {
+        MatrixCursor cursor = new MatrixCursor(Pet.PROJECTION);
+        cursor.addRow(new Object[]{1L, "Tommy", "Pomeranian", PetsEntry.GENDER_MALE, 4, null});
+        byte[] block = encode(PetRecords.ALL_COLUMNS, cursor);
+
+        try {
+            PetRecords.decode(Arrays.copyOf(block, block.length - 1));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Truncated pet records", e.getMessage());
+        }
+    }
+
+    private static byte[] encode(int mask, MatrixCursor cursor) {
+        PetRecords.Writer writer = new PetRecords.Writer(mask);
+        while (cursor.moveToNext()) {
+            writer.addRow(cursor);
+        }
+        cursor.close();
+        return writer.toByteArray();
+    }
+
+    private static void assertPet(PetSnapshot snapshot, int position, long id, String name,
+                                  String breed, int gender, int weight, String photo) {
+        assertEquals(id, snapshot.getId(position));
+        assertEquals(name, snapshot.getName(position));
+        assertEquals(breed, snapshot.getBreed(position));
+        assertEquals(gender, snapshot.getGender(position));
+        assertEquals(weight, snapshot.getWeight(position));
+        assertEquals(photo, snapshot.getPhoto(position));
+    }
+}
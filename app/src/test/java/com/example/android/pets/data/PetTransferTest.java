@@ -0,0 +1,133 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetsContract.PetsEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Parsing of imported CSV records into the values of a pet.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetTransferTest {
+
+    private static final String[] HEADER = {"_id", "name", "breed", "gender", "weight"};
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        PetTransfer.CsvReader reader = new PetTransfer.CsvReader(new StringReader(
+                "1,\"Tommy, Jr.\",\"The \"\"best\"\" dog\",1,4\r\n2,Garfield,,0,14\r\n"));
+
+        assertArrayEquals(new String[]{"1", "Tommy, Jr.", "The \"best\" dog", "1", "4"},
+                reader.readRecord());
+        assertArrayEquals(new String[]{"2", "Garfield", "", "0", "14"}, reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void countsPhysicalLinesOfMultiLineRecords() throws IOException {
+        PetTransfer.CsvReader reader = new PetTransfer.CsvReader(new StringReader(
+                "_id,name,breed,gender,weight\n"
+                        + "1,Tommy,\"Pomeranian\nfrom\nGermany\",1,4\n"
+                        + "\n"
+                        + "2,Garfield,,0,14\n"));
+
+        reader.readRecord();
+        assertEquals(1, reader.getLine());
+        assertEquals("Pomeranian\nfrom\nGermany", reader.readRecord()[2]);
+        assertEquals(2, reader.getLine());
+        assertArrayEquals(new String[]{""}, reader.readRecord());
+        assertEquals(5, reader.getLine());
+        assertEquals("Garfield", reader.readRecord()[1]);
+        assertEquals(6, reader.getLine());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void unterminatedQuoteNamesTheLineItStartedOn() throws IOException {
+        PetTransfer.CsvReader reader = new PetTransfer.CsvReader(new StringReader(
+                "1,Tommy,,1,4\n2,\"Garfield\n,,0,14\n"));
+        reader.readRecord();
+        try {
+            reader.readRecord();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("line 2"));
+        }
+    }
+
+    @Test
+    public void readsThePetOfARecord() throws IOException {
+        ContentValues values = PetTransfer.toValues(HEADER,
+                new String[]{"7", "Tommy", "Pomeranian", " 1 ", ""}, 2);
+
+        assertEquals("Tommy", values.getAsString(PetsEntry.COLUMN_NAME));
+        assertEquals("Pomeranian", values.getAsString(PetsEntry.COLUMN_BREED));
+        assertEquals(PetsEntry.GENDER_MALE, (int) values.getAsInteger(PetsEntry.COLUMN_GENDER));
+        // Imported pets get new ids, and a missing weight takes the default of the table
+        assertFalse(values.containsKey(PetsEntry.COLUMN_ID));
+        assertFalse(values.containsKey(PetsEntry.COLUMN_WEIGHT));
+    }
+
+    @Test
+    public void readsAnEmptyBreedAsNull() throws IOException {
+        ContentValues values = PetTransfer.toValues(HEADER,
+                new String[]{"2", "Garfield", "", "0", "14"}, 3);
+
+        assertTrue(values.containsKey(PetsEntry.COLUMN_BREED));
+        assertNull(values.getAsString(PetsEntry.COLUMN_BREED));
+        assertEquals(14, (int) values.getAsInteger(PetsEntry.COLUMN_WEIGHT));
+    }
+
+    @Test
+    public void rejectsAMissingGenderWithItsLine() {
+        assertRejected(new String[]{"name", "breed"}, new String[]{"Tommy", "Pomeranian"},
+                "Pet on line 3 has no gender");
+    }
+
+    @Test
+    public void rejectsAnInvalidGenderWithItsLine() {
+        assertRejected(HEADER, new String[]{"1", "Tommy", "", "7", "4"},
+                "Invalid gender on line 3: 7");
+    }
+
+    @Test
+    public void rejectsAMissingName() {
+        assertRejected(new String[]{"breed", "gender"}, new String[]{"Pomeranian", "1"},
+                "Pet on line 3 has no name");
+    }
+
+    @Test
+    public void rejectsANegativeWeight() {
+        assertRejected(HEADER, new String[]{"1", "Tommy", "", "1", "-4"},
+                "Invalid weight on line 3: -4");
+    }
+
+    @Test
+    public void rejectsANumberThatIsNot() {
+        assertRejected(HEADER, new String[]{"1", "Tommy", "", "1", "four"},
+                "Invalid weight on line 3: four");
+    }
+
+    private static void assertRejected(String[] header, String[] record, String message) {
+        try {
+            PetTransfer.toValues(header, record, 3);
+            fail();
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.pets.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The part of the first catalog page that prewarming takes off the first query: opening a
+ * connection and preparing and reading the page on it.
+ *
+ * coldFirstPage opens a new connection and reads the page on it, what the first query paid when
+ * the provider opened the database on demand. prewarmedFirstPage reads it on a connection that
+ * was opened and read the page once, as PetStartup leaves it. Every invocation gets a fresh
+ * connection, so the numbers do not depend on what an earlier invocation left in it.
+ *
+ * This is not a cold start. The JVM, sqlite-jdbc and the file of the database stay loaded, and
+ * the operating system keeps the file in its page cache after the first invocation, so neither
+ * number includes process start or reading the database from storage. Measure those on a device,
+ * see the README.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(3)
+@Warmup(iterations = 5)
+@Measurement(iterations = 50)
+public class PetColdStartBenchmark {
+
+    /** Same as PetDbHelper.PREWARM_PAGE_SIZE. */
+    private static final int PAGE_SIZE = 50;
+
+    private static final String SQL_FIRST_PAGE = PetDatabase.SQL_QUERY_CATALOG + " LIMIT " + PAGE_SIZE;
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private PetDatabase mDatabase;
+
+    /**
+     * Opened and primed before each prewarmedFirstPage invocation.
+     */
+    private Connection mPrewarmed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = PetDatabase.create(PetDatabase.Profile.DEFAULT, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mDatabase.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void prewarm() throws Exception {
+        mPrewarmed = mDatabase.open();
+        try (Statement statement = mPrewarmed.createStatement();
+             ResultSet resultSet = statement.executeQuery(SQL_FIRST_PAGE)) {
+            while (resultSet.next()) {
+                // Reading the page once leaves the schema parsed and its pages cached
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closePrewarmed() throws Exception {
+        mPrewarmed.close();
+    }
+
+    @Benchmark
+    public void coldFirstPage(Blackhole blackhole) throws Exception {
+        try (Connection connection = mDatabase.open()) {
+            readFirstPage(connection, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void prewarmedFirstPage(Blackhole blackhole) throws Exception {
+        readFirstPage(mPrewarmed, blackhole);
+    }
+
+    private static void readFirstPage(Connection connection, Blackhole blackhole) throws Exception {
+        try (PreparedStatement statement = connection.prepareStatement(SQL_FIRST_PAGE);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(resultSet.getString(2));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.pets.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The purge PetCompactor runs after a delete-all: removing every pet under the deleted
+ * watermark, one batch per transaction. Every call needs a table of deleted pets, so the table
+ * is refilled and deleted before each one and the purge is timed one shot at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PetCompactionBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"FRAMEWORK", "DEFAULT"})
+    public PetDatabase.Profile profile;
+
+    private PetDatabase mDatabase;
+    private Connection mConnection;
+    private PreparedStatement mPurge;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = PetDatabase.create(profile, 0);
+        mConnection = mDatabase.open();
+        mPurge = mConnection.prepareStatement(PetDatabase.SQL_PURGE_BELOW_WATERMARK);
+    }
+
+    @Setup(Level.Invocation)
+    public void fillAndDeleteAll() throws Exception {
+        mDatabase.seed(mConnection, rows);
+        try (Statement statement = mConnection.createStatement()) {
+            statement.executeUpdate(PetDatabase.SQL_DELETE_ALL);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mPurge.close();
+        mConnection.close();
+        mDatabase.delete();
+    }
+
+    @Benchmark
+    public int purgeBelowWatermark() throws Exception {
+        int purged = 0;
+        int batch;
+        do {
+            batch = mPurge.executeUpdate();
+            purged += batch;
+        } while (batch == PetDatabase.PURGE_BATCH_SIZE);
+        return purged;
+    }
+}
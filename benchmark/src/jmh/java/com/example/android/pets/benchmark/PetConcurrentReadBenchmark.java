@@ -0,0 +1,234 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress test for reads while an import writes, with the threads of the app: the catalog's
+ * PetPager reads keyset pages on its one thread, PetQueryEngine reads single pets on its two, and
+ * the worker of PetWriter bulk-inserts 100 pets per transaction.
+ *
+ * Connections are handed out like the framework's pool does for each profile. With DEFAULT, in
+ * WAL mode, the writer has the primary connection and a read takes whichever of the other
+ * {@link #WAL_POOL_SIZE} - 1 connections is free, waiting if none is. With FRAMEWORK there is one
+ * connection and every read and write takes its turn on it. Sample time mode reports the p99
+ * latency of each kind of thread and throughput mode the operations per second.
+ *
+ * The thread counts are the app's. JMH cannot take them as parameters, so other counts are
+ * runs with -tg, in the name order of the methods: "-tg 4,1,1" has four engine readers next to
+ * the pager and the writer. The jmhReaderSweep task of the module runs 1, 2, 4 and 8 of them.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PetConcurrentReadBenchmark {
+
+    private static final int ROWS = 100000;
+
+    /**
+     * Connections of the framework's pool in WAL mode, the default of debug.sqlite.wal.connectionpool.
+     */
+    private static final int WAL_POOL_SIZE = 4;
+
+    /**
+     * Pets inserted by one writer transaction, like an import batch.
+     */
+    private static final int INSERT_BATCH = 100;
+
+    /**
+     * The page PetPager asks for after the last row it has, see PetsEntry.buildPageAfterUri.
+     */
+    private static final String SQL_QUERY_PAGE_AFTER = "SELECT " + PetSchema.COLUMN_ID + ", "
+            + PetSchema.COLUMN_NAME + ", " + PetSchema.COLUMN_BREED + ", " + PetSchema.COLUMN_GENDER
+            + ", " + PetSchema.COLUMN_WEIGHT + ", " + PetSchema.COLUMN_PHOTO
+            + " FROM " + PetSchema.TABLE_NAME
+            + " WHERE " + PetSchema.buildLiveSelection(null)
+            + " AND (" + PetSchema.COLUMN_NAME + " > ? OR (" + PetSchema.COLUMN_NAME + " = ? AND "
+            + PetSchema.COLUMN_ID + " > ?))"
+            + " ORDER BY " + PetSchema.COLUMN_NAME + " ASC, " + PetSchema.COLUMN_ID + " ASC LIMIT 50";
+
+    /**
+     * A connection with its statements prepared, as the framework caches them per connection.
+     */
+    static final class PooledConnection {
+
+        final Connection connection;
+        final PreparedStatement page;
+        final PreparedStatement byId;
+        final PreparedStatement insert;
+
+        PooledConnection(Connection connection) throws Exception {
+            this.connection = connection;
+            page = connection.prepareStatement(SQL_QUERY_PAGE_AFTER);
+            byId = connection.prepareStatement(PetDatabase.SQL_QUERY_PET_BY_ID);
+            insert = connection.prepareStatement(PetDatabase.SQL_INSERT_PET);
+        }
+
+        void close() throws Exception {
+            page.close();
+            byId.close();
+            insert.close();
+            connection.close();
+        }
+    }
+
+    @State(Scope.Group)
+    public static class ConnectionPool {
+
+        @Param({"FRAMEWORK", "DEFAULT"})
+        public PetDatabase.Profile profile;
+
+        PetDatabase database;
+        PooledConnection primary;
+
+        /**
+         * Connections free for a read. Without WAL this only holds the primary connection, which
+         * the writer takes from it as well.
+         */
+        BlockingQueue<PooledConnection> readers;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            database = PetDatabase.create(profile, ROWS);
+            primary = new PooledConnection(database.open());
+            readers = new ArrayBlockingQueue<>(WAL_POOL_SIZE);
+            if (profile == PetDatabase.Profile.DEFAULT) {
+                for (int i = 1; i < WAL_POOL_SIZE; i++) {
+                    readers.add(new PooledConnection(database.open()));
+                }
+            } else {
+                readers.add(primary);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            for (PooledConnection reader : readers) {
+                if (reader != primary) {
+                    reader.close();
+                }
+            }
+            primary.close();
+            database.delete();
+        }
+
+        PooledConnection acquireReader() throws InterruptedException {
+            return readers.take();
+        }
+
+        void releaseReader(PooledConnection connection) {
+            readers.add(connection);
+        }
+
+        PooledConnection acquireWriter() throws InterruptedException {
+            return profile == PetDatabase.Profile.DEFAULT ? primary : readers.take();
+        }
+
+        void releaseWriter(PooledConnection connection) {
+            if (profile != PetDatabase.Profile.DEFAULT) {
+                readers.add(connection);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        final Random random = new Random();
+
+        /**
+         * The last row of the page the pager read, the next page starts after it.
+         */
+        String lastName = "";
+        long lastId;
+    }
+
+    @Benchmark
+    @Group("app")
+    @GroupThreads(1)
+    public void pagerReadPage(ConnectionPool pool, ThreadState state, Blackhole blackhole)
+            throws Exception {
+        PooledConnection connection = pool.acquireReader();
+        try {
+            PreparedStatement page = connection.page;
+            page.setString(1, state.lastName);
+            page.setString(2, state.lastName);
+            page.setLong(3, state.lastId);
+            int rows = 0;
+            try (ResultSet resultSet = page.executeQuery()) {
+                while (resultSet.next()) {
+                    state.lastId = resultSet.getLong(1);
+                    state.lastName = resultSet.getString(2);
+                    blackhole.consume(resultSet.getString(3));
+                    rows++;
+                }
+            }
+            if (rows == 0) {
+                // Scrolled to the end, start again from the top
+                state.lastName = "";
+                state.lastId = 0;
+            }
+        } finally {
+            pool.releaseReader(connection);
+        }
+    }
+
+    @Benchmark
+    @Group("app")
+    @GroupThreads(2)
+    public void engineReadPet(ConnectionPool pool, ThreadState state, Blackhole blackhole)
+            throws Exception {
+        PooledConnection connection = pool.acquireReader();
+        try {
+            connection.byId.setLong(1, 1 + state.random.nextInt(ROWS));
+            try (ResultSet resultSet = connection.byId.executeQuery()) {
+                while (resultSet.next()) {
+                    blackhole.consume(resultSet.getString(2));
+                }
+            }
+        } finally {
+            pool.releaseReader(connection);
+        }
+    }
+
+    @Benchmark
+    @Group("app")
+    @GroupThreads(1)
+    public void writerBulkInsert(ConnectionPool pool, ThreadState state) throws Exception {
+        PooledConnection connection = pool.acquireWriter();
+        try {
+            connection.connection.setAutoCommit(false);
+            try {
+                for (int i = 0; i < INSERT_BATCH; i++) {
+                    PetDatabase.bindRandomPet(connection.insert, state.random);
+                    connection.insert.executeUpdate();
+                }
+                connection.connection.commit();
+            } finally {
+                connection.connection.setAutoCommit(true);
+            }
+        } finally {
+            pool.releaseWriter(connection);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+
+/**
+ * A Pets database file with the schema and statements of the app, for benchmarks that run on the
+ * JVM.
+ *
+ * The SQL comes from PetSchema, which the build compiles into this module from the app's sources,
+ * so the benchmarks always run what the app ships.
+ */
+final class PetDatabase {
+
+    static final String SQL_INSERT_PET = PetSchema.SQL_INSERT_PET;
+
+    /**
+     * Bind the pet with {@link #bindRandomPet} and the id to {@link #UPDATE_ID_PARAMETER}.
+     */
+    static final String SQL_UPDATE_PET_BY_ID = PetSchema.SQL_UPDATE_PET_BY_ID;
+
+    static final int UPDATE_ID_PARAMETER = 6;
+
+    /**
+     * Moves the deleted watermark, what PetProvider runs to delete all pets.
+     */
+    static final String SQL_DELETE_ALL = PetSchema.SQL_DELETE_ALL_PETS;
+
+    /**
+     * Puts the deleted watermark back, so every pet is live again.
+     */
+    static final String SQL_RESET_WATERMARK = "UPDATE " + PetSchema.META_TABLE_NAME
+            + " SET value = 0 WHERE key = '" + PetSchema.META_DELETED_THROUGH_ID + "'";
+
+    /**
+     * Run until it removes fewer than {@link PetSchema#PURGE_BATCH_SIZE} rows, one batch per
+     * transaction, like PetCompactor.
+     */
+    static final String SQL_PURGE_BELOW_WATERMARK = PetSchema.SQL_PURGE_BELOW_WATERMARK;
+
+    static final int PURGE_BATCH_SIZE = PetSchema.PURGE_BATCH_SIZE;
+
+    private static final String COLUMNS = PetSchema.COLUMN_ID + ", " + PetSchema.COLUMN_NAME + ", "
+            + PetSchema.COLUMN_BREED + ", " + PetSchema.COLUMN_GENDER + ", "
+            + PetSchema.COLUMN_WEIGHT + ", " + PetSchema.COLUMN_PHOTO;
+
+    /**
+     * The live pets in name order, what the catalog asks the provider for.
+     */
+    static final String SQL_QUERY_CATALOG = "SELECT " + COLUMNS + " FROM " + PetSchema.TABLE_NAME
+            + " WHERE " + PetSchema.buildLiveSelection(null)
+            + " ORDER BY " + PetSchema.COLUMN_NAME + " ASC, " + PetSchema.COLUMN_ID + " ASC";
+
+    static final String SQL_QUERY_PET_BY_ID = "SELECT " + COLUMNS + " FROM " + PetSchema.TABLE_NAME
+            + " WHERE " + PetSchema.COLUMN_ID + " = ? AND " + PetSchema.buildLiveSelection(null);
+
+    private static final String[] NAMES = {
+            "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Milo", "Bailey", "Toto",
+            "Sadie", "Rocky", "Molly", "Bear", "Stella", "Tucker", "Zoe", "Duke", "Lola", "Binx" };
+
+    private static final String[] BREEDS = {
+            "Labrador", "Terrier", "Beagle", "Poodle", "Bulldog", "Tabby", "Siamese", "Persian",
+            "Bombay", "Maine Coon", "" };
+
+    /**
+     * Journal settings to compare, matching PetDbProfile.FRAMEWORK and PetDbProfile.DEFAULT.
+     */
+    enum Profile {
+        FRAMEWORK("DELETE", 2, 0, 0),
+        DEFAULT("WAL", 1, 8 * 1024, 64L * 1024 * 1024);
+
+        final String journalMode;
+        final int synchronous;
+        final int cacheSizeKb;
+        final long mmapSize;
+
+        Profile(String journalMode, int synchronous, int cacheSizeKb, long mmapSize) {
+            this.journalMode = journalMode;
+            this.synchronous = synchronous;
+            this.cacheSizeKb = cacheSizeKb;
+            this.mmapSize = mmapSize;
+        }
+    }
+
+    private final File mFile;
+    private final Profile mProfile;
+
+    private PetDatabase(File file, Profile profile) {
+        mFile = file;
+        mProfile = profile;
+    }
+
+    /**
+     * Create a fresh database in a temporary file holding the given number of pets.
+     */
+    static PetDatabase create(Profile profile, int rows) throws IOException, SQLException {
+        File file = File.createTempFile("Pets", ".db");
+        PetDatabase database = new PetDatabase(file, profile);
+        try (Connection connection = database.open(); Statement statement = connection.createStatement()) {
+            for (String sql : PetSchema.buildCreateStatements()) {
+                statement.execute(sql);
+            }
+            database.seed(connection, rows);
+        }
+        return database;
+    }
+
+    /**
+     * Open a new connection configured with the profile.
+     */
+    Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = " + mProfile.journalMode);
+            statement.execute("PRAGMA synchronous = " + mProfile.synchronous);
+            if (mProfile.cacheSizeKb != 0) {
+                statement.execute("PRAGMA cache_size = -" + mProfile.cacheSizeKb);
+            }
+            if (mProfile.mmapSize != 0) {
+                statement.execute("PRAGMA mmap_size = " + mProfile.mmapSize);
+            }
+            // Writers wait for each other instead of failing, like the framework's connection pool
+            statement.execute("PRAGMA busy_timeout = 10000");
+        }
+        return connection;
+    }
+
+    /**
+     * Insert pets with generated names in one transaction.
+     */
+    void seed(Connection connection, int rows) throws SQLException {
+        Random random = new Random(42);
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(SQL_INSERT_PET)) {
+            for (int i = 0; i < rows; i++) {
+                bindRandomPet(insert, random);
+                insert.executeUpdate();
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    static void bindRandomPet(PreparedStatement statement, Random random) throws SQLException {
+        statement.setString(1, NAMES[random.nextInt(NAMES.length)] + " " + random.nextInt(10000));
+        statement.setString(2, BREEDS[random.nextInt(BREEDS.length)]);
+        statement.setInt(3, random.nextInt(3));
+        statement.setInt(4, random.nextInt(60));
+        statement.setNull(5, Types.VARCHAR);
+    }
+
+    /**
+     * Remove the pets with an id above the given one and the change log, to undo the inserts of
+     * an iteration.
+     */
+    void truncate(Connection connection, long lastId) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM " + PetSchema.TABLE_NAME
+                    + " WHERE " + PetSchema.COLUMN_ID + " > " + lastId);
+            statement.executeUpdate("DELETE FROM " + PetSchema.CHANGES_TABLE_NAME);
+        }
+    }
+
+    void delete() {
+        mFile.delete();
+        new File(mFile.getPath() + "-wal").delete();
+        new File(mFile.getPath() + "-shm").delete();
+        new File(mFile.getPath() + "-journal").delete();
+    }
+}
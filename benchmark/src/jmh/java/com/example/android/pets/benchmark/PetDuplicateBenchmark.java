@@ -0,0 +1,254 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+import com.example.android.pets.data.PetTrigrams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duplicate detection over the trigram index, as PetDuplicates in the app runs it.
+ *
+ * The table holds the generated pets plus a copy of about 2% of them with one typo in the name,
+ * the way a pet entered twice at intake looks. scan times one pass over the whole table, which
+ * should grow with the number of pets and not with the number of pairs of them. find times the
+ * check of a single new pet, what an insert with skip_duplicates pays on top of the insert.
+ *
+ * The trigrams, the prefix to look up, the scores and the SQL come from PetTrigrams and
+ * PetSchema of the app. Only the loops of PetDuplicates around them are repeated here, on JDBC
+ * instead of the framework.
+ */
+@State(Scope.Thread)
+@Fork(1)
+public class PetDuplicateBenchmark {
+
+    private static final double DUPLICATE_RATE = 0.02;
+
+    /**
+     * The columns Pet.read reads, in its order.
+     */
+    private static final String[] COLUMNS = {PetSchema.COLUMN_ID, PetSchema.COLUMN_NAME,
+            PetSchema.COLUMN_BREED, PetSchema.COLUMN_GENDER, PetSchema.COLUMN_WEIGHT};
+
+    /**
+     * Same as the page PetDuplicates.scan reads.
+     */
+    private static final String SQL_PAGE = "SELECT " + String.join(", ", COLUMNS)
+            + " FROM " + PetSchema.TABLE_NAME
+            + " WHERE " + PetSchema.buildLiveSelection(null) + " AND " + PetSchema.COLUMN_ID + " > ?"
+            + " ORDER BY " + PetSchema.COLUMN_ID + " LIMIT 1000";
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private PetDatabase mDatabase;
+    private Connection mConnection;
+
+    /**
+     * Pets like the typo copies, checked in turn by find.
+     */
+    private final List<Pet> mProbes = new ArrayList<>();
+    private int mNextProbe;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = PetDatabase.create(PetDatabase.Profile.DEFAULT, rows);
+        mConnection = mDatabase.open();
+        addTypoCopies(mConnection, rows, new Random(7));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mConnection.close();
+        mDatabase.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public int scan() throws Exception {
+        Map<String, Integer> trigramCounts = new HashMap<>();
+        try (Statement statement = mConnection.createStatement();
+             ResultSet resultSet = statement.executeQuery(PetSchema.SQL_QUERY_TRIGRAM_COUNTS)) {
+            while (resultSet.next()) {
+                trigramCounts.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+        }
+
+        int pairs = 0;
+        long afterId = 0;
+        try (PreparedStatement page = mConnection.prepareStatement(SQL_PAGE)) {
+            while (true) {
+                List<Pet> pets = new ArrayList<>();
+                page.setLong(1, afterId);
+                try (ResultSet resultSet = page.executeQuery()) {
+                    while (resultSet.next()) {
+                        pets.add(Pet.read(resultSet));
+                    }
+                }
+                if (pets.isEmpty()) {
+                    return pairs;
+                }
+                for (Pet pet : pets) {
+                    String[] trigrams = PetTrigrams.trigrams(pet.name);
+                    int[] counts = new int[trigrams.length];
+                    for (int i = 0; i < trigrams.length; i++) {
+                        Integer count = trigramCounts.get(trigrams[i]);
+                        counts[i] = count == null ? 0 : count;
+                    }
+                    pairs += countMatches(pet, trigrams, counts, true);
+                    afterId = pet.id;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public int find() throws Exception {
+        Pet pet = mProbes.get(mNextProbe++ % mProbes.size());
+        String[] trigrams = PetTrigrams.trigrams(pet.name);
+        int[] counts = new int[trigrams.length];
+        try (PreparedStatement count = mConnection.prepareStatement(PetSchema.SQL_QUERY_TRIGRAM_COUNT)) {
+            for (int i = 0; i < trigrams.length; i++) {
+                count.setString(1, trigrams[i]);
+                try (ResultSet resultSet = count.executeQuery()) {
+                    resultSet.next();
+                    counts[i] = resultSet.getInt(1);
+                }
+            }
+        }
+        return countMatches(pet, trigrams, counts, false);
+    }
+
+    /**
+     * Insert a copy with one typo of about {@link #DUPLICATE_RATE} of the pets, and keep
+     * another such copy of each to probe with.
+     */
+    private void addTypoCopies(Connection connection, int rows, Random random) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement select = connection.prepareStatement("SELECT "
+                + String.join(", ", COLUMNS) + " FROM " + PetSchema.TABLE_NAME
+                + " WHERE " + PetSchema.COLUMN_ID + " = ?");
+             PreparedStatement insert = connection.prepareStatement(PetDatabase.SQL_INSERT_PET)) {
+            int copies = (int) (rows * DUPLICATE_RATE);
+            for (int i = 0; i < copies; i++) {
+                select.setLong(1, 1 + random.nextInt(rows));
+                Pet pet;
+                try (ResultSet resultSet = select.executeQuery()) {
+                    resultSet.next();
+                    pet = Pet.read(resultSet);
+                }
+                insert.setString(1, typo(pet.name, random));
+                insert.setString(2, pet.breed);
+                insert.setInt(3, pet.gender);
+                insert.setInt(4, pet.weight);
+                insert.setNull(5, Types.VARCHAR);
+                insert.executeUpdate();
+                mProbes.add(new Pet(-1, typo(pet.name, random), pet.breed, pet.gender, pet.weight));
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * The name with two neighbouring letters swapped, one dropped or one replaced.
+     */
+    private static String typo(String name, Random random) {
+        int i = random.nextInt(name.length() - 1);
+        switch (random.nextInt(3)) {
+            case 0:
+                return name.substring(0, i) + name.charAt(i + 1) + name.charAt(i) + name.substring(i + 2);
+            case 1:
+                return name.substring(0, i) + name.substring(i + 1);
+            default:
+                return name.substring(0, i) + (char) ('a' + random.nextInt(26)) + name.substring(i + 1);
+        }
+    }
+
+    /**
+     * The candidates of a pet that score high enough, as PetDuplicates.addMatches finds them.
+     */
+    private int countMatches(Pet pet, String[] trigrams, int[] counts, boolean after)
+            throws SQLException {
+        String[] probes = PetTrigrams.selectProbes(trigrams, counts);
+        if (probes == null) {
+            return 0;
+        }
+
+        int matches = 0;
+        try (PreparedStatement statement = mConnection.prepareStatement(
+                PetSchema.buildDuplicateCandidatesQuery(COLUMNS, probes.length,
+                        PetTrigrams.minShared(trigrams), after))) {
+            for (int i = 0; i < probes.length; i++) {
+                statement.setString(i + 1, probes[i]);
+            }
+            if (after) {
+                statement.setLong(probes.length + 1, pet.id);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    Pet other = Pet.read(resultSet);
+                    if (PetTrigrams.score(trigrams, pet.breed, pet.gender, pet.weight, other.name,
+                            other.breed, other.gender, other.weight) >= PetTrigrams.MATCH_THRESHOLD) {
+                        matches++;
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static final class Pet {
+
+        final long id;
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+
+        Pet(long id, String name, String breed, int gender, int weight) {
+            this.id = id;
+            this.name = name;
+            this.breed = breed;
+            this.gender = gender;
+            this.weight = weight;
+        }
+
+        static Pet read(ResultSet resultSet) throws SQLException {
+            return new Pet(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3),
+                    resultSet.getInt(4), resultSet.getInt(5));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.pets.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catalog page reads racing editor updates, to compare the rollback journal of the framework
+ * defaults with the WAL profile PetDbHelper opens the database with.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PetMixedBenchmark {
+
+    private static final int ROWS = 100000;
+
+    @State(Scope.Group)
+    public static class SharedDatabase {
+
+        @Param({"FRAMEWORK", "DEFAULT"})
+        public PetDatabase.Profile profile;
+
+        PetDatabase database;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            database = PetDatabase.create(profile, ROWS);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            database.delete();
+        }
+    }
+
+    /**
+     * Every thread has its own connection, like the framework's connection pool hands out.
+     */
+    @State(Scope.Thread)
+    public static class ThreadConnection {
+
+        Connection connection;
+        PreparedStatement page;
+        PreparedStatement update;
+        final Random random = new Random();
+
+        @Setup(Level.Trial)
+        public void setUp(SharedDatabase shared) throws Exception {
+            connection = shared.database.open();
+            page = connection.prepareStatement(PetDatabase.SQL_QUERY_CATALOG + " LIMIT 50 OFFSET ?");
+            update = connection.prepareStatement(PetDatabase.SQL_UPDATE_PET_BY_ID);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            page.close();
+            update.close();
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public void readPage(ThreadConnection state, Blackhole blackhole) throws Exception {
+        state.page.setInt(1, state.random.nextInt(ROWS - 50));
+        try (ResultSet resultSet = state.page.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getString(2));
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int update(ThreadConnection state) throws Exception {
+        PetDatabase.bindRandomPet(state.update, state.random);
+        state.update.setLong(PetDatabase.UPDATE_ID_PARAMETER, 1 + state.random.nextInt(ROWS));
+        return state.update.executeUpdate();
+    }
+}
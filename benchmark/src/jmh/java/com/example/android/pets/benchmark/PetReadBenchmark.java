@@ -0,0 +1,89 @@
+package com.example.android.pets.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads as the catalog and the editor issue them: the full catalog in name order, its first
+ * page, and a single pet by id.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PetReadBenchmark {
+
+    /** Same as PetPager.PAGE_SIZE. */
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private PetDatabase mDatabase;
+    private Connection mConnection;
+    private PreparedStatement mCatalog;
+    private PreparedStatement mFirstPage;
+    private PreparedStatement mById;
+    private final Random mRandom = new Random(11);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = PetDatabase.create(PetDatabase.Profile.DEFAULT, rows);
+        mConnection = mDatabase.open();
+        mCatalog = mConnection.prepareStatement(PetDatabase.SQL_QUERY_CATALOG);
+        mFirstPage = mConnection.prepareStatement(PetDatabase.SQL_QUERY_CATALOG + " LIMIT " + PAGE_SIZE);
+        mById = mConnection.prepareStatement(PetDatabase.SQL_QUERY_PET_BY_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mCatalog.close();
+        mFirstPage.close();
+        mById.close();
+        mConnection.close();
+        mDatabase.delete();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void fullCatalog(Blackhole blackhole) throws Exception {
+        readAll(mCatalog, blackhole);
+    }
+
+    @Benchmark
+    public void firstPage(Blackhole blackhole) throws Exception {
+        readAll(mFirstPage, blackhole);
+    }
+
+    @Benchmark
+    public void petById(Blackhole blackhole) throws Exception {
+        mById.setLong(1, 1 + mRandom.nextInt(rows));
+        readAll(mById, blackhole);
+    }
+
+    private static void readAll(PreparedStatement statement, Blackhole blackhole) throws Exception {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(resultSet.getString(2));
+                blackhole.consume(resultSet.getString(3));
+                blackhole.consume(resultSet.getInt(4));
+                blackhole.consume(resultSet.getInt(5));
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.pets.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes as PetProvider issues them: single inserts, bulk inserts in one transaction, full row
+ * updates by id and delete-all, on tables of different sizes. Delete-all only moves the deleted
+ * watermark, removing the rows is timed by {@link PetCompactionBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PetWriteBenchmark {
+
+    /** Rows per bulkInsert() call. */
+    private static final int BULK_SIZE = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"FRAMEWORK", "DEFAULT"})
+    public PetDatabase.Profile profile;
+
+    private PetDatabase mDatabase;
+    private Connection mConnection;
+    private PreparedStatement mInsert;
+    private PreparedStatement mUpdate;
+    private final Random mRandom = new Random(7);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = PetDatabase.create(profile, rows);
+        mConnection = mDatabase.open();
+        mInsert = mConnection.prepareStatement(PetDatabase.SQL_INSERT_PET);
+        mUpdate = mConnection.prepareStatement(PetDatabase.SQL_UPDATE_PET_BY_ID);
+    }
+
+    /**
+     * Take out the pets the last iteration inserted, so every iteration writes to a table of
+     * the same size.
+     */
+    @Setup(Level.Iteration)
+    public void reset() throws Exception {
+        mDatabase.truncate(mConnection, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mInsert.close();
+        mUpdate.close();
+        mConnection.close();
+        mDatabase.delete();
+    }
+
+    @Benchmark
+    public int insert() throws Exception {
+        PetDatabase.bindRandomPet(mInsert, mRandom);
+        return mInsert.executeUpdate();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int bulkInsert() throws Exception {
+        mConnection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < BULK_SIZE; i++) {
+                PetDatabase.bindRandomPet(mInsert, mRandom);
+                mInsert.executeUpdate();
+            }
+            mConnection.commit();
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+        return BULK_SIZE;
+    }
+
+    @Benchmark
+    public int updateById() throws Exception {
+        PetDatabase.bindRandomPet(mUpdate, mRandom);
+        mUpdate.setLong(PetDatabase.UPDATE_ID_PARAMETER, 1 + mRandom.nextInt(rows));
+        return mUpdate.executeUpdate();
+    }
+
+    /**
+     * Delete-all needs live pets every time, so it gets its own table whose watermark is put
+     * back before each call, and is timed one shot at a time. The table size and profile are the
+     * parameters of the benchmark.
+     */
+    @State(Scope.Thread)
+    public static class FullTable {
+
+        PetDatabase database;
+        Connection connection;
+
+        @Setup(Level.Trial)
+        public void setUp(PetWriteBenchmark benchmark) throws Exception {
+            database = PetDatabase.create(benchmark.profile, benchmark.rows);
+            connection = database.open();
+        }
+
+        @Setup(Level.Invocation)
+        public void resetWatermark() throws Exception {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(PetDatabase.SQL_RESET_WATERMARK);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            connection.close();
+            database.delete();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public int deleteAll(FullTable table) throws Exception {
+        try (Statement statement = table.connection.createStatement()) {
+            return statement.executeUpdate(PetDatabase.SQL_DELETE_ALL);
+        }
+    }
+}